@@ -0,0 +1,98 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.qcloud.chdfs.fs.CHDFSHadoopFileSystemAdapter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+
+/**
+ * Everything an offline benchmark run needs: a mock implementation jar, a mock plugin server publishing it, a
+ * local data root and a jar cache dir, all below one temporary directory.
+ */
+public class BenchmarkEnvironment implements AutoCloseable {
+    public static final String MOUNT_POINT = "benchbucket-1250000000";
+    public static final URI FS_URI = URI.create("ofs://" + MOUNT_POINT + "/");
+
+    /**
+     * The plugin query uses the JDK internal http handlers, which have to be exported on JDK 9 and later.
+     */
+    public static final String EXPORT_HTTP_HANDLER = "--add-exports=java.base/sun.net.www.protocol.http=ALL-UNNAMED";
+    public static final String EXPORT_HTTPS_HANDLER =
+            "--add-exports=java.base/sun.net.www.protocol.https=ALL-UNNAMED";
+
+    private final File workDir;
+    private final File localRoot;
+    private final File jarCacheDir;
+    private final MockPluginServer pluginServer;
+
+    public BenchmarkEnvironment(String versionId) throws IOException {
+        this(versionId, 0);
+    }
+
+    /**
+     * @param jarPaddingBytes grow the mock implementation jar by this many bytes, see {@link MockImplJar}
+     */
+    public BenchmarkEnvironment(String versionId, int jarPaddingBytes) throws IOException {
+        this.workDir = Files.createTempDirectory("chdfs-benchmark").toFile();
+        this.localRoot = new File(workDir, "data");
+        this.jarCacheDir = new File(workDir, "jar-cache");
+        if (!localRoot.mkdirs() || !jarCacheDir.mkdirs()) {
+            throw new IOException("create benchmark dirs failed under " + workDir);
+        }
+        this.pluginServer = new MockPluginServer(MockImplJar.build(versionId, workDir, jarPaddingBytes));
+        this.pluginServer.routePluginQueries();
+    }
+
+    public Configuration newConfiguration() {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.defaultFS", "file:///");
+        conf.set("fs.ofs.impl", CHDFSHadoopFileSystemAdapter.class.getName());
+        conf.setBoolean("fs.ofs.impl.disable.cache", true);
+        conf.set("fs.ofs.user.appid", "1250000000");
+        conf.set("fs.ofs.meta.endpoint.suffix", "bench.local");
+        conf.setInt("fs.ofs.meta.server.port", pluginServer.getPort());
+        conf.set("fs.ofs.jar.cache.dir", jarCacheDir.getAbsolutePath());
+        conf.set(MockImplJar.LOCAL_ROOT_KEY, localRoot.getAbsolutePath());
+        return conf;
+    }
+
+    public CHDFSHadoopFileSystemAdapter newFileSystem(Configuration conf) throws IOException {
+        CHDFSHadoopFileSystemAdapter fs = new CHDFSHadoopFileSystemAdapter();
+        fs.initialize(FS_URI, conf);
+        return fs;
+    }
+
+    /**
+     * Drop the downloaded jars, so the next class load of a new version downloads again.
+     */
+    public void clearJarCache() {
+        File[] cachedFiles = jarCacheDir.listFiles();
+        if (cachedFiles != null) {
+            for (File cachedFile : cachedFiles) {
+                FileUtil.fullyDelete(cachedFile);
+            }
+        }
+    }
+
+    public File getWorkDir() {
+        return workDir;
+    }
+
+    public File getLocalRoot() {
+        return localRoot;
+    }
+
+    public MockPluginServer getPluginServer() {
+        return pluginServer;
+    }
+
+    @Override
+    public void close() {
+        pluginServer.close();
+        FileUtil.fullyDelete(workDir);
+    }
+}
@@ -0,0 +1,80 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.qcloud.chdfs.fs.CHDFSHadoopFileSystemAdapter;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall time for {@code threads} threads to initialize one file system each at the same moment, which is what an
+ * executor start of many tasks looks like. Contention shows up on the shared class loading and jar cache lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConcurrentInitBenchmark {
+    @Param({"1", "8", "32"})
+    public int threads;
+
+    private BenchmarkEnvironment env;
+    private Configuration conf;
+    private ExecutorService initExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        env = new BenchmarkEnvironment("bench_concurrent_init");
+        conf = env.newConfiguration();
+        initExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        initExecutor.shutdownNow();
+        env.close();
+    }
+
+    @Benchmark
+    public void concurrentInit() throws Exception {
+        List<Future<CHDFSHadoopFileSystemAdapter>> inits = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            inits.add(initExecutor.submit(new Callable<CHDFSHadoopFileSystemAdapter>() {
+                @Override
+                public CHDFSHadoopFileSystemAdapter call() throws IOException {
+                    return env.newFileSystem(new Configuration(conf));
+                }
+            }));
+        }
+        for (Future<CHDFSHadoopFileSystemAdapter> init : inits) {
+            try {
+                init.get().close();
+            } catch (ExecutionException e) {
+                throw new IOException("concurrent init failed", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.qcloud.chdfs.fs.CHDFSHadoopFileSystemAdapter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per operation overhead of the adapter. Every {@code adapter*} benchmark has a {@code local*} twin doing the same
+ * work on a plain {@link RawLocalFileSystem}, which is what the mock implementation runs underneath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class DelegationBenchmark {
+    private static final int DIR_ENTRIES = 100;
+
+    private BenchmarkEnvironment env;
+    private CHDFSHadoopFileSystemAdapter adapterFs;
+    private FileSystem localFs;
+    private Path adapterFile;
+    private Path adapterDir;
+    private Path localFile;
+    private Path localDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        env = new BenchmarkEnvironment("bench_delegation");
+        adapterFs = env.newFileSystem(env.newConfiguration());
+        localFs = new RawLocalFileSystem();
+        localFs.initialize(localFs.getUri(), new Configuration(false));
+
+        adapterDir = new Path("/delegation");
+        adapterFs.mkdirs(adapterDir);
+        for (int i = 0; i < DIR_ENTRIES; i++) {
+            adapterFs.create(new Path(adapterDir, "file-" + i)).close();
+        }
+        adapterFile = new Path(adapterDir, "file-0");
+        localDir = new Path(env.getLocalRoot().getAbsolutePath(), "delegation");
+        localFile = new Path(localDir, "file-0");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        adapterFs.close();
+        localFs.close();
+        env.close();
+    }
+
+    @Benchmark
+    public FileStatus adapterGetFileStatus() throws IOException {
+        return adapterFs.getFileStatus(adapterFile);
+    }
+
+    @Benchmark
+    public FileStatus localGetFileStatus() throws IOException {
+        return localFs.getFileStatus(localFile);
+    }
+
+    @Benchmark
+    public FileStatus[] adapterListStatus() throws IOException {
+        return adapterFs.listStatus(adapterDir);
+    }
+
+    @Benchmark
+    public FileStatus[] localListStatus() throws IOException {
+        return localFs.listStatus(localDir);
+    }
+
+    @Benchmark
+    public boolean adapterExistsMissing() throws IOException {
+        return adapterFs.exists(new Path(adapterDir, "missing"));
+    }
+
+    @Benchmark
+    public boolean localExistsMissing() throws IOException {
+        return localFs.exists(new Path(localDir, "missing"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.qcloud.chdfs.fs.CHDFSHadoopFileSystemAdapter;
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link CHDFSHadoopFileSystemAdapter#initialize}. The cold case is the first initialize of a fresh JVM,
+ * which queries the plugin, downloads and verifies the jar and loads the implementation classes. The warm case
+ * is every initialize after that, which still queries the plugin but reuses the loaded classes.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InitBenchmark {
+    private BenchmarkEnvironment env;
+    private Configuration conf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        env = new BenchmarkEnvironment("bench_init");
+        conf = env.newConfiguration();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        env.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(value = 10, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void coldInit() throws IOException {
+        env.newFileSystem(new Configuration(conf)).close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Fork(value = 1, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void warmInit() throws IOException {
+        env.newFileSystem(new Configuration(conf)).close();
+    }
+}
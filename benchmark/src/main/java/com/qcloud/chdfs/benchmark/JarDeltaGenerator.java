@@ -0,0 +1,128 @@
+package com.qcloud.chdfs.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Server side counterpart of the plugin's jar delta patcher, for the mock plugin server. It finds the blocks of
+ * the target jar that also occur in the base jar with an rsync style rolling checksum, and writes everything else
+ * as literal bytes.
+ */
+public class JarDeltaGenerator {
+    private static final int BLOCK_SIZE = 2048;
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private JarDeltaGenerator() {
+    }
+
+    public static void generate(File baseJar, File targetJar, File deltaFile) throws IOException {
+        byte[] base = Files.readAllBytes(baseJar.toPath());
+        byte[] target = Files.readAllBytes(targetJar.toPath());
+
+        Map<Integer, List<Integer>> blockOffsetsByChecksum = new HashMap<>();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            int checksum = checksum(base, offset);
+            List<Integer> offsets = blockOffsetsByChecksum.get(checksum);
+            if (offsets == null) {
+                offsets = new ArrayList<>(1);
+                blockOffsetsByChecksum.put(checksum, offsets);
+            }
+            offsets.add(offset);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(deltaFile))));
+        try {
+            out.write("CHDFSDLT".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(1);
+            out.writeLong(target.length);
+
+            int literalStart = 0;
+            int position = 0;
+            int a = 0;
+            int b = 0;
+            boolean checksumValid = false;
+            while (position + BLOCK_SIZE <= target.length) {
+                if (!checksumValid) {
+                    int checksum = checksum(target, position);
+                    a = checksum & 0xffff;
+                    b = checksum >>> 16;
+                    checksumValid = true;
+                }
+                int matchOffset = findMatch(blockOffsetsByChecksum.get((b << 16) | a), base, target, position);
+                if (matchOffset >= 0) {
+                    int matchLength = BLOCK_SIZE;
+                    while (position + matchLength < target.length && matchOffset + matchLength < base.length
+                            && target[position + matchLength] == base[matchOffset + matchLength]) {
+                        matchLength++;
+                    }
+                    writeInsert(out, target, literalStart, position);
+                    out.writeByte(OP_COPY);
+                    out.writeLong(matchOffset);
+                    out.writeInt(matchLength);
+                    position += matchLength;
+                    literalStart = position;
+                    checksumValid = false;
+                    continue;
+                }
+                if (position + BLOCK_SIZE < target.length) {
+                    int outByte = target[position] & 0xff;
+                    int inByte = target[position + BLOCK_SIZE] & 0xff;
+                    a = (a - outByte + inByte) & 0xffff;
+                    b = (b - BLOCK_SIZE * outByte + a) & 0xffff;
+                }
+                position++;
+            }
+            writeInsert(out, target, literalStart, target.length);
+            out.writeByte(OP_END);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int checksum(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            a += data[offset + i] & 0xff;
+            b += (BLOCK_SIZE - i) * (data[offset + i] & 0xff);
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static int findMatch(List<Integer> candidates, byte[] base, byte[] target, int position) {
+        if (candidates == null) {
+            return -1;
+        }
+        for (int candidate : candidates) {
+            boolean equal = true;
+            for (int i = 0; i < BLOCK_SIZE && equal; i++) {
+                equal = base[candidate + i] == target[position + i];
+            }
+            if (equal) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int start, int end) throws IOException {
+        if (end > start) {
+            out.writeByte(OP_INSERT);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.qcloud.chdfs.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the first initialize after a version bump, when the previous version is already in the jar cache. With
+ * {@code delta=true} the mock server offers a delta from the previous version, otherwise the whole jar is
+ * downloaded again.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JarUpdateBenchmark {
+    @Param({"false", "true"})
+    public boolean delta;
+
+    @Param({"16"})
+    public int jarSizeMb;
+
+    @Param({"20"})
+    public int downloadMbPerSec;
+
+    private BenchmarkEnvironment env;
+    private Configuration conf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int paddingBytes = jarSizeMb * 1024 * 1024;
+        env = new BenchmarkEnvironment("bench_update_v1", paddingBytes);
+        conf = env.newConfiguration();
+        conf.setBoolean("fs.ofs.jar.delta.enabled", delta);
+        MockPluginServer pluginServer = env.getPluginServer();
+        pluginServer.setDownloadBytesPerSec(downloadMbPerSec * 1024L * 1024L);
+        env.newFileSystem(new Configuration(conf)).close();
+
+        MockImplJar previousJar = pluginServer.getImplJar();
+        MockImplJar nextJar = MockImplJar.build("bench_update_v2", env.getWorkDir(), paddingBytes);
+        if (delta) {
+            pluginServer.publishDelta(previousJar, nextJar, env.getWorkDir());
+        }
+        pluginServer.setImplJar(nextJar);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        env.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(value = 5, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void initAfterVersionBump() throws IOException {
+        env.newFileSystem(new Configuration(conf)).close();
+    }
+}
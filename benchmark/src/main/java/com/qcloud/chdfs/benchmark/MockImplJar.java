@@ -0,0 +1,193 @@
+package com.qcloud.chdfs.benchmark;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.MD5Hash;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates a mock implementation jar, holding a {@code chdfs.<versionId>.com.qcloud.chdfs.fs.CHDFSHadoopFileSystem}
+ * that serves {@code ofs://} paths from a directory of the local disk.
+ *
+ * <p>The class is compiled at runtime instead of being part of this module, so that the plugin loads it from the
+ * generated jar through its own class loader exactly like a real implementation version.
+ */
+public class MockImplJar {
+    /**
+     * The local directory the mock implementation stores its files in.
+     */
+    public static final String LOCAL_ROOT_KEY = "fs.ofs.benchmark.local.root";
+
+    private static final String SOURCE_TEMPLATE = ""
+            + "package chdfs.%1$s.com.qcloud.chdfs.fs;\n"
+            + "\n"
+            + "public class CHDFSHadoopFileSystem extends org.apache.hadoop.fs.RawLocalFileSystem {\n"
+            + "    private java.net.URI uri;\n"
+            + "    private java.io.File localRoot;\n"
+            + "\n"
+            + "    @Override\n"
+            + "    public void initialize(java.net.URI name, org.apache.hadoop.conf.Configuration conf)\n"
+            + "            throws java.io.IOException {\n"
+            + "        this.uri = java.net.URI.create(name.getScheme() + \"://\" + name.getAuthority() + \"/\");\n"
+            + "        this.localRoot = new java.io.File(conf.get(\"%2$s\"));\n"
+            + "        super.initialize(name, conf);\n"
+            + "        setWorkingDirectory(new org.apache.hadoop.fs.Path(\"/\"));\n"
+            + "    }\n"
+            + "\n"
+            + "    @Override\n"
+            + "    public java.net.URI getUri() {\n"
+            + "        // the RawLocalFileSystem constructor qualifies its working directory before initialize\n"
+            + "        return uri != null ? uri : super.getUri();\n"
+            + "    }\n"
+            + "\n"
+            + "    @Override\n"
+            + "    public String getScheme() {\n"
+            + "        return \"ofs\";\n"
+            + "    }\n"
+            + "\n"
+            + "    @Override\n"
+            + "    public java.io.File pathToFile(org.apache.hadoop.fs.Path path) {\n"
+            + "        checkPath(path);\n"
+            + "        if (!path.isAbsolute()) {\n"
+            + "            path = new org.apache.hadoop.fs.Path(getWorkingDirectory(), path);\n"
+            + "        }\n"
+            + "        return new java.io.File(localRoot, path.toUri().getPath());\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final long PADDING_SEED = 20240101L;
+
+    private final String versionId;
+    private final File jarFile;
+    private final String md5Hex;
+
+    private MockImplJar(String versionId, File jarFile, String md5Hex) {
+        this.versionId = versionId;
+        this.jarFile = jarFile;
+        this.md5Hex = md5Hex;
+    }
+
+    /**
+     * Compile the mock implementation of {@code versionId} and package it into a jar under {@code workDir}.
+     */
+    public static MockImplJar build(String versionId, File workDir) throws IOException {
+        return build(versionId, workDir, 0);
+    }
+
+    /**
+     * Like {@link #build(String, File)}, plus a {@code padding.bin} entry of {@code paddingBytes} pseudo random
+     * bytes, which is the same for every version, to give the jar the size of a real shaded jar.
+     */
+    public static MockImplJar build(String versionId, File workDir, int paddingBytes) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("no system java compiler, the benchmarks have to run on a JDK");
+        }
+
+        File sourceDir = new File(workDir, "mock-impl-src-" + versionId);
+        File classDir = new File(workDir, "mock-impl-classes-" + versionId);
+        File packageDir = new File(sourceDir, String.format("chdfs/%s/com/qcloud/chdfs/fs", versionId));
+        if (!packageDir.mkdirs() && !packageDir.isDirectory()) {
+            throw new IOException("create dir failed: " + packageDir);
+        }
+        if (!classDir.mkdirs() && !classDir.isDirectory()) {
+            throw new IOException("create dir failed: " + classDir);
+        }
+
+        File sourceFile = new File(packageDir, "CHDFSHadoopFileSystem.java");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(sourceFile), StandardCharsets.UTF_8);
+        try {
+            writer.write(String.format(SOURCE_TEMPLATE, versionId, LOCAL_ROOT_KEY));
+        } finally {
+            writer.close();
+        }
+
+        int exitCode = compiler.run(null, null, null, "-nowarn", "-cp", System.getProperty("java.class.path"),
+                "-d", classDir.getAbsolutePath(), sourceFile.getAbsolutePath());
+        if (exitCode != 0) {
+            throw new IOException("compile mock impl failed, exitCode: " + exitCode);
+        }
+
+        File jarFile = new File(workDir, String.format("mock_chdfs_impl-%s.jar", versionId));
+        JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            List<File> classFiles = new ArrayList<>();
+            collectFiles(classDir, classFiles);
+            for (File classFile : classFiles) {
+                String entryName = classDir.toURI().relativize(classFile.toURI()).getPath();
+                jarOut.putNextEntry(new JarEntry(entryName));
+                copy(classFile, jarOut);
+                jarOut.closeEntry();
+            }
+            if (paddingBytes > 0) {
+                byte[] padding = new byte[paddingBytes];
+                new Random(PADDING_SEED).nextBytes(padding);
+                jarOut.putNextEntry(new JarEntry("padding.bin"));
+                jarOut.write(padding);
+                jarOut.closeEntry();
+            }
+        } finally {
+            jarOut.close();
+        }
+
+        InputStream in = new FileInputStream(jarFile);
+        try {
+            return new MockImplJar(versionId, jarFile, Hex.encodeHexString(MD5Hash.digest(in).getDigest()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void collectFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    private static void copy(File file, JarOutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int readLen;
+            while ((readLen = in.read(buf)) != -1) {
+                out.write(buf, 0, readLen);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public String getVersionId() {
+        return versionId;
+    }
+
+    public File getJarFile() {
+        return jarFile;
+    }
+
+    public String getMd5Hex() {
+        return md5Hex;
+    }
+}
@@ -0,0 +1,204 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the chdfs plugin endpoint. It answers {@code /chdfs-hadoop-plugin} with the info of a
+ * local mock implementation jar and serves that jar, and the deltas published for it, under {@code /jar/}.
+ *
+ * <p>The plugin query is sent to the mount point host, so the benchmarks route it here by using this server as
+ * the http proxy of the JVM, see {@link #routePluginQueries()}. The jar download goes to 127.0.0.1 directly.
+ */
+public class MockPluginServer implements AutoCloseable {
+    private static final String PLUGIN_QUERY_PATH = "/chdfs-hadoop-plugin";
+    private static final String JAR_PATH_PREFIX = "/jar/";
+    private static final String DELTA_SUFFIX = ".delta";
+
+    private final HttpServer httpServer;
+    private final ExecutorService httpExecutor;
+    private final AtomicLong pluginQueryCount = new AtomicLong(0);
+    private final AtomicLong jarDownloadCount = new AtomicLong(0);
+    private final AtomicLong deltaDownloadCount = new AtomicLong(0);
+    private final ConcurrentMap<String, File> deltaFiles = new ConcurrentHashMap<>();
+    private volatile MockImplJar implJar;
+    private volatile long responseDelayMs = 0;
+    private volatile long downloadBytesPerSec = 0;
+
+    public MockPluginServer(MockImplJar implJar) throws IOException {
+        this.implJar = implJar;
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        this.httpServer.createContext(PLUGIN_QUERY_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                pluginQueryCount.incrementAndGet();
+                delay();
+                MockImplJar jar = MockPluginServer.this.implJar;
+                String resp = String.format("{\"Response\":{\"HadoopPluginJar\":{\"VersionId\":\"%s\","
+                                + "\"JarPath\":\"%s\",\"JarMd5\":\"%s\"}}}", jar.getVersionId(),
+                        getJarUrl(jar), jar.getMd5Hex());
+                byte[] body = resp.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        this.httpServer.createContext(JAR_PATH_PREFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                delay();
+                String requestPath = exchange.getRequestURI().getPath();
+                File file;
+                if (requestPath.endsWith(DELTA_SUFFIX)) {
+                    file = deltaFiles.get(requestPath.substring(JAR_PATH_PREFIX.length()));
+                    if (file == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    deltaDownloadCount.incrementAndGet();
+                } else {
+                    file = MockPluginServer.this.implJar.getJarFile();
+                    jarDownloadCount.incrementAndGet();
+                }
+                exchange.sendResponseHeaders(200, file.length());
+                InputStream in = new FileInputStream(file);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    int readLen;
+                    while ((readLen = in.read(buf)) != -1) {
+                        out.write(buf, 0, readLen);
+                        throttle(readLen);
+                    }
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        });
+        this.httpExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "mock-plugin-server");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.httpServer.setExecutor(httpExecutor);
+        this.httpServer.start();
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Send every plain http request of this JVM which is not for a loopback address through this server.
+     */
+    public void routePluginQueries() {
+        System.setProperty("http.proxyHost", "127.0.0.1");
+        System.setProperty("http.proxyPort", String.valueOf(getPort()));
+    }
+
+    /**
+     * Publish another implementation version, the next plugin query returns it.
+     */
+    public void setImplJar(MockImplJar implJar) {
+        this.implJar = implJar;
+    }
+
+    public MockImplJar getImplJar() {
+        return implJar;
+    }
+
+    /**
+     * Add a fixed latency to every response, to simulate a remote endpoint.
+     */
+    public void setResponseDelayMs(long responseDelayMs) {
+        this.responseDelayMs = responseDelayMs;
+    }
+
+    /**
+     * Offer a delta from {@code baseJar} to {@code targetJar}, under the url the plugin derives from the jar url
+     * of the target and the md5 of its cached base jar.
+     */
+    public void publishDelta(MockImplJar baseJar, MockImplJar targetJar, File workDir) throws IOException {
+        String deltaName = String.format("%s.from-%s%s", targetJar.getJarFile().getName(), baseJar.getMd5Hex(),
+                DELTA_SUFFIX);
+        File deltaFile = new File(workDir, deltaName);
+        JarDeltaGenerator.generate(baseJar.getJarFile(), targetJar.getJarFile(), deltaFile);
+        deltaFiles.put(deltaName, deltaFile);
+    }
+
+    /**
+     * Limit the download speed of jars and deltas, to simulate a remote mirror. 0 means unlimited.
+     */
+    public void setDownloadBytesPerSec(long downloadBytesPerSec) {
+        this.downloadBytesPerSec = downloadBytesPerSec;
+    }
+
+    public long getPluginQueryCount() {
+        return pluginQueryCount.get();
+    }
+
+    public long getJarDownloadCount() {
+        return jarDownloadCount.get();
+    }
+
+    public long getDeltaDownloadCount() {
+        return deltaDownloadCount.get();
+    }
+
+    private String getJarUrl(MockImplJar jar) {
+        return String.format("http://127.0.0.1:%d%s%s", getPort(), JAR_PATH_PREFIX, jar.getJarFile().getName());
+    }
+
+    private void delay() {
+        if (responseDelayMs > 0) {
+            try {
+                Thread.sleep(responseDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void throttle(int sentBytes) {
+        long bytesPerSec = downloadBytesPerSec;
+        if (bytesPerSec > 0) {
+            try {
+                Thread.sleep(sentBytes * 1000L / bytesPerSec);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        httpExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,109 @@
+package com.qcloud.chdfs.benchmark;
+
+import com.qcloud.chdfs.fs.CHDFSHadoopFileSystemAdapter;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream throughput through the adapter: a whole sequential read and write of a file, and random positional reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkEnvironment.EXPORT_HTTP_HANDLER,
+        BenchmarkEnvironment.EXPORT_HTTPS_HANDLER})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StreamBenchmark {
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    @Param({"4096", "1048576"})
+    public int bufferSize;
+
+    private BenchmarkEnvironment env;
+    private CHDFSHadoopFileSystemAdapter fs;
+    private Path readFile;
+    private Path writeFile;
+    private byte[] buffer;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        env = new BenchmarkEnvironment("bench_stream");
+        fs = env.newFileSystem(env.newConfiguration());
+        readFile = new Path("/stream/read.bin");
+        writeFile = new Path("/stream/write.bin");
+        buffer = new byte[bufferSize];
+        random = new Random(0);
+        random.nextBytes(buffer);
+        writeFully(readFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        env.close();
+    }
+
+    @Benchmark
+    public long sequentialRead() throws IOException {
+        long total = 0;
+        FSDataInputStream in = fs.open(readFile, bufferSize);
+        try {
+            int readLen;
+            while ((readLen = in.read(buffer, 0, buffer.length)) != -1) {
+                total += readLen;
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int positionalRead() throws IOException {
+        long position = (long) (random.nextDouble() * (FILE_SIZE - buffer.length));
+        FSDataInputStream in = fs.open(readFile, bufferSize);
+        try {
+            in.readFully(position, buffer, 0, buffer.length);
+        } finally {
+            in.close();
+        }
+        return buffer[0];
+    }
+
+    @Benchmark
+    public void sequentialWrite() throws IOException {
+        writeFully(writeFile);
+    }
+
+    private void writeFully(Path path) throws IOException {
+        FSDataOutputStream out = fs.create(path, true, bufferSize);
+        try {
+            for (long written = 0; written < FILE_SIZE; written += buffer.length) {
+                out.write(buffer, 0, (int) Math.min(buffer.length, FILE_SIZE - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.CanSetDropBehind;
+import org.apache.hadoop.fs.CanSetReadahead;
+import org.apache.hadoop.fs.CanUnbuffer;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSExceptionMessages;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serves the sequential reads of the impl stream from a fetch buffer, filled by a large streaming read in
+ * sequential mode and by a small positional read of about the requested range in random mode. Reads at least
+ * as large as a fetch bypass the buffer. Seeks are lazy, so only the next read decides how to fetch.
+ *
+ * <p>With {@link InputPolicy#ADAPTIVE} the stream starts sequential and turns random on the first read which is
+ * not close ahead of the previous one, e.g. a backward seek to a footer, and turns sequential again once a run
+ * of contiguous reads reaches the sequential fetch size. Positional reads always go to the impl stream directly.
+ */
+class AdaptiveInputStream extends FSInputStream implements CanSetDropBehind, CanSetReadahead, CanUnbuffer {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveInputStream.class);
+
+    private final FSDataInputStream in;
+    private final Path path;
+    private final InputPolicy policy;
+    private final int sequentialFetchSize;
+    private final int randomFetchSize;
+    private final byte[] oneByte = new byte[1];
+
+    private boolean randomMode;
+    private byte[] buffer = null;
+    private long bufferStart = 0;
+    private int bufferLen = 0;
+    private long pos = 0;
+    private long lastReadEnd = 0;
+    private long contiguousBytes = 0;
+    private boolean closed = false;
+
+    AdaptiveInputStream(FSDataInputStream in, Path path, InputPolicy policy, int sequentialFetchSize,
+            int randomFetchSize) throws IOException {
+        this.in = in;
+        this.path = path;
+        this.policy = policy;
+        this.sequentialFetchSize = Math.max(1, sequentialFetchSize);
+        this.randomFetchSize = Math.max(1, randomFetchSize);
+        this.randomMode = policy == InputPolicy.RANDOM;
+        this.pos = in.getPos();
+        this.lastReadEnd = this.pos;
+    }
+
+    /**
+     * Wrap {@code in}, implementing {@link ByteBufferReadable} only if the impl stream does.
+     */
+    static FSDataInputStream wrap(FSDataInputStream in, Path path, InputPolicy policy, int sequentialFetchSize,
+            int randomFetchSize) throws IOException {
+        if (in.getWrappedStream() instanceof ByteBufferReadable) {
+            return new FSDataInputStream(new ByteBufferReadableAdaptiveInputStream(in, path, policy,
+                    sequentialFetchSize, randomFetchSize));
+        }
+        return new FSDataInputStream(new AdaptiveInputStream(in, path, policy, sequentialFetchSize,
+                randomFetchSize));
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        int readLen = read(oneByte, 0, 1);
+        return readLen == -1 ? -1 : oneByte[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        checkNotClosed();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        trackAccess();
+
+        int readLen;
+        if (pos >= bufferStart && pos < bufferStart + bufferLen) {
+            readLen = copyFromBuffer(b, off, len);
+        } else if (len >= getFetchSize()) {
+            readLen = randomMode ? in.read(pos, b, off, len) : readSequential(b, off, len);
+        } else {
+            fill();
+            readLen = bufferLen > 0 ? copyFromBuffer(b, off, len) : -1;
+        }
+
+        if (readLen > 0) {
+            pos += readLen;
+            lastReadEnd = pos;
+            contiguousBytes += readLen;
+        }
+        return readLen;
+    }
+
+    int getFetchSize() {
+        return randomMode ? randomFetchSize : sequentialFetchSize;
+    }
+
+    /**
+     * Classify the coming read against the end of the previous one, and switch the mode of an adaptive stream.
+     */
+    private void trackAccess() {
+        boolean sequentialAccess = pos >= lastReadEnd && pos - lastReadEnd < sequentialFetchSize;
+        if (!sequentialAccess) {
+            contiguousBytes = 0;
+        }
+        if (policy != InputPolicy.ADAPTIVE) {
+            return;
+        }
+        if (!sequentialAccess && !randomMode) {
+            randomMode = true;
+            log.debug("input stream of {} turns random at pos {}, previous read end: {}", path, pos, lastReadEnd);
+        } else if (sequentialAccess && randomMode && contiguousBytes >= sequentialFetchSize) {
+            randomMode = false;
+            log.debug("input stream of {} turns sequential at pos {}", path, pos);
+        }
+    }
+
+    private int copyFromBuffer(byte[] b, int off, int len) {
+        int bufferOffset = (int) (pos - bufferStart);
+        int copyLen = Math.min(len, bufferLen - bufferOffset);
+        System.arraycopy(buffer, bufferOffset, b, off, copyLen);
+        return copyLen;
+    }
+
+    private void fill() throws IOException {
+        int fetchSize = getFetchSize();
+        if (buffer == null || buffer.length < fetchSize) {
+            buffer = new byte[fetchSize];
+        }
+        bufferStart = pos;
+        bufferLen = 0;
+        if (randomMode) {
+            bufferLen = Math.max(0, in.read(pos, buffer, 0, fetchSize));
+            return;
+        }
+        while (bufferLen < fetchSize) {
+            int readLen = readSequential(buffer, bufferLen, fetchSize - bufferLen);
+            if (readLen <= 0) {
+                break;
+            }
+            bufferLen += readLen;
+        }
+    }
+
+    /**
+     * Read from the impl stream at the position after the buffered data, seeking it there only if needed.
+     */
+    private int readSequential(byte[] b, int off, int len) throws IOException {
+        long readPos = pos + (bufferStart == pos ? bufferLen : 0);
+        if (in.getPos() != readPos) {
+            in.seek(readPos);
+        }
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public synchronized void seek(long targetPos) throws IOException {
+        checkNotClosed();
+        if (targetPos < 0) {
+            throw new EOFException(FSExceptionMessages.NEGATIVE_SEEK + " " + targetPos);
+        }
+        pos = targetPos;
+    }
+
+    @Override
+    public synchronized long getPos() throws IOException {
+        return pos;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        checkNotClosed();
+        if (n <= 0) {
+            return 0;
+        }
+        if (pos + n <= bufferStart + bufferLen && pos >= bufferStart) {
+            pos += n;
+            return n;
+        }
+        // the impl stream knows where the file ends
+        in.seek(pos);
+        long skipped = in.skip(n);
+        pos = in.getPos();
+        return skipped;
+    }
+
+    @Override
+    public synchronized boolean seekToNewSource(long targetPos) throws IOException {
+        bufferLen = 0;
+        pos = targetPos;
+        return in.seekToNewSource(targetPos);
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        checkNotClosed();
+        if (pos >= bufferStart && pos < bufferStart + bufferLen) {
+            return (int) (bufferStart + bufferLen - pos);
+        }
+        return in.getPos() == pos ? in.available() : 0;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        return in.read(position, buffer, offset, length);
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+        in.readFully(position, buffer, offset, length);
+    }
+
+    @Override
+    public void setDropBehind(Boolean dropCache) throws IOException, UnsupportedOperationException {
+        in.setDropBehind(dropCache);
+    }
+
+    @Override
+    public void setReadahead(Long readahead) throws IOException, UnsupportedOperationException {
+        in.setReadahead(readahead);
+    }
+
+    @Override
+    public synchronized void unbuffer() {
+        buffer = null;
+        bufferLen = 0;
+        in.unbuffer();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer = null;
+        bufferLen = 0;
+        in.close();
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+    }
+
+    /**
+     * Serves the buffer reads like the array reads, a direct buffer through a heap array of at most a fetch.
+     */
+    private static class ByteBufferReadableAdaptiveInputStream extends AdaptiveInputStream
+            implements ByteBufferReadable {
+        private byte[] directReadBuffer = null;
+
+        ByteBufferReadableAdaptiveInputStream(FSDataInputStream in, Path path, InputPolicy policy,
+                int sequentialFetchSize, int randomFetchSize) throws IOException {
+            super(in, path, policy, sequentialFetchSize, randomFetchSize);
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer buf) throws IOException {
+            if (!buf.hasRemaining()) {
+                return 0;
+            }
+            if (buf.hasArray()) {
+                int readLen = read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                if (readLen > 0) {
+                    buf.position(buf.position() + readLen);
+                }
+                return readLen;
+            }
+            int maxLen = Math.min(buf.remaining(), getFetchSize());
+            if (directReadBuffer == null || directReadBuffer.length < maxLen) {
+                directReadBuffer = new byte[maxLen];
+            }
+            int readLen = read(directReadBuffer, 0, maxLen);
+            if (readLen > 0) {
+                buf.put(directReadBuffer, 0, readLen);
+            }
+            return readLen;
+        }
+
+        @Override
+        public synchronized void unbuffer() {
+            directReadBuffer = null;
+            super.unbuffer();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Resolves the status of many paths at once. Siblings sharing a parent are resolved with a single
+ * listing of the parent once there are enough of them, the rest fan out as parallel getFileStatus calls.
+ * The listing reads at most {@code listMaxEntriesPerPath} entries per requested sibling, so a few siblings in a
+ * huge directory do not list all of it: past that, the siblings not found yet are resolved one by one.
+ */
+class BatchFileStatusFetcher {
+    private final FileSystem fs;
+    private final BoundedOperationExecutor executor;
+    private final int concurrency;
+    private final int listThreshold;
+    private final int listMaxEntriesPerPath;
+
+    BatchFileStatusFetcher(FileSystem fs, BoundedOperationExecutor executor, int concurrency, int listThreshold,
+            int listMaxEntriesPerPath) {
+        this.fs = fs;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.listThreshold = listThreshold;
+        this.listMaxEntriesPerPath = Math.max(1, listMaxEntriesPerPath);
+    }
+
+    /**
+     * @return statuses in the same order as {@code paths}, a {@code null} element marks a missing path
+     */
+    FileStatus[] getFileStatuses(List<Path> paths) throws IOException {
+        final FileStatus[] result = new FileStatus[paths.size()];
+        if (paths.isEmpty()) {
+            return result;
+        }
+
+        Map<Path, List<Integer>> indexesByParent = new LinkedHashMap<>();
+        final List<Path> qualifiedPaths = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            Path qualified = fs.makeQualified(paths.get(i));
+            qualifiedPaths.add(qualified);
+            List<Integer> indexes = indexesByParent.get(qualified.getParent());
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                indexesByParent.put(qualified.getParent(), indexes);
+            }
+            indexes.add(i);
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<Path, List<Integer>> entry : indexesByParent.entrySet()) {
+            final Path parent = entry.getKey();
+            final List<Integer> indexes = entry.getValue();
+            if (parent != null && listThreshold > 0 && indexes.size() >= listThreshold) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        resolveByListing(parent, indexes, qualifiedPaths, result);
+                        return null;
+                    }
+                });
+            } else {
+                for (final Integer index : indexes) {
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            result[index] = getFileStatusOrNull(qualifiedPaths.get(index));
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+
+        executor.runAll(tasks, concurrency);
+        return result;
+    }
+
+    private void resolveByListing(Path parent, List<Integer> indexes, final List<Path> qualifiedPaths,
+            final FileStatus[] result) throws IOException {
+        Map<String, List<Integer>> indexesByName = new LinkedHashMap<>(indexes.size() * 2);
+        for (Integer index : indexes) {
+            String name = qualifiedPaths.get(index).getName();
+            List<Integer> sameNameIndexes = indexesByName.get(name);
+            if (sameNameIndexes == null) {
+                sameNameIndexes = new ArrayList<>(1);
+                indexesByName.put(name, sameNameIndexes);
+            }
+            sameNameIndexes.add(index);
+        }
+
+        long maxEntries = (long) indexes.size() * listMaxEntriesPerPath;
+        long entries = 0;
+        RemoteIterator<FileStatus> children = null;
+        try {
+            children = fs.listStatusIterator(parent);
+            while (!indexesByName.isEmpty() && children.hasNext()) {
+                if (entries++ >= maxEntries) {
+                    // the directory is too large to be cheaper than the stats of the remaining siblings
+                    break;
+                }
+                FileStatus child = children.next();
+                // listing a file returns the file itself, which must not be mistaken for a child
+                if (child.getPath().equals(parent)) {
+                    continue;
+                }
+                List<Integer> childIndexes = indexesByName.remove(child.getPath().getName());
+                if (childIndexes != null) {
+                    for (Integer index : childIndexes) {
+                        result[index] = child;
+                    }
+                }
+            }
+            if (entries <= maxEntries) {
+                // the whole listing was read, or every sibling was found
+                return;
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } finally {
+            // a streamed listing which is not read to its end still fetches its next page
+            if (children instanceof Closeable) {
+                utils.closeQuietly((Closeable) children);
+            }
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<Integer> remainingIndexes : indexesByName.values()) {
+            for (final Integer index : remainingIndexes) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        result[index] = getFileStatusOrNull(qualifiedPaths.get(index));
+                        return null;
+                    }
+                });
+            }
+        }
+        executor.runAll(tasks, concurrency);
+    }
+
+    private FileStatus getFileStatusOrNull(Path path) throws IOException {
+        try {
+            return fs.getFileStatus(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+}
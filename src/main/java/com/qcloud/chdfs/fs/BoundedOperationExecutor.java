@@ -0,0 +1,190 @@
+package com.qcloud.chdfs.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed size thread pool with a bounded wait queue, shared by all the background work of one file system
+ * instance. Submitting while the queue is full fails fast instead of blocking or growing the pool.
+ */
+class BoundedOperationExecutor {
+    private static final Logger log = LoggerFactory.getLogger(BoundedOperationExecutor.class);
+    private final ThreadPoolExecutor executor;
+    private final int maxQueueDepth;
+
+    BoundedOperationExecutor(String name, int threads, int maxQueueDepth) {
+        int poolSize = Math.max(1, threads);
+        this.maxQueueDepth = Math.max(1, maxQueueDepth);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(this.maxQueueDepth), utils.newDaemonThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @throws IOException if the wait queue is full or the executor is shut down
+     */
+    <T> Future<T> submit(Callable<T> task) throws IOException {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Like {@link #submit(Callable)}, for a future which hooks its completion.
+     */
+    void execute(FutureTask<?> task) throws IOException {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                throw new IOException("the fileSystem is already closed", e);
+            }
+            throw new IOException(String.format("too many pending operations, queueDepth: %d, maxQueueDepth: %d",
+                    executor.getQueue().size(), maxQueueDepth), e);
+        }
+    }
+
+    /**
+     * Run all the tasks with at most {@code concurrency} of them in flight and wait for them to finish. The calling
+     * thread is one of the workers, so the tasks still make progress when the executor is saturated, and it waits
+     * only for the tasks which were started: a background worker still queued once every task is claimed is
+     * cancelled, so tasks may call runAll again from executor threads. The first failure stops the start of further
+     * tasks, the tasks still running are interrupted and the failure is rethrown.
+     */
+    void runAll(List<? extends Callable<?>> tasks, int concurrency) throws IOException {
+        final TaskRun run = new TaskRun(tasks);
+        Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() {
+                run.runRemaining();
+                return null;
+            }
+        };
+
+        int backgroundWorkerCount = Math.min(concurrency, tasks.size()) - 1;
+        List<Future<Void>> backgroundWorkers = new ArrayList<>(Math.max(0, backgroundWorkerCount));
+        for (int i = 0; i < backgroundWorkerCount; i++) {
+            try {
+                backgroundWorkers.add(submit(worker));
+            } catch (IOException e) {
+                log.debug("executor is saturated, continue with {} background workers", backgroundWorkers.size());
+                break;
+            }
+        }
+
+        boolean interrupted = false;
+        try {
+            run.runRemaining();
+            run.awaitStartedTasks();
+        } catch (InterruptedException e) {
+            interrupted = true;
+            run.stop();
+            throw (IOException) new InterruptedIOException("wait for tasks interrupted").initCause(e);
+        } finally {
+            boolean interruptRunning = interrupted || run.getFailure() != null;
+            for (Future<Void> backgroundWorker : backgroundWorkers) {
+                backgroundWorker.cancel(interruptRunning);
+            }
+        }
+
+        Throwable failure = run.getFailure();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IOException("run tasks failed", failure);
+        }
+    }
+
+    /**
+     * The tasks of one runAll call, claimed one at a time by the workers.
+     */
+    private static class TaskRun {
+        private final List<? extends Callable<?>> tasks;
+        private int nextTask = 0;
+        private int runningTasks = 0;
+        private Throwable failure = null;
+
+        private TaskRun(List<? extends Callable<?>> tasks) {
+            this.tasks = tasks;
+        }
+
+        void runRemaining() {
+            int taskIndex;
+            while ((taskIndex = claim()) >= 0) {
+                Throwable taskFailure = null;
+                try {
+                    tasks.get(taskIndex).call();
+                } catch (Throwable t) {
+                    taskFailure = t;
+                } finally {
+                    finished(taskFailure);
+                }
+            }
+        }
+
+        private synchronized int claim() {
+            if (failure != null || nextTask >= tasks.size()) {
+                return -1;
+            }
+            runningTasks++;
+            return nextTask++;
+        }
+
+        private synchronized void finished(Throwable taskFailure) {
+            runningTasks--;
+            if (taskFailure != null && failure == null) {
+                failure = taskFailure;
+            }
+            notifyAll();
+        }
+
+        synchronized void stop() {
+            nextTask = tasks.size();
+        }
+
+        /**
+         * Wait until every started task finished, or one of them failed.
+         */
+        synchronized void awaitStartedTasks() throws InterruptedException {
+            while (runningTasks > 0 && failure == null) {
+                wait();
+            }
+        }
+
+        synchronized Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -3,14 +3,26 @@ package com.qcloud.chdfs.fs;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.DelegateToFileSystem;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-public class CHDFSDelegateFSAdapter extends DelegateToFileSystem {
+/**
+ * The FileContext binding of the ofs scheme. The impl filesystem is always shared and reference counted per mount
+ * point, user and fs.ofs.* configuration, so creating a FileContext does not bootstrap the plugin again.
+ *
+ * <p>The adapter itself is not cached: {@link org.apache.hadoop.fs.AbstractFileSystem} initializes the filesystem
+ * it delegates to in its constructor, so every FileContext still initializes an adapter of its own, with its
+ * executors, plugin jar check and configuration parsing. A caller creating many FileContexts should reuse one
+ * instead.
+ */
+public class CHDFSDelegateFSAdapter extends DelegateToFileSystem implements Closeable {
+    private final FileSystemReaper.Cleanup cleanup;
 
     public CHDFSDelegateFSAdapter(URI theUri, Configuration conf) throws IOException, URISyntaxException {
-        super(theUri, new CHDFSHadoopFileSystemAdapter(), conf, CHDFSHadoopFileSystemAdapter.SCHEME, false);
+        super(theUri, new CHDFSHadoopFileSystemAdapter(true), conf, CHDFSHadoopFileSystemAdapter.SCHEME, false);
+        this.cleanup = FileSystemReaper.register(this, fsImpl);
     }
 
     @Override
@@ -28,11 +40,12 @@ public class CHDFSDelegateFSAdapter extends DelegateToFileSystem {
     }
 
     /**
-     * Close the file system; the FileContext API doesn't have an explicit close.
+     * Release the adapter now. The FileContext API doesn't have an explicit close, so an adapter which is not
+     * closed is released after it is garbage collected. Either releases its reference on the shared impl
+     * filesystem once, however often this is called.
      */
     @Override
-    protected void finalize() throws Throwable {
-        fsImpl.close();
-        super.finalize();
+    public void close() throws IOException {
+        cleanup.close();
     }
-}
\ No newline at end of file
+}
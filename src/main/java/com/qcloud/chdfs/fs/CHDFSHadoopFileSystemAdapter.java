@@ -2,6 +2,8 @@ package com.qcloud.chdfs.fs;
 
 import com.qcloud.chdfs.permission.RangerAccessType;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -11,36 +13,60 @@ import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.StorageStatistics;
 import org.apache.hadoop.fs.UnsupportedFileSystemException;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.AclStatus;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.Progressable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE implements RangerPermissionChecker {
     static final String SCHEME = "ofs";
     private static final Logger log = LoggerFactory.getLogger(CHDFSHadoopFileSystemAdapter.class);
+    private static final PathFilter ACCEPT_ALL_FILTER = new PathFilter() {
+        @Override
+        public boolean accept(Path file) {
+            return true;
+        }
+    };
     private static final String MOUNT_POINT_ADDR_PATTERN_CHDFS_TYPE =
             "^([a-zA-Z0-9-]+)\\.chdfs(-dualstack)?(\\.inner)?\\.([a-z0-9-]+)\\.([a-z0-9-.]+)";
+    private static final String CHDFS_LABEL_PATTERN = "chdfs(-dualstack)?(\\.inner)?";
     private static final String MOUNT_POINT_ADDR_PATTERN_COS_TYPE =
             "^([a-z0-9-]+)-([a-zA-Z0-9]+)$";
     private static final String CHDFS_USER_APPID_KEY = "fs.ofs.user.appid";
@@ -57,6 +83,35 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     private static final String CHDFS_BUCKET_REGION = "fs.ofs.bucket.region";
     private static final String COS_ENDPOINT_SUFFIX = "fs.ofs.data.transfer.endpoint.suffix";
 
+    /**
+     * Poll the plugin server in the background at this interval and preload new versions ahead of time,
+     * 0 disables the background refresh.
+     */
+    private static final String CHDFS_JAR_BACKGROUND_REFRESH_INTERVAL_SEC_KEY =
+            "fs.ofs.jar.background.refresh.interval.sec";
+    private static final long DEFAULT_CHDFS_JAR_BACKGROUND_REFRESH_INTERVAL_SEC = 0;
+
+    /**
+     * Before downloading a new plugin version in full, try to rebuild it from the newest cached jar and the delta
+     * at {@code <jarPath>.from-<cached jar md5>.delta}. Costs an md5 of the cached jar and a request per version
+     * change, so only worth enabling against a plugin server which publishes deltas.
+     */
+    private static final String CHDFS_JAR_DELTA_ENABLED_KEY = "fs.ofs.jar.delta.enabled";
+    private static final boolean DEFAULT_CHDFS_JAR_DELTA_ENABLED = false;
+
+    /**
+     * Keep at most this many plugin jars in the jar cache dir, evicting the least recently used versions which no
+     * live JVM of the node uses. 0 means unlimited.
+     */
+    private static final String CHDFS_JAR_CACHE_MAX_COUNT_KEY = "fs.ofs.jar.cache.max.count";
+    private static final int DEFAULT_CHDFS_JAR_CACHE_MAX_COUNT = 0;
+
+    /**
+     * Like fs.ofs.jar.cache.max.count, for the total size of the cached jars. 0 means unlimited.
+     */
+    private static final String CHDFS_JAR_CACHE_MAX_SIZE_KEY = "fs.ofs.jar.cache.max.size";
+    private static final long DEFAULT_CHDFS_JAR_CACHE_MAX_SIZE = 0;
+
     private static final String CHDFS_META_ENDPOINT_SUFFIX_KEY = "fs.ofs.meta.endpoint.suffix";
     private static final boolean DEFAULT_CHDFS_META_TRANSFER_USE_TLS = true;
     private static final int DEFAULT_CHDFS_META_SERVER_PORT = 443;
@@ -69,10 +124,375 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
 
     public static final boolean DEFAULT_CHDFS_USE_SHORT_BUCKETNAME = false;
 
+    public static final String CHDFS_BATCH_STATUS_CONCURRENCY_KEY = "fs.ofs.batch.status.concurrency";
+
+    public static final int DEFAULT_CHDFS_BATCH_STATUS_CONCURRENCY = 16;
+
+    /**
+     * When at least this many requested paths share a parent, they are resolved by one listing of the parent.
+     * A value of 0 disables the grouping.
+     */
+    public static final String CHDFS_BATCH_STATUS_LIST_THRESHOLD_KEY = "fs.ofs.batch.status.list.threshold";
+
+    public static final int DEFAULT_CHDFS_BATCH_STATUS_LIST_THRESHOLD = 8;
+
+    /**
+     * The listing of a parent reads at most this many entries per requested sibling, the siblings not found by
+     * then are resolved one by one. This keeps a few siblings in a huge directory from listing all of it.
+     */
+    public static final String CHDFS_BATCH_STATUS_LIST_MAX_ENTRIES_PER_PATH_KEY =
+            "fs.ofs.batch.status.list.max.entries.per.path";
+
+    public static final int DEFAULT_CHDFS_BATCH_STATUS_LIST_MAX_ENTRIES_PER_PATH = 100;
+
+    public static final String CHDFS_ASYNC_OP_THREADS_KEY = "fs.ofs.async.op.threads";
+
+    public static final int DEFAULT_CHDFS_ASYNC_OP_THREADS = 32;
+
+    /**
+     * The max number of operations waiting for a thread of the async executor, submitting more fails fast.
+     */
+    public static final String CHDFS_ASYNC_OP_MAX_QUEUE_KEY = "fs.ofs.async.op.max.queue";
+
+    public static final int DEFAULT_CHDFS_ASYNC_OP_MAX_QUEUE = 1024;
+
+    /**
+     * Share one impl filesystem between the adapters of the same mount point, user and fs.ofs.* configuration.
+     * The working directory of a shared impl filesystem is not changed by the adapter's setWorkingDirectory,
+     * relative paths are resolved against the working directory of the adapter before they reach it. The FileContext
+     * binding always shares it.
+     */
+    public static final String CHDFS_IMPL_SHARED_ENABLED_KEY = "fs.ofs.impl.shared.enabled";
+
+    public static final boolean DEFAULT_CHDFS_IMPL_SHARED_ENABLED = false;
+
+    /**
+     * Compute getFileChecksum on the client as a COMPOSITE-CRC32C checksum, comparable with HDFS COMPOSITE_CRC.
+     */
+    public static final String CHDFS_CHECKSUM_COMPOSITE_CRC_ENABLED_KEY = "fs.ofs.checksum.composite.crc.enabled";
+
+    public static final boolean DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_ENABLED = false;
+
+    public static final String CHDFS_CHECKSUM_COMPOSITE_CRC_RANGE_SIZE_KEY = "fs.ofs.checksum.composite.crc.range.size";
+
+    public static final long DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_RANGE_SIZE = 64 * 1024 * 1024L;
+
+    public static final String CHDFS_CHECKSUM_COMPOSITE_CRC_PARALLELISM_KEY =
+            "fs.ofs.checksum.composite.crc.parallelism";
+
+    public static final int DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_PARALLELISM = 8;
+
+    public static final String CHDFS_CHECKSUM_COMPOSITE_CRC_CACHE_SIZE_KEY = "fs.ofs.checksum.composite.crc.cache.size";
+
+    public static final int DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_CACHE_SIZE = 1024;
+
+    /**
+     * Count the operations and bytes of this instance per path prefix and publish the hottest prefixes as the
+     * Hadoop:service=chdfs,name=PathPrefixAccounting-* JMX bean.
+     */
+    public static final String CHDFS_PREFIX_ACCOUNTING_ENABLED_KEY = "fs.ofs.prefix.accounting.enabled";
+
+    public static final boolean DEFAULT_CHDFS_PREFIX_ACCOUNTING_ENABLED = false;
+
+    /**
+     * The number of leading path components a prefix keeps, 3 groups by /warehouse/db/table.
+     */
+    public static final String CHDFS_PREFIX_ACCOUNTING_DEPTH_KEY = "fs.ofs.prefix.accounting.depth";
+
+    public static final int DEFAULT_CHDFS_PREFIX_ACCOUNTING_DEPTH = 3;
+
+    /**
+     * The max number of prefixes tracked at once, which bounds the memory used whatever the number of paths.
+     */
+    public static final String CHDFS_PREFIX_ACCOUNTING_CAPACITY_KEY = "fs.ofs.prefix.accounting.capacity";
+
+    public static final int DEFAULT_CHDFS_PREFIX_ACCOUNTING_CAPACITY = 1000;
+
+    public static final String CHDFS_PREFIX_ACCOUNTING_TOP_K_KEY = "fs.ofs.prefix.accounting.top.k";
+
+    public static final int DEFAULT_CHDFS_PREFIX_ACCOUNTING_TOP_K = 20;
+
+    /**
+     * Log the top prefixes at this interval, 0 disables the log dump.
+     */
+    public static final String CHDFS_PREFIX_ACCOUNTING_LOG_INTERVAL_SEC_KEY =
+            "fs.ofs.prefix.accounting.log.interval.sec";
+
+    public static final long DEFAULT_CHDFS_PREFIX_ACCOUNTING_LOG_INTERVAL_SEC = 300;
+
+    /**
+     * Cache the allow and deny decisions of checkPermission per user, path and access type.
+     */
+    public static final String CHDFS_RANGER_PERMISSION_CACHE_ENABLED_KEY = "fs.ofs.ranger.permission.cache.enabled";
+
+    public static final boolean DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_ENABLED = false;
+
+    public static final String CHDFS_RANGER_PERMISSION_CACHE_TTL_SEC_KEY = "fs.ofs.ranger.permission.cache.ttl.sec";
+
+    public static final long DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_TTL_SEC = 60;
+
+    public static final String CHDFS_RANGER_PERMISSION_CACHE_MAX_ENTRIES_KEY =
+            "fs.ofs.ranger.permission.cache.max.entries";
+
+    public static final int DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_MAX_ENTRIES = 10000;
+
+    /**
+     * Let a path without a cached decision reuse the cached allow of its nearest ancestor. Only safe when the
+     * ranger policies of the cached directories are recursive.
+     */
+    public static final String CHDFS_RANGER_PERMISSION_CACHE_PARENT_REUSE_KEY =
+            "fs.ofs.ranger.permission.cache.parent.reuse";
+
+    public static final boolean DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_PARENT_REUSE = false;
+
+    public static final String CHDFS_RANGER_BATCH_CHECK_CONCURRENCY_KEY = "fs.ofs.ranger.batch.check.concurrency";
+
+    public static final int DEFAULT_CHDFS_RANGER_BATCH_CHECK_CONCURRENCY = 16;
+
+    /**
+     * Limit the metadata operations of this process per mount point, with a token bucket per operation class
+     * and an AIMD concurrency limit. The limiter is configured by the first filesystem of the mount point.
+     */
+    public static final String CHDFS_META_LIMITER_ENABLED_KEY = "fs.ofs.meta.limiter.enabled";
+
+    public static final boolean DEFAULT_CHDFS_META_LIMITER_ENABLED = false;
+
+    /**
+     * The default rate of every operation class, 0 means unlimited. A class can be overridden by
+     * fs.ofs.meta.limiter.[stat|list|mkdirs|rename|delete].rate.per.sec.
+     */
+    public static final String CHDFS_META_LIMITER_RATE_PER_SEC_KEY = "fs.ofs.meta.limiter.rate.per.sec";
+
+    public static final String CHDFS_META_LIMITER_CLASS_RATE_PER_SEC_KEY_FORMAT = "fs.ofs.meta.limiter.%s.rate.per.sec";
+
+    public static final double DEFAULT_CHDFS_META_LIMITER_RATE_PER_SEC = 1000;
+
+    public static final String CHDFS_META_LIMITER_MAX_CONCURRENCY_KEY = "fs.ofs.meta.limiter.max.concurrency";
+
+    public static final int DEFAULT_CHDFS_META_LIMITER_MAX_CONCURRENCY = 64;
+
+    /**
+     * A stat, mkdirs or rename slower than this counts as a congestion signal like a throttle error, 0 disables it.
+     * A class can be overridden by fs.ofs.meta.limiter.[stat|list|mkdirs|rename|delete].latency.threshold.ms. The
+     * list and delete classes, whose latency grows with the directory size, have no threshold unless configured so.
+     */
+    public static final String CHDFS_META_LIMITER_LATENCY_THRESHOLD_MS_KEY = "fs.ofs.meta.limiter.latency.threshold.ms";
+
+    public static final String CHDFS_META_LIMITER_CLASS_LATENCY_THRESHOLD_MS_KEY_FORMAT =
+            "fs.ofs.meta.limiter.%s.latency.threshold.ms";
+
+    public static final long DEFAULT_CHDFS_META_LIMITER_LATENCY_THRESHOLD_MS = 2000;
+
+    /**
+     * Hedge a positional read slower than the tracked latency percentile with a duplicate read, and use the first
+     * result. Both reads go to other streams of the same file, opened on demand, so the loser can be aborted.
+     */
+    public static final String CHDFS_HEDGED_READ_ENABLED_KEY = "fs.ofs.hedged.read.enabled";
+
+    public static final boolean DEFAULT_CHDFS_HEDGED_READ_ENABLED = false;
+
+    public static final String CHDFS_HEDGED_READ_THREADS_KEY = "fs.ofs.hedged.read.threads";
+
+    public static final int DEFAULT_CHDFS_HEDGED_READ_THREADS = 16;
+
+    public static final String CHDFS_HEDGED_READ_THRESHOLD_PERCENTILE_KEY = "fs.ofs.hedged.read.threshold.percentile";
+
+    public static final double DEFAULT_CHDFS_HEDGED_READ_THRESHOLD_PERCENTILE = 95;
+
+    /**
+     * The lower bound of the dynamic threshold, so fast reads are never hedged.
+     */
+    public static final String CHDFS_HEDGED_READ_THRESHOLD_MIN_MS_KEY = "fs.ofs.hedged.read.threshold.min.ms";
+
+    public static final long DEFAULT_CHDFS_HEDGED_READ_THRESHOLD_MIN_MS = 20;
+
+    /**
+     * The max number of hedges per positional read, which caps the extra load.
+     */
+    public static final String CHDFS_HEDGED_READ_MAX_RATIO_KEY = "fs.ofs.hedged.read.max.ratio";
+
+    public static final double DEFAULT_CHDFS_HEDGED_READ_MAX_RATIO = 0.05;
+
+    /**
+     * Expand the candidates of each wildcard level of a glob pattern in parallel instead of one by one.
+     */
+    public static final String CHDFS_GLOB_PARALLEL_ENABLED_KEY = "fs.ofs.glob.parallel.enabled";
+
+    public static final boolean DEFAULT_CHDFS_GLOB_PARALLEL_ENABLED = false;
+
+    public static final String CHDFS_GLOB_CONCURRENCY_KEY = "fs.ofs.glob.concurrency";
+
+    public static final int DEFAULT_CHDFS_GLOB_CONCURRENCY = 16;
+
+    /**
+     * The virtual block size files report for split planning, 0 keeps the block size of the implementation.
+     */
+    public static final String CHDFS_BLOCK_SIZE_KEY = "fs.ofs.block.size";
+
+    public static final long DEFAULT_CHDFS_BLOCK_SIZE = 0;
+
+    /**
+     * Per path prefix block sizes overriding fs.ofs.block.size, e.g. /warehouse=256m,/logs=64m.
+     */
+    public static final String CHDFS_BLOCK_SIZE_PREFIX_RULES_KEY = "fs.ofs.block.size.prefix.rules";
+
+    /**
+     * The hosts the virtual blocks are spread over, e.g. the compute nodes. Without any, blocks are on localhost.
+     */
+    public static final String CHDFS_BLOCK_LOCATION_HOSTS_KEY = "fs.ofs.block.location.hosts";
+
+    public static final String CHDFS_BLOCK_LOCATION_HOSTS_PER_BLOCK_KEY = "fs.ofs.block.location.hosts.per.block";
+
+    public static final int DEFAULT_CHDFS_BLOCK_LOCATION_HOSTS_PER_BLOCK = 1;
+
+    /**
+     * Upload a local file larger than one part in parallel parts in copyFromLocalFile, which are concatenated
+     * into the target.
+     */
+    public static final String CHDFS_PARALLEL_UPLOAD_ENABLED_KEY = "fs.ofs.parallel.upload.enabled";
+
+    public static final boolean DEFAULT_CHDFS_PARALLEL_UPLOAD_ENABLED = false;
+
+    public static final String CHDFS_PARALLEL_UPLOAD_PART_SIZE_KEY = "fs.ofs.parallel.upload.part.size";
+
+    public static final long DEFAULT_CHDFS_PARALLEL_UPLOAD_PART_SIZE = 128 * 1024 * 1024;
+
+    public static final String CHDFS_PARALLEL_UPLOAD_CONCURRENCY_KEY = "fs.ofs.parallel.upload.concurrency";
+
+    public static final int DEFAULT_CHDFS_PARALLEL_UPLOAD_CONCURRENCY = 8;
+
+    /**
+     * Candidate endpoint suffixes of a bucket style mount point, e.g. the inner, dual stack and public ones. The
+     * one with the lowest connect latency is used as fs.ofs.meta.endpoint.suffix. The endpoint is chosen once per
+     * initialize and probed again only after the probe interval or a failed initialize: an initialized instance
+     * keeps it even if it fails later.
+     */
+    public static final String CHDFS_META_ENDPOINT_SUFFIX_CANDIDATES_KEY = "fs.ofs.meta.endpoint.suffix.candidates";
+
+    /**
+     * Candidate labels of a chdfs style mount point, each one of chdfs, chdfs.inner, chdfs-dualstack and
+     * chdfs-dualstack.inner, e.g. chdfs-dualstack.inner,chdfs.inner. Each replaces the label of the mount point
+     * host, the variant with the lowest connect latency is used as fs.ofs.meta.endpoint.suffix, chosen like the
+     * suffix candidates of a bucket style mount point.
+     */
+    public static final String CHDFS_META_ENDPOINT_LABEL_CANDIDATES_KEY = "fs.ofs.meta.endpoint.label.candidates";
+
+    public static final String CHDFS_META_ENDPOINT_PROBE_TIMEOUT_MS_KEY = "fs.ofs.meta.endpoint.probe.timeout.ms";
+
+    public static final int DEFAULT_CHDFS_META_ENDPOINT_PROBE_TIMEOUT_MS = 1000;
+
+    public static final String CHDFS_META_ENDPOINT_PROBE_INTERVAL_SEC_KEY = "fs.ofs.meta.endpoint.probe.interval.sec";
+
+    public static final long DEFAULT_CHDFS_META_ENDPOINT_PROBE_INTERVAL_SEC = 600;
+
+    /**
+     * Record the reads and seeks of every input stream, aggregated into the CHDFSStreamStatistics storage
+     * statistics at close.
+     */
+    public static final String CHDFS_STREAM_STATISTICS_ENABLED_KEY = "fs.ofs.stream.statistics.enabled";
+
+    public static final boolean DEFAULT_CHDFS_STREAM_STATISTICS_ENABLED = false;
+
+    /**
+     * Log the statistics of a stream at close if its reads took longer than this in total, 0 disables it.
+     */
+    public static final String CHDFS_STREAM_STATISTICS_SLOW_READ_THRESHOLD_MS_KEY =
+            "fs.ofs.stream.statistics.slow.read.threshold.ms";
+
+    public static final long DEFAULT_CHDFS_STREAM_STATISTICS_SLOW_READ_THRESHOLD_MS = 10000;
+
+    /**
+     * How input streams fetch data: normal leaves the impl stream alone, sequential uses large streaming
+     * fetches, random uses small positional fetches, and adaptive switches between the two by the access pattern.
+     */
+    public static final String CHDFS_INPUT_POLICY_KEY = "fs.ofs.input.policy";
+
+    public static final String DEFAULT_CHDFS_INPUT_POLICY = "normal";
+
+    /**
+     * Per path prefix policies overriding fs.ofs.input.policy, e.g. /warehouse=random,/logs=sequential.
+     */
+    public static final String CHDFS_INPUT_POLICY_PREFIX_RULES_KEY = "fs.ofs.input.policy.prefix.rules";
+
+    public static final String CHDFS_INPUT_SEQUENTIAL_FETCH_SIZE_KEY = "fs.ofs.input.sequential.fetch.size";
+
+    public static final long DEFAULT_CHDFS_INPUT_SEQUENTIAL_FETCH_SIZE = 1024 * 1024;
+
+    public static final String CHDFS_INPUT_RANDOM_FETCH_SIZE_KEY = "fs.ofs.input.random.fetch.size";
+
+    public static final long DEFAULT_CHDFS_INPUT_RANDOM_FETCH_SIZE = 64 * 1024;
+
+    /**
+     * Pin the implementation to this version, loaded from fs.ofs.impl.pinned.jar and verified against
+     * fs.ofs.impl.pinned.jar.md5, without querying or downloading from the plugin server.
+     */
+    public static final String CHDFS_IMPL_PINNED_VERSION_ID_KEY = "fs.ofs.impl.pinned.version.id";
+
+    /**
+     * A local jar path, or classpath:[resource] for a jar bundled with the application.
+     */
+    public static final String CHDFS_IMPL_PINNED_JAR_KEY = "fs.ofs.impl.pinned.jar";
+
+    public static final String CHDFS_IMPL_PINNED_JAR_MD5_KEY = "fs.ofs.impl.pinned.jar.md5";
+
+    /**
+     * Emit JDK Flight Recorder events for the bootstrap phases and the delegated operations, they are recorded
+     * when a recording enables com.qcloud.chdfs.BootstrapPhase or com.qcloud.chdfs.Operation. No-op without JFR.
+     */
+    public static final String CHDFS_JFR_EVENTS_ENABLED_KEY = "fs.ofs.jfr.events.enabled";
+
+    public static final boolean DEFAULT_CHDFS_JFR_EVENTS_ENABLED = false;
+
+    /**
+     * Stream listStatusIterator, listLocatedStatus and listFiles page by page, fetching the next page in the
+     * background, instead of materializing the whole directory first. The iterators are {@link Closeable},
+     * closing one which is not read to its end cancels the fetch of the next page. The memory stays bounded only
+     * as far as the iterator of the implementation streams.
+     */
+    public static final String CHDFS_LIST_STREAMING_ENABLED_KEY = "fs.ofs.list.streaming.enabled";
+
+    public static final boolean DEFAULT_CHDFS_LIST_STREAMING_ENABLED = false;
+
+    public static final String CHDFS_LIST_PAGE_SIZE_KEY = "fs.ofs.list.page.size";
+
+    public static final int DEFAULT_CHDFS_LIST_PAGE_SIZE = 1000;
+
+    /**
+     * Make the statuses of a listing share their owner and group strings, at the cost of a copy of every status.
+     */
+    public static final String CHDFS_LIST_INTERN_ENABLED_KEY = "fs.ofs.list.intern.enabled";
+
+    public static final boolean DEFAULT_CHDFS_LIST_INTERN_ENABLED = false;
+
     private final CHDFSHadoopFileSystemJarLoader jarLoader = new CHDFSHadoopFileSystemJarLoader();
+    // set for the FileContext binding, which shares the impl filesystem whatever the configuration says
+    private final boolean sharedImplForced;
     private FileSystem actualImplFS = null;
     private URI uri = null;
     private Path workingDir = null;
+    private BoundedOperationExecutor asyncExecutor = null;
+    private boolean closed = false;
+    private String sharedImplKey = null;
+    private CompositeCrcChecksumCalculator compositeCrcCalculator = null;
+    private PathPrefixAccounting prefixAccounting = null;
+    private RangerPermissionCache rangerPermissionCache = null;
+    private MetadataOperationLimiter metadataLimiter = null;
+    private BoundedOperationExecutor hedgedReadExecutor = null;
+    private HedgedReadCoordinator hedgedReadCoordinator = null;
+    private VirtualBlockLayout virtualBlockLayout = null;
+    private CHDFSStreamStatistics streamStatistics = null;
+    private long slowStreamReadThresholdMs = 0;
+    private InputPolicy defaultInputPolicy = InputPolicy.NORMAL;
+    private PathPrefixRules inputPolicyRules = null;
+    private boolean internListings = false;
+
+    public CHDFSHadoopFileSystemAdapter() {
+        this(false);
+    }
+
+    CHDFSHadoopFileSystemAdapter(boolean sharedImplForced) {
+        this.sharedImplForced = sharedImplForced;
+    }
 
     @Override
     public String getScheme() {
@@ -87,6 +507,9 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
         try {
             super.initialize(name, conf);
             this.setConf(conf);
+            if (conf.getBoolean(CHDFS_JFR_EVENTS_ENABLED_KEY, DEFAULT_CHDFS_JFR_EVENTS_ENABLED)) {
+                FlightRecorderEvents.enable();
+            }
             String mountPointAddr = name.getHost();
             if (mountPointAddr == null) {
                 String errMsg = String.format("mountPointAddr is null, fullUri: %s, exp. f4mabcdefgh-xyzw.chdfs"
@@ -100,9 +523,33 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
                 mountPointAddr = mountPointAddr + "-" + getAppid(conf);
             }
             String ofsHost;
+            EndpointSelector endpointSelector = null;
             if (isValidMountPointAddrChdfsType(mountPointAddr)) {
                 ofsHost = mountPointAddr;
+                String[] labelCandidates = conf.getTrimmedStrings(CHDFS_META_ENDPOINT_LABEL_CANDIDATES_KEY);
+                if (labelCandidates.length > 0) {
+                    endpointSelector = getEndpointSelector(getChdfsHostVariants(mountPointAddr, labelCandidates),
+                            conf);
+                    ofsHost = endpointSelector.select();
+                    // the configuration of the caller may be shared by instances choosing another endpoint later
+                    conf = new Configuration(conf);
+                    this.setConf(conf);
+                    conf.set(CHDFS_META_ENDPOINT_SUFFIX_KEY, ofsHost.substring(ofsHost.indexOf('.') + 1));
+                }
             } else if (isValidMountPointAddrCosType(mountPointAddr)) {
+                String[] suffixCandidates = conf.getTrimmedStrings(CHDFS_META_ENDPOINT_SUFFIX_CANDIDATES_KEY);
+                if (suffixCandidates.length > 0) {
+                    List<String> candidateHosts = new ArrayList<>(suffixCandidates.length);
+                    for (String suffixCandidate : suffixCandidates) {
+                        candidateHosts.add(mountPointAddr + "." + suffixCandidate.toLowerCase());
+                    }
+                    endpointSelector = getEndpointSelector(candidateHosts, conf);
+                    String selectedHost = endpointSelector.select();
+                    // the configuration of the caller may be shared by instances choosing another endpoint later
+                    conf = new Configuration(conf);
+                    this.setConf(conf);
+                    conf.set(CHDFS_META_ENDPOINT_SUFFIX_KEY, selectedHost.substring(mountPointAddr.length() + 1));
+                }
                 String metaEndpointSuffix = getMetaEndpointSuffix(conf);
                 if (!metaEndpointSuffix.isEmpty()) {
                     ofsHost = mountPointAddr + "." + metaEndpointSuffix;
@@ -120,30 +567,145 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
                 throw new IOException(errMsg);
             }
 
-            String networkVersionId = initPluginNetworkVersion();
+            final String networkVersionId = initPluginNetworkVersion();
             conf.set("chdfs.hadoop.plugin.network.version", String.format("network:%s", networkVersionId));
 
-            long appid = getDownLoadJarAppid(conf);
-            int jarPluginServerPort = getJarPluginServerPort(conf);
-            String tmpDirPath = initCacheTmpDir(conf);
-            boolean jarPluginServerHttpsFlag = isJarPluginServerHttps(conf);
-            String cosEndPointSuffix = getCosEndPointSuffix(conf);
-            boolean distinguishHost = isDistinguishHost(conf);
+            final long appid = getDownLoadJarAppid(conf);
+            final int jarPluginServerPort = getJarPluginServerPort(conf);
+            final String tmpDirPath = initCacheTmpDir(conf);
+            final boolean jarPluginServerHttpsFlag = isJarPluginServerHttps(conf);
+            final String cosEndPointSuffix = getCosEndPointSuffix(conf);
+            final boolean distinguishHost = isDistinguishHost(conf);
             log.debug("fs.ofs.data.transfer.distinguish.host: {}", distinguishHost);
-            initJarLoadWithRetry(ofsHost, appid, jarPluginServerPort, tmpDirPath, jarPluginServerHttpsFlag,
-                    cosEndPointSuffix, distinguishHost, networkVersionId);
-
-            this.actualImplFS = jarLoader.getActualFileSystem();
-            if (this.actualImplFS == null) {
-                // should never reach here
-                throw new IOException("impl filesystem is null");
+            final long jarRefreshIntervalMs = getJarBackgroundRefreshIntervalMs(conf);
+            final boolean jarDeltaEnabled = conf.getBoolean(CHDFS_JAR_DELTA_ENABLED_KEY,
+                    DEFAULT_CHDFS_JAR_DELTA_ENABLED);
+            final String pinnedVersionId = conf.getTrimmed(CHDFS_IMPL_PINNED_VERSION_ID_KEY);
+            final String pinnedJar;
+            final String pinnedJarMd5;
+            if (pinnedVersionId != null && !pinnedVersionId.isEmpty()) {
+                pinnedJar = initStringValue(conf, CHDFS_IMPL_PINNED_JAR_KEY, null);
+                pinnedJarMd5 = initStringValue(conf, CHDFS_IMPL_PINNED_JAR_MD5_KEY, null);
+            } else {
+                pinnedJar = null;
+                pinnedJarMd5 = null;
+            }
+            final String finalOfsHost = ofsHost;
+            final EndpointSelector finalEndpointSelector = endpointSelector;
+            final URI implUri = name;
+            final Configuration implConf = conf;
+            Callable<FileSystem> implFactory = new Callable<FileSystem>() {
+                @Override
+                public FileSystem call() throws IOException {
+                    try {
+                        if (pinnedJar != null) {
+                            jarLoader.initPinned(pinnedVersionId, pinnedJar, pinnedJarMd5, tmpDirPath);
+                        } else {
+                            initJarLoadWithRetry(finalOfsHost, appid, jarPluginServerPort, tmpDirPath,
+                                    jarPluginServerHttpsFlag, cosEndPointSuffix, distinguishHost, networkVersionId,
+                                    jarDeltaEnabled, jarRefreshIntervalMs);
+                        }
+
+                        FileSystem implFS = jarLoader.getActualFileSystem();
+                        if (implFS == null) {
+                            // should never reach here
+                            throw new IOException("impl filesystem is null");
+                        }
+
+                        long actualInitStartMs = System.currentTimeMillis();
+                        FlightRecorderEvents.Span implInitSpan = FlightRecorderEvents.beginBootstrapPhase(
+                                FlightRecorderEvents.PHASE_IMPL_INIT);
+                        try {
+                            implFS.initialize(implUri, implConf);
+                        } finally {
+                            implInitSpan.end(implUri.toString(), 0);
+                        }
+                        log.debug("init actual file system, [elapse-ms: {}]",
+                                System.currentTimeMillis() - actualInitStartMs);
+                        return implFS;
+                    } catch (IOException e) {
+                        if (finalEndpointSelector != null) {
+                            finalEndpointSelector.reportFailure(finalOfsHost);
+                        }
+                        throw e;
+                    }
+                }
+            };
+
+            // validated before the impl is created or acquired, which a failure past this point would leak
+            this.defaultInputPolicy = getInputPolicy(CHDFS_INPUT_POLICY_KEY,
+                    conf.getTrimmed(CHDFS_INPUT_POLICY_KEY, DEFAULT_CHDFS_INPUT_POLICY));
+            this.inputPolicyRules = PathPrefixRules.parse(CHDFS_INPUT_POLICY_PREFIX_RULES_KEY,
+                    conf.getTrimmedStrings(CHDFS_INPUT_POLICY_PREFIX_RULES_KEY));
+            for (String rulePolicy : this.inputPolicyRules.values()) {
+                getInputPolicy(CHDFS_INPUT_POLICY_PREFIX_RULES_KEY, rulePolicy);
+            }
+            long virtualBlockSize = conf.getLongBytes(CHDFS_BLOCK_SIZE_KEY, DEFAULT_CHDFS_BLOCK_SIZE);
+            String[] blockSizeRules = conf.getTrimmedStrings(CHDFS_BLOCK_SIZE_PREFIX_RULES_KEY);
+            String[] blockLocationHosts = conf.getTrimmedStrings(CHDFS_BLOCK_LOCATION_HOSTS_KEY);
+            if (virtualBlockSize > 0 || blockSizeRules.length > 0 || blockLocationHosts.length > 0) {
+                this.virtualBlockLayout = VirtualBlockLayout.create(CHDFS_BLOCK_SIZE_PREFIX_RULES_KEY, virtualBlockSize,
+                        blockSizeRules, blockLocationHosts, conf.getInt(CHDFS_BLOCK_LOCATION_HOSTS_PER_BLOCK_KEY,
+                                DEFAULT_CHDFS_BLOCK_LOCATION_HOSTS_PER_BLOCK));
+            }
+            if (isSharedImplEnabled(conf)) {
+                String implKey = buildSharedImplKey(name, conf);
+                this.actualImplFS = SharedFileSystemRegistry.acquire(implKey, implFactory);
+                this.sharedImplKey = implKey;
+            } else {
+                this.actualImplFS = implFactory.call();
+            }
+            if (pinnedJar == null) {
+                // per instance, an instance sharing the impl of another one keeps the refresh running as well
+                jarLoader.acquireRefresh(ofsHost, appid, jarPluginServerPort, tmpDirPath, jarPluginServerHttpsFlag,
+                        cosEndPointSuffix, distinguishHost, networkVersionId, jarDeltaEnabled, jarRefreshIntervalMs);
             }
-
-            long actualInitStartMs = System.currentTimeMillis();
-            this.actualImplFS.initialize(name, conf);
-            log.debug("init actual file system, [elapse-ms: {}]", System.currentTimeMillis() - actualInitStartMs);
             this.uri = this.actualImplFS.getUri();
             this.workingDir = this.actualImplFS.getWorkingDirectory();
+            JarCacheManager.enforceQuota(tmpDirPath,
+                    conf.getInt(CHDFS_JAR_CACHE_MAX_COUNT_KEY, DEFAULT_CHDFS_JAR_CACHE_MAX_COUNT),
+                    conf.getLongBytes(CHDFS_JAR_CACHE_MAX_SIZE_KEY, DEFAULT_CHDFS_JAR_CACHE_MAX_SIZE));
+            if (isPrefixAccountingEnabled(conf)) {
+                this.prefixAccounting = new PathPrefixAccounting(mountPointAddr,
+                        conf.getInt(CHDFS_PREFIX_ACCOUNTING_DEPTH_KEY, DEFAULT_CHDFS_PREFIX_ACCOUNTING_DEPTH),
+                        conf.getInt(CHDFS_PREFIX_ACCOUNTING_CAPACITY_KEY, DEFAULT_CHDFS_PREFIX_ACCOUNTING_CAPACITY),
+                        conf.getInt(CHDFS_PREFIX_ACCOUNTING_TOP_K_KEY, DEFAULT_CHDFS_PREFIX_ACCOUNTING_TOP_K));
+                this.prefixAccounting.start(conf.getLong(CHDFS_PREFIX_ACCOUNTING_LOG_INTERVAL_SEC_KEY,
+                        DEFAULT_CHDFS_PREFIX_ACCOUNTING_LOG_INTERVAL_SEC));
+            }
+            if (conf.getBoolean(CHDFS_RANGER_PERMISSION_CACHE_ENABLED_KEY,
+                    DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_ENABLED)) {
+                this.rangerPermissionCache = new RangerPermissionCache(
+                        Math.max(0, conf.getLong(CHDFS_RANGER_PERMISSION_CACHE_TTL_SEC_KEY,
+                                DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_TTL_SEC)) * 1000L,
+                        conf.getInt(CHDFS_RANGER_PERMISSION_CACHE_MAX_ENTRIES_KEY,
+                                DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_MAX_ENTRIES),
+                        conf.getBoolean(CHDFS_RANGER_PERMISSION_CACHE_PARENT_REUSE_KEY,
+                                DEFAULT_CHDFS_RANGER_PERMISSION_CACHE_PARENT_REUSE));
+            }
+            if (conf.getBoolean(CHDFS_META_LIMITER_ENABLED_KEY, DEFAULT_CHDFS_META_LIMITER_ENABLED)) {
+                this.metadataLimiter = MetadataOperationLimiter.getOrCreate(mountPointAddr,
+                        getMetadataLimiterRates(conf),
+                        conf.getInt(CHDFS_META_LIMITER_MAX_CONCURRENCY_KEY, DEFAULT_CHDFS_META_LIMITER_MAX_CONCURRENCY),
+                        getMetadataLimiterLatencyThresholdsMs(conf));
+            }
+            if (conf.getBoolean(CHDFS_HEDGED_READ_ENABLED_KEY, DEFAULT_CHDFS_HEDGED_READ_ENABLED)) {
+                int hedgedReadThreads = conf.getInt(CHDFS_HEDGED_READ_THREADS_KEY, DEFAULT_CHDFS_HEDGED_READ_THREADS);
+                this.hedgedReadExecutor = new BoundedOperationExecutor("chdfs-hedged-read", hedgedReadThreads,
+                        hedgedReadThreads);
+                this.hedgedReadCoordinator = new HedgedReadCoordinator(this.hedgedReadExecutor,
+                        conf.getDouble(CHDFS_HEDGED_READ_THRESHOLD_PERCENTILE_KEY,
+                                DEFAULT_CHDFS_HEDGED_READ_THRESHOLD_PERCENTILE),
+                        conf.getLong(CHDFS_HEDGED_READ_THRESHOLD_MIN_MS_KEY,
+                                DEFAULT_CHDFS_HEDGED_READ_THRESHOLD_MIN_MS),
+                        conf.getDouble(CHDFS_HEDGED_READ_MAX_RATIO_KEY, DEFAULT_CHDFS_HEDGED_READ_MAX_RATIO));
+            }
+            if (conf.getBoolean(CHDFS_STREAM_STATISTICS_ENABLED_KEY, DEFAULT_CHDFS_STREAM_STATISTICS_ENABLED)) {
+                this.streamStatistics = CHDFSStreamStatistics.get();
+                this.slowStreamReadThresholdMs = conf.getLong(CHDFS_STREAM_STATISTICS_SLOW_READ_THRESHOLD_MS_KEY,
+                        DEFAULT_CHDFS_STREAM_STATISTICS_SLOW_READ_THRESHOLD_MS);
+            }
+            this.internListings = conf.getBoolean(CHDFS_LIST_INTERN_ENABLED_KEY, DEFAULT_CHDFS_LIST_INTERN_ENABLED);
         } catch (IOException ioe) {
             log.error("initialize failed! a ioException occur!", ioe);
             throw ioe;
@@ -180,6 +742,38 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
         return conf.getBoolean(CHDFS_USE_SHORT_BUCKETNAME_KEY, DEFAULT_CHDFS_USE_SHORT_BUCKETNAME);
     }
 
+    /**
+     * @return the host of {@code mountPointAddr} with its chdfs label replaced by each of {@code labelCandidates}
+     */
+    static List<String> getChdfsHostVariants(String mountPointAddr, String[] labelCandidates) throws IOException {
+        Matcher matcher = Pattern.compile(MOUNT_POINT_ADDR_PATTERN_CHDFS_TYPE).matcher(mountPointAddr);
+        if (!matcher.matches()) {
+            throw new IOException(String.format("mountPointAddr %s is not a chdfs style mount point", mountPointAddr));
+        }
+        List<String> candidateHosts = new ArrayList<>(labelCandidates.length);
+        for (String labelCandidate : labelCandidates) {
+            String label = labelCandidate.toLowerCase();
+            if (label.startsWith(".")) {
+                label = label.substring(1);
+            }
+            if (!Pattern.matches(CHDFS_LABEL_PATTERN, label)) {
+                throw new IOException(String.format("config for %s is invalid, label: %s, exp. chdfs, chdfs.inner, "
+                        + "chdfs-dualstack or chdfs-dualstack.inner", CHDFS_META_ENDPOINT_LABEL_CANDIDATES_KEY,
+                        labelCandidate));
+            }
+            candidateHosts.add(String.format("%s.%s.%s.%s", matcher.group(1), label, matcher.group(4),
+                    matcher.group(5)));
+        }
+        return candidateHosts;
+    }
+
+    private EndpointSelector getEndpointSelector(List<String> candidateHosts, Configuration conf) {
+        return EndpointSelector.getOrCreate(candidateHosts, getJarPluginServerPort(conf),
+                conf.getInt(CHDFS_META_ENDPOINT_PROBE_TIMEOUT_MS_KEY, DEFAULT_CHDFS_META_ENDPOINT_PROBE_TIMEOUT_MS),
+                conf.getLong(CHDFS_META_ENDPOINT_PROBE_INTERVAL_SEC_KEY,
+                        DEFAULT_CHDFS_META_ENDPOINT_PROBE_INTERVAL_SEC) * 1000L);
+    }
+
     private String getMetaEndpointSuffix(Configuration conf) throws IOException {
         return initStringValue(conf, CHDFS_META_ENDPOINT_SUFFIX_KEY, "").toLowerCase();
     }
@@ -327,15 +921,65 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
         return conf.getBoolean(CHDFS_DATA_TRANSFER_DISTINGUISH_HOST, DEFAULT_CHDFS_DATA_TRANSFER_DISTINGUISH_FLAG);
     }
 
+    private long getJarBackgroundRefreshIntervalMs(Configuration conf) {
+        long intervalSec = conf.getLong(CHDFS_JAR_BACKGROUND_REFRESH_INTERVAL_SEC_KEY,
+                DEFAULT_CHDFS_JAR_BACKGROUND_REFRESH_INTERVAL_SEC);
+        return Math.max(0, intervalSec) * 1000L;
+    }
+
+    private boolean isSharedImplEnabled(Configuration conf) {
+        return sharedImplForced || conf.getBoolean(CHDFS_IMPL_SHARED_ENABLED_KEY, DEFAULT_CHDFS_IMPL_SHARED_ENABLED);
+    }
+
+    private boolean isPrefixAccountingEnabled(Configuration conf) {
+        return conf.getBoolean(CHDFS_PREFIX_ACCOUNTING_ENABLED_KEY, DEFAULT_CHDFS_PREFIX_ACCOUNTING_ENABLED);
+    }
+
+    private Map<MetadataOperationClass, Double> getMetadataLimiterRates(Configuration conf) {
+        double defaultRate = conf.getDouble(CHDFS_META_LIMITER_RATE_PER_SEC_KEY,
+                DEFAULT_CHDFS_META_LIMITER_RATE_PER_SEC);
+        Map<MetadataOperationClass, Double> rates = new EnumMap<>(MetadataOperationClass.class);
+        for (MetadataOperationClass operationClass : MetadataOperationClass.values()) {
+            rates.put(operationClass, conf.getDouble(String.format(CHDFS_META_LIMITER_CLASS_RATE_PER_SEC_KEY_FORMAT,
+                    operationClass.getConfigName()), defaultRate));
+        }
+        return rates;
+    }
+
+    private Map<MetadataOperationClass, Long> getMetadataLimiterLatencyThresholdsMs(Configuration conf) {
+        long defaultThresholdMs = conf.getLong(CHDFS_META_LIMITER_LATENCY_THRESHOLD_MS_KEY,
+                DEFAULT_CHDFS_META_LIMITER_LATENCY_THRESHOLD_MS);
+        Map<MetadataOperationClass, Long> thresholdsMs = new EnumMap<>(MetadataOperationClass.class);
+        for (MetadataOperationClass operationClass : MetadataOperationClass.values()) {
+            thresholdsMs.put(operationClass, conf.getLong(String.format(
+                    CHDFS_META_LIMITER_CLASS_LATENCY_THRESHOLD_MS_KEY_FORMAT, operationClass.getConfigName()),
+                    operationClass.isSizeDependent() ? 0 : defaultThresholdMs));
+        }
+        return thresholdsMs;
+    }
+
+    private String buildSharedImplKey(URI name, Configuration conf) throws IOException {
+        TreeMap<String, String> ofsConfigs = new TreeMap<>();
+        for (Map.Entry<String, String> entry : conf) {
+            // how the sharing was enabled does not change the impl filesystem
+            if (entry.getKey().startsWith("fs.ofs.") && !entry.getKey().equals(CHDFS_IMPL_SHARED_ENABLED_KEY)) {
+                ofsConfigs.put(entry.getKey(), entry.getValue());
+            }
+        }
+        String configDigest = MD5Hash.digest(ofsConfigs.toString().getBytes(StandardCharsets.UTF_8)).toString();
+        return String.format("%s://%s|%s|%s", name.getScheme(), name.getAuthority(),
+                UserGroupInformation.getCurrentUser().getShortUserName(), configDigest);
+    }
+
 
     private void initJarLoadWithRetry(String mountPointAddr, long appid, int jarPluginServerPort, String tmpDirPath,
                                       boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost
-            , String networkVersionId) throws IOException {
+            , String networkVersionId, boolean jarDeltaEnabled, long jarRefreshIntervalMs) throws IOException {
         int maxRetry = 5;
         for (int retryIndex = 0; retryIndex <= maxRetry; retryIndex++) {
             try {
                 jarLoader.init(mountPointAddr, appid, jarPluginServerPort, tmpDirPath, jarPluginServerHttps,
-                        cosEndPointSuffix, distinguishHost, networkVersionId);
+                        cosEndPointSuffix, distinguishHost, networkVersionId, jarDeltaEnabled, jarRefreshIntervalMs);
                 return;
             } catch (Exception e) {
                 if (retryIndex < maxRetry) {
@@ -391,69 +1035,317 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @java.lang.Override
     public FSDataInputStream open(Path f, int bufferSize) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.open(f, bufferSize);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("open");
+        try {
+            return wrapInputStream(applyInputPolicy(this.actualImplFS.open(makeAbsolute(f), bufferSize), f), f,
+                    bufferSize);
+        } finally {
+            span.end(f, 0);
+        }
+    }
+
+    private static InputPolicy getInputPolicy(String configKey, String configValue) throws IOException {
+        InputPolicy policy = InputPolicy.fromConfigName(configValue);
+        if (policy == null) {
+            throw new IOException(String.format("config for %s is invalid, policy: %s, exp. normal, sequential, "
+                    + "random or adaptive", configKey, configValue));
+        }
+        return policy;
+    }
+
+    private FSDataInputStream applyInputPolicy(FSDataInputStream in, Path f) throws IOException {
+        InputPolicy policy = this.defaultInputPolicy;
+        if (this.inputPolicyRules != null) {
+            String rulePolicy = this.inputPolicyRules.match(makeAbsolute(f));
+            if (rulePolicy != null) {
+                policy = InputPolicy.fromConfigName(rulePolicy);
+            }
+        }
+        if (policy == InputPolicy.NORMAL) {
+            return in;
+        }
+        Configuration conf = getConf();
+        int sequentialFetchSize = (int) conf.getLongBytes(CHDFS_INPUT_SEQUENTIAL_FETCH_SIZE_KEY,
+                DEFAULT_CHDFS_INPUT_SEQUENTIAL_FETCH_SIZE);
+        int randomFetchSize = (int) conf.getLongBytes(CHDFS_INPUT_RANDOM_FETCH_SIZE_KEY,
+                DEFAULT_CHDFS_INPUT_RANDOM_FETCH_SIZE);
+        return AdaptiveInputStream.wrap(in, makeAbsolute(f), policy, sequentialFetchSize, randomFetchSize);
     }
 
     @java.lang.Override
     public FSDataOutputStream createNonRecursive(Path f, FsPermission permission, EnumSet<CreateFlag> flags,
                                                  int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.createNonRecursive(f, permission, flags, bufferSize, replication, blockSize, progress);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("createNonRecursive");
+        try {
+            return wrapOutputStream(this.actualImplFS.createNonRecursive(makeAbsolute(f), permission, flags,
+                    bufferSize, replication, blockSize, progress), f);
+        } finally {
+            span.end(f, 0);
+        }
     }
 
     @java.lang.Override
     public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
                                      short replication, long blockSize, Progressable progress) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("create");
+        try {
+            return wrapOutputStream(this.actualImplFS.create(makeAbsolute(f), permission, overwrite, bufferSize,
+                    replication, blockSize, progress), f);
+        } finally {
+            span.end(f, 0);
+        }
     }
 
     @java.lang.Override
     public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.append(f, bufferSize, progress);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("append");
+        try {
+            return wrapOutputStream(this.actualImplFS.append(makeAbsolute(f), bufferSize, progress), f);
+        } finally {
+            span.end(f, 0);
+        }
     }
 
     public boolean truncate(Path f, long newLength) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.truncate(f, newLength);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("truncate");
+        try {
+            return this.actualImplFS.truncate(makeAbsolute(f), newLength);
+        } finally {
+            span.end(f, newLength);
+        }
+    }
+
+    @Override
+    public void copyFromLocalFile(boolean delSrc, boolean overwrite, Path src, Path dst) throws IOException {
+        judgeActualFSInitialized();
+        Configuration conf = getConf();
+        if (!conf.getBoolean(CHDFS_PARALLEL_UPLOAD_ENABLED_KEY, DEFAULT_CHDFS_PARALLEL_UPLOAD_ENABLED)) {
+            super.copyFromLocalFile(delSrc, overwrite, src, dst);
+            return;
+        }
+        FileSystem localFs = getLocal(conf);
+        FileStatus srcStatus = localFs.getFileStatus(src);
+        ParallelUploader uploader = new ParallelUploader(this, localFs, getAsyncExecutor(),
+                conf.getLongBytes(CHDFS_PARALLEL_UPLOAD_PART_SIZE_KEY, DEFAULT_CHDFS_PARALLEL_UPLOAD_PART_SIZE),
+                conf.getInt(CHDFS_PARALLEL_UPLOAD_CONCURRENCY_KEY, DEFAULT_CHDFS_PARALLEL_UPLOAD_CONCURRENCY),
+                conf.getInt(CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_KEY,
+                        CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT));
+        if (!uploader.isSplittable(srcStatus)) {
+            super.copyFromLocalFile(delSrc, overwrite, src, dst);
+            return;
+        }
+        uploader.upload(srcStatus, dst, overwrite);
+        if (delSrc) {
+            localFs.delete(src, false);
+        }
     }
 
     @Override
     public void concat(Path trg, Path[] psrcs) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.concat(trg, psrcs);
+        recordPathOp(trg);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("concat");
+        try {
+            this.actualImplFS.concat(makeAbsolute(trg), makeAbsolute(psrcs));
+        } finally {
+            span.end(trg, 0);
+        }
     }
 
     @java.lang.Override
     public boolean rename(Path src, Path dst) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.rename(src, dst);
+        recordPathOp(src);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("rename");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.RENAME);
+        try {
+            return this.actualImplFS.rename(makeAbsolute(src), makeAbsolute(dst));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(src, 0);
+        }
     }
 
     @java.lang.Override
     public boolean delete(Path f, boolean recursive) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.delete(f, recursive);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("delete");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.DELETE);
+        try {
+            return this.actualImplFS.delete(makeAbsolute(f), recursive);
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
     }
 
     @java.lang.Override
     public boolean deleteOnExit(Path f) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.deleteOnExit(f);
+        return this.actualImplFS.deleteOnExit(makeAbsolute(f));
     }
 
     @java.lang.Override
     public boolean cancelDeleteOnExit(Path f) {
         judgeActualFSInitialized();
-        return this.actualImplFS.cancelDeleteOnExit(f);
+        return this.actualImplFS.cancelDeleteOnExit(makeAbsolute(f));
     }
 
 
     @java.lang.Override
     public FileStatus[] listStatus(Path f) throws FileNotFoundException, IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.listStatus(f);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("listStatus");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.LIST);
+        try {
+            return internListing(applyVirtualBlockSize(this.actualImplFS.listStatus(makeAbsolute(f))));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
+    }
+
+    @Override
+    public RemoteIterator<FileStatus> listStatusIterator(Path f) throws FileNotFoundException, IOException {
+        judgeActualFSInitialized();
+        if (!getConf().getBoolean(CHDFS_LIST_STREAMING_ENABLED_KEY, DEFAULT_CHDFS_LIST_STREAMING_ENABLED)) {
+            return super.listStatusIterator(f);
+        }
+        recordPathOp(f);
+        return new PagedListingIterator<>(newListingPageSource(f, new ListingPageTransformer<FileStatus>() {
+            @Override
+            public List<FileStatus> transform(FileStatus[] page) throws IOException {
+                return Arrays.asList(internListing(applyVirtualBlockSize(page)));
+            }
+        }), getAsyncExecutor());
+    }
+
+    @Override
+    protected RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f, final PathFilter filter)
+            throws FileNotFoundException, IOException {
+        judgeActualFSInitialized();
+        if (!getConf().getBoolean(CHDFS_LIST_STREAMING_ENABLED_KEY, DEFAULT_CHDFS_LIST_STREAMING_ENABLED)) {
+            return super.listLocatedStatus(f, filter);
+        }
+        recordPathOp(f);
+        return new PagedListingIterator<>(newListingPageSource(f, new ListingPageTransformer<LocatedFileStatus>() {
+            @Override
+            public List<LocatedFileStatus> transform(FileStatus[] page) throws IOException {
+                FileStatus[] statuses = internListing(applyVirtualBlockSize(page));
+                List<LocatedFileStatus> locatedStatuses = new ArrayList<>(statuses.length);
+                for (FileStatus status : statuses) {
+                    if (filter.accept(status.getPath())) {
+                        // like FileSystem#listLocatedStatus, which avoids another getFileStatus per file
+                        BlockLocation[] locations =
+                                status.isFile() ? getFileBlockLocations(status, 0, status.getLen()) : null;
+                        locatedStatuses.add(new LocatedFileStatus(status, locations));
+                    }
+                }
+                return locatedStatuses;
+            }
+        }), getAsyncExecutor());
+    }
+
+    /**
+     * Like {@link #listStatus(Path)}, but the listing is held column by column and every {@link FileStatus} is
+     * built on access, which cuts the heap of a kept listing of a huge directory by a large factor. The listing is
+     * streamed like {@link #listStatusIterator(Path)}, the statuses are never all materialized at once.
+     *
+     * @return a read-only list, {@code get} returns a new status on every call
+     */
+    public List<FileStatus> listStatusCompact(Path f) throws FileNotFoundException, IOException {
+        CompactFileStatusList.Builder builder = new CompactFileStatusList.Builder();
+        RemoteIterator<FileStatus> iterator = listStatusIterator(f);
+        try {
+            while (iterator.hasNext()) {
+                builder.add(iterator.next());
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                utils.closeQuietly((Closeable) iterator);
+            }
+        }
+        return builder.build();
+    }
+
+    private FileStatus[] internListing(FileStatus[] statuses) throws IOException {
+        return this.internListings ? FileStatusInterner.intern(statuses) : statuses;
+    }
+
+    private interface ListingPageTransformer<T> {
+        List<T> transform(FileStatus[] page) throws IOException;
+    }
+
+    /**
+     * Pages of the listing iterator of the implementation, every page counts as a listing for the metadata
+     * limiter. The memory stays bounded as far as the implementation streams its own iterator.
+     */
+    private <T> PagedListingIterator.PageSource<T> newListingPageSource(Path f,
+            final ListingPageTransformer<T> transformer) throws IOException {
+        final int pageSize = Math.max(1, getConf().getInt(CHDFS_LIST_PAGE_SIZE_KEY, DEFAULT_CHDFS_LIST_PAGE_SIZE));
+        final RemoteIterator<FileStatus> implIterator;
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.LIST);
+        try {
+            implIterator = this.actualImplFS.listStatusIterator(makeAbsolute(f));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+        }
+        return new PagedListingIterator.PageSource<T>() {
+            private boolean morePages = true;
+
+            @Override
+            public List<T> nextPage() throws IOException {
+                if (!morePages) {
+                    return null;
+                }
+                MetadataOperationLimiter.Permit pagePermit = acquireMetadataPermit(MetadataOperationClass.LIST);
+                try {
+                    List<FileStatus> page = new ArrayList<>(pageSize);
+                    while (page.size() < pageSize && implIterator.hasNext()) {
+                        page.add(implIterator.next());
+                    }
+                    // a short page ended the iterator of the implementation
+                    morePages = page.size() == pageSize;
+                    if (page.isEmpty()) {
+                        return null;
+                    }
+                    return transformer.transform(page.toArray(new FileStatus[page.size()]));
+                } catch (IOException e) {
+                    pagePermit.markFailed(e);
+                    throw e;
+                } finally {
+                    pagePermit.release();
+                }
+            }
+
+            @Override
+            public boolean hasMorePages() {
+                return morePages;
+            }
+        };
     }
 
     @java.lang.Override
@@ -463,11 +1355,11 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
 
     @java.lang.Override
     public void setWorkingDirectory(Path new_dir) {
-        this.workingDir = new_dir;
+        this.workingDir = makeAbsolute(new_dir);
         if (this.actualImplFS == null) {
             log.warn("fileSystem is not init yet!");
-        } else {
-            this.actualImplFS.setWorkingDirectory(new_dir);
+        } else if (this.sharedImplKey == null) {
+            this.actualImplFS.setWorkingDirectory(this.workingDir);
         }
     }
 
@@ -482,13 +1374,304 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @java.lang.Override
     public boolean mkdirs(Path f, FsPermission permission) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.mkdirs(f, permission);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("mkdirs");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.MKDIRS);
+        try {
+            return this.actualImplFS.mkdirs(makeAbsolute(f), permission);
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
     }
 
     @java.lang.Override
     public FileStatus getFileStatus(Path f) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getFileStatus(f);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("getFileStatus");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.STAT);
+        try {
+            return applyVirtualBlockSize(this.actualImplFS.getFileStatus(makeAbsolute(f)));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
+    }
+
+    private FileStatus applyVirtualBlockSize(FileStatus status) throws IOException {
+        return this.virtualBlockLayout == null ? status : this.virtualBlockLayout.apply(status);
+    }
+
+    private FileStatus[] applyVirtualBlockSize(FileStatus[] statuses) throws IOException {
+        return this.virtualBlockLayout == null ? statuses : this.virtualBlockLayout.apply(statuses);
+    }
+
+    @Override
+    public long getDefaultBlockSize(Path f) {
+        if (this.virtualBlockLayout != null) {
+            long blockSize = this.virtualBlockLayout.getBlockSize(makeAbsolute(f));
+            if (blockSize > 0) {
+                return blockSize;
+            }
+        }
+        return super.getDefaultBlockSize(f);
+    }
+
+    @Override
+    public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len) throws IOException {
+        if (this.virtualBlockLayout == null) {
+            return super.getFileBlockLocations(file, start, len);
+        }
+        return this.virtualBlockLayout.getBlockLocations(file, start, len);
+    }
+
+    private MetadataOperationLimiter.Permit acquireMetadataPermit(MetadataOperationClass operationClass)
+            throws IOException {
+        if (this.metadataLimiter == null) {
+            return MetadataOperationLimiter.noLimit();
+        }
+        return this.metadataLimiter.acquire(operationClass);
+    }
+
+    private void recordPathOp(Path f) {
+        if (this.prefixAccounting != null) {
+            this.prefixAccounting.recordOp(makeAbsolute(f));
+        }
+    }
+
+    /**
+     * The working directory of a shared impl filesystem is not the one of this adapter, so every path is resolved
+     * here before it is handed to the impl filesystem.
+     */
+    private Path makeAbsolute(Path f) {
+        return f == null || f.isAbsolute() ? f : new Path(this.workingDir, f);
+    }
+
+    private Path[] makeAbsolute(Path[] paths) {
+        if (paths == null) {
+            return null;
+        }
+        Path[] absolutePaths = new Path[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            absolutePaths[i] = makeAbsolute(paths[i]);
+        }
+        return absolutePaths;
+    }
+
+    private FSDataInputStream wrapInputStream(FSDataInputStream in, Path f, final int bufferSize)
+            throws IOException {
+        final Path absolutePath = makeAbsolute(f);
+        final PathPrefixAccounting accounting = this.prefixAccounting;
+        final FlightRecorderEvents.Span readSpan = FlightRecorderEvents.beginOperation(
+                FlightRecorderEvents.OPERATION_READ);
+        if (accounting == null && !readSpan.isRecording() && this.hedgedReadCoordinator == null
+                && this.streamStatistics == null) {
+            return in;
+        }
+        CHDFSInputStream.CloseListener closeListener = null;
+        if (accounting != null || readSpan.isRecording()) {
+            closeListener = new CHDFSInputStream.CloseListener() {
+                @Override
+                public void onClose(Path path, long bytesRead) {
+                    if (accounting != null) {
+                        accounting.recordBytes(path, bytesRead);
+                    }
+                    readSpan.end(path, bytesRead);
+                }
+            };
+        }
+        Callable<FSDataInputStream> hedgeStreamOpener = null;
+        if (this.hedgedReadCoordinator != null) {
+            final FileSystem implFS = this.actualImplFS;
+            hedgeStreamOpener = new Callable<FSDataInputStream>() {
+                @Override
+                public FSDataInputStream call() throws IOException {
+                    return implFS.open(absolutePath, bufferSize);
+                }
+            };
+        }
+        InputStreamStatistics statistics = null;
+        if (this.streamStatistics != null) {
+            statistics = new InputStreamStatistics(this.streamStatistics, absolutePath,
+                    this.slowStreamReadThresholdMs);
+        }
+        return CHDFSInputStream.wrap(in, absolutePath, closeListener, this.hedgedReadCoordinator,
+                hedgeStreamOpener, statistics);
+    }
+
+    @Override
+    public StorageStatistics getStorageStatistics() {
+        if (this.streamStatistics != null) {
+            return this.streamStatistics;
+        }
+        return super.getStorageStatistics();
+    }
+
+    private FSDataOutputStream wrapOutputStream(FSDataOutputStream out, Path f) throws IOException {
+        final PathPrefixAccounting accounting = this.prefixAccounting;
+        final FlightRecorderEvents.Span writeSpan = FlightRecorderEvents.beginOperation(
+                FlightRecorderEvents.OPERATION_WRITE);
+        if (accounting == null && !writeSpan.isRecording()) {
+            return out;
+        }
+        return new CHDFSOutputStream(out, makeAbsolute(f), new CHDFSOutputStream.CloseListener() {
+            @Override
+            public void onClose(Path path, long bytesWritten) {
+                if (accounting != null) {
+                    accounting.recordBytes(path, bytesWritten);
+                }
+                writeSpan.end(path, bytesWritten);
+            }
+        });
+    }
+
+    @Override
+    public FileStatus[] globStatus(Path pathPattern) throws IOException {
+        return globStatus(pathPattern, ACCEPT_ALL_FILTER);
+    }
+
+    @Override
+    public FileStatus[] globStatus(Path pathPattern, PathFilter filter) throws IOException {
+        judgeActualFSInitialized();
+        Configuration conf = getConf();
+        if (!conf.getBoolean(CHDFS_GLOB_PARALLEL_ENABLED_KEY, DEFAULT_CHDFS_GLOB_PARALLEL_ENABLED)) {
+            return super.globStatus(pathPattern, filter);
+        }
+        return new ParallelGlobber(this, getAsyncExecutor(),
+                conf.getInt(CHDFS_GLOB_CONCURRENCY_KEY, DEFAULT_CHDFS_GLOB_CONCURRENCY), pathPattern, filter).glob();
+    }
+
+    /**
+     * Get the status of many paths in one call.
+     *
+     * @param paths the paths to resolve
+     * @return statuses in the same order as {@code paths}, a {@code null} element means the path does not exist
+     * @throws IOException if resolving any of the paths failed for another reason than not existing
+     */
+    public FileStatus[] getFileStatuses(List<Path> paths) throws IOException {
+        judgeActualFSInitialized();
+        int concurrency = getConf().getInt(CHDFS_BATCH_STATUS_CONCURRENCY_KEY, DEFAULT_CHDFS_BATCH_STATUS_CONCURRENCY);
+        int listThreshold = getConf().getInt(CHDFS_BATCH_STATUS_LIST_THRESHOLD_KEY,
+                DEFAULT_CHDFS_BATCH_STATUS_LIST_THRESHOLD);
+        int listMaxEntriesPerPath = getConf().getInt(CHDFS_BATCH_STATUS_LIST_MAX_ENTRIES_PER_PATH_KEY,
+                DEFAULT_CHDFS_BATCH_STATUS_LIST_MAX_ENTRIES_PER_PATH);
+        return new BatchFileStatusFetcher(this, getAsyncExecutor(), concurrency, listThreshold,
+                listMaxEntriesPerPath).getFileStatuses(paths);
+    }
+
+    public Future<FSDataInputStream> openAsync(final Path f, final int bufferSize) throws IOException {
+        judgeActualFSInitialized();
+        FutureTask<FSDataInputStream> future = new FutureTask<FSDataInputStream>(
+                runAsCurrentUser(new Callable<FSDataInputStream>() {
+                    @Override
+                    public FSDataInputStream call() throws IOException {
+                        return open(f, bufferSize);
+                    }
+                })) {
+            @Override
+            protected void set(FSDataInputStream in) {
+                super.set(in);
+                if (isCancelled()) {
+                    // cancelled while opening, nobody can get the stream any more
+                    utils.closeQuietly(in);
+                }
+            }
+        };
+        getAsyncExecutor().execute(future);
+        return future;
+    }
+
+    public Future<FileStatus> getFileStatusAsync(final Path f) throws IOException {
+        judgeActualFSInitialized();
+        return getAsyncExecutor().submit(runAsCurrentUser(new Callable<FileStatus>() {
+            @Override
+            public FileStatus call() throws IOException {
+                return getFileStatus(f);
+            }
+        }));
+    }
+
+    public Future<FileStatus[]> listStatusAsync(final Path f) throws IOException {
+        judgeActualFSInitialized();
+        return getAsyncExecutor().submit(runAsCurrentUser(new Callable<FileStatus[]>() {
+            @Override
+            public FileStatus[] call() throws IOException {
+                return listStatus(f);
+            }
+        }));
+    }
+
+    public Future<Boolean> renameAsync(final Path src, final Path dst) throws IOException {
+        judgeActualFSInitialized();
+        return getAsyncExecutor().submit(runAsCurrentUser(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return rename(src, dst);
+            }
+        }));
+    }
+
+    public Future<Boolean> deleteAsync(final Path f, final boolean recursive) throws IOException {
+        judgeActualFSInitialized();
+        return getAsyncExecutor().submit(runAsCurrentUser(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return delete(f, recursive);
+            }
+        }));
+    }
+
+    public Future<Boolean> mkdirsAsync(final Path f, final FsPermission permission) throws IOException {
+        judgeActualFSInitialized();
+        return getAsyncExecutor().submit(runAsCurrentUser(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return mkdirs(f, permission);
+            }
+        }));
+    }
+
+    /**
+     * The executor threads are shared by all the users of this instance, an operation must run as its caller.
+     */
+    private static <T> Callable<T> runAsCurrentUser(final Callable<T> operation) throws IOException {
+        final UserGroupInformation callerUgi = UserGroupInformation.getCurrentUser();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return callerUgi.doAs(new PrivilegedExceptionAction<T>() {
+                    @Override
+                    public T run() throws Exception {
+                        return operation.call();
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * The executor behind the async and batch operations of this instance, created on first use.
+     *
+     * @throws IOException once this instance is closed
+     */
+    synchronized BoundedOperationExecutor getAsyncExecutor() throws IOException {
+        if (this.closed) {
+            throw new IOException("the fileSystem is already closed");
+        }
+        if (this.asyncExecutor == null) {
+            Configuration conf = getConf();
+            this.asyncExecutor = new BoundedOperationExecutor("chdfs-async-op",
+                    conf.getInt(CHDFS_ASYNC_OP_THREADS_KEY, DEFAULT_CHDFS_ASYNC_OP_THREADS),
+                    conf.getInt(CHDFS_ASYNC_OP_MAX_QUEUE_KEY, DEFAULT_CHDFS_ASYNC_OP_MAX_QUEUE));
+        }
+        return this.asyncExecutor;
     }
 
     @Override
@@ -496,14 +1679,24 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
             throws AccessControlException, FileAlreadyExistsException, FileNotFoundException,
             ParentNotDirectoryException, UnsupportedFileSystemException, IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.createSymlink(target, link, createParent);
+        this.actualImplFS.createSymlink(target, makeAbsolute(link), createParent);
     }
 
     @Override
     public FileStatus getFileLinkStatus(final Path f)
             throws AccessControlException, FileNotFoundException, UnsupportedFileSystemException, IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getFileLinkStatus(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("getFileLinkStatus");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.STAT);
+        try {
+            return applyVirtualBlockSize(this.actualImplFS.getFileLinkStatus(makeAbsolute(f)));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
     }
 
     @Override
@@ -518,7 +1711,7 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @Override
     public Path getLinkTarget(Path f) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getLinkTarget(f);
+        return this.actualImplFS.getLinkTarget(makeAbsolute(f));
     }
 
     @Override
@@ -529,7 +1722,28 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @Override
     public FileChecksum getFileChecksum(Path f, long length) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getFileChecksum(f, length);
+        if (getConf().getBoolean(CHDFS_CHECKSUM_COMPOSITE_CRC_ENABLED_KEY,
+                DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_ENABLED)) {
+            FileStatus fileStatus = getFileStatus(f);
+            if (fileStatus.isFile()) {
+                return getCompositeCrcCalculator().getFileChecksum(fileStatus, length);
+            }
+        }
+        return this.actualImplFS.getFileChecksum(makeAbsolute(f), length);
+    }
+
+    private synchronized CompositeCrcChecksumCalculator getCompositeCrcCalculator() throws IOException {
+        if (this.compositeCrcCalculator == null) {
+            Configuration conf = getConf();
+            this.compositeCrcCalculator = new CompositeCrcChecksumCalculator(this, getAsyncExecutor(),
+                    conf.getLongBytes(CHDFS_CHECKSUM_COMPOSITE_CRC_RANGE_SIZE_KEY,
+                            DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_RANGE_SIZE),
+                    conf.getInt(CHDFS_CHECKSUM_COMPOSITE_CRC_PARALLELISM_KEY,
+                            DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_PARALLELISM),
+                    conf.getInt(CHDFS_CHECKSUM_COMPOSITE_CRC_CACHE_SIZE_KEY,
+                            DEFAULT_CHDFS_CHECKSUM_COMPOSITE_CRC_CACHE_SIZE));
+        }
+        return this.compositeCrcCalculator;
     }
 
     @Override
@@ -547,115 +1761,133 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @Override
     public FsStatus getStatus(Path p) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getStatus(p);
+        return this.actualImplFS.getStatus(makeAbsolute(p));
     }
 
     @Override
     public void setPermission(Path p, FsPermission permission) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.setPermission(p, permission);
+        recordPathOp(p);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("setPermission");
+        try {
+            this.actualImplFS.setPermission(makeAbsolute(p), permission);
+        } finally {
+            span.end(p, 0);
+        }
     }
 
     @Override
     public void setOwner(Path p, String username, String groupname) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.setOwner(p, username, groupname);
+        recordPathOp(p);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("setOwner");
+        try {
+            this.actualImplFS.setOwner(makeAbsolute(p), username, groupname);
+        } finally {
+            span.end(p, 0);
+        }
     }
 
     @Override
     public void setTimes(Path p, long mtime, long atime) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.setTimes(p, mtime, atime);
+        recordPathOp(p);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("setTimes");
+        try {
+            this.actualImplFS.setTimes(makeAbsolute(p), mtime, atime);
+        } finally {
+            span.end(p, 0);
+        }
     }
 
     @Override
     public Path createSnapshot(Path path, String snapshotName) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.createSnapshot(path, snapshotName);
+        return this.actualImplFS.createSnapshot(makeAbsolute(path), snapshotName);
     }
 
     @Override
     public void renameSnapshot(Path path, String snapshotOldName, String snapshotNewName) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.renameSnapshot(path, snapshotOldName, snapshotNewName);
+        this.actualImplFS.renameSnapshot(makeAbsolute(path), snapshotOldName, snapshotNewName);
     }
 
     @Override
     public void deleteSnapshot(Path path, String snapshotName) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.deleteSnapshot(path, snapshotName);
+        this.actualImplFS.deleteSnapshot(makeAbsolute(path), snapshotName);
     }
 
     @Override
     public void modifyAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.modifyAclEntries(path, aclSpec);
+        this.actualImplFS.modifyAclEntries(makeAbsolute(path), aclSpec);
     }
 
     @Override
     public void removeAclEntries(Path path, List<AclEntry> aclSpec) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.removeAclEntries(path, aclSpec);
+        this.actualImplFS.removeAclEntries(makeAbsolute(path), aclSpec);
     }
 
     @Override
     public void removeDefaultAcl(Path path) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.removeDefaultAcl(path);
+        this.actualImplFS.removeDefaultAcl(makeAbsolute(path));
     }
 
     @Override
     public void removeAcl(Path path) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.removeAcl(path);
+        this.actualImplFS.removeAcl(makeAbsolute(path));
     }
 
     @Override
     public void setAcl(Path path, List<AclEntry> aclSpec) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.setAcl(path, aclSpec);
+        this.actualImplFS.setAcl(makeAbsolute(path), aclSpec);
     }
 
     @Override
     public AclStatus getAclStatus(Path path) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getAclStatus(path);
+        return this.actualImplFS.getAclStatus(makeAbsolute(path));
     }
 
     @Override
     public void setXAttr(Path path, String name, byte[] value, EnumSet<XAttrSetFlag> flag) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.setXAttr(path, name, value, flag);
+        this.actualImplFS.setXAttr(makeAbsolute(path), name, value, flag);
     }
 
     @Override
     public byte[] getXAttr(Path path, String name) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getXAttr(path, name);
+        return this.actualImplFS.getXAttr(makeAbsolute(path), name);
     }
 
     @Override
     public Map<String, byte[]> getXAttrs(Path path) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getXAttrs(path);
+        return this.actualImplFS.getXAttrs(makeAbsolute(path));
     }
 
     @Override
     public Map<String, byte[]> getXAttrs(Path path, List<String> names) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getXAttrs(path, names);
+        return this.actualImplFS.getXAttrs(makeAbsolute(path), names);
     }
 
     @Override
     public List<String> listXAttrs(Path path) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.listXAttrs(path);
+        return this.actualImplFS.listXAttrs(makeAbsolute(path));
     }
 
     @Override
     public void removeXAttr(Path path, String name) throws IOException {
         judgeActualFSInitialized();
-        this.actualImplFS.removeXAttr(path, name);
+        this.actualImplFS.removeXAttr(makeAbsolute(path), name);
     }
 
     @Override
@@ -676,14 +1908,25 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     @Override
     public ContentSummary getContentSummary(Path f) throws IOException {
         judgeActualFSInitialized();
-        return this.actualImplFS.getContentSummary(f);
+        recordPathOp(f);
+        FlightRecorderEvents.Span span = FlightRecorderEvents.beginOperation("getContentSummary");
+        MetadataOperationLimiter.Permit permit = acquireMetadataPermit(MetadataOperationClass.LIST);
+        try {
+            return this.actualImplFS.getContentSummary(makeAbsolute(f));
+        } catch (IOException e) {
+            permit.markFailed(e);
+            throw e;
+        } finally {
+            permit.release();
+            span.end(f, 0);
+        }
     }
 
     @Override
     public void releaseFileLock(Path p) throws IOException {
         judgeActualFSInitialized();
         if (this.actualImplFS instanceof FileLockCleaner) {
-            ((FileLockCleaner) this.actualImplFS).releaseFileLock(p);
+            ((FileLockCleaner) this.actualImplFS).releaseFileLock(makeAbsolute(p));
         } else {
             throw new IOException("the actual fileSystem not implemented the lock cleaner interface!");
         }
@@ -714,17 +1957,95 @@ public class CHDFSHadoopFileSystemAdapter extends FileSystemWithCleanerAndSSE im
     public void checkPermission(Path f, RangerAccessType rangerAccessType) throws IOException {
         judgeActualFSInitialized();
         if (this.actualImplFS instanceof RangerPermissionChecker) {
-            ((RangerPermissionChecker) this.actualImplFS).checkPermission(f, rangerAccessType);
+            RangerPermissionChecker checker = (RangerPermissionChecker) this.actualImplFS;
+            if (this.rangerPermissionCache == null) {
+                checker.checkPermission(makeAbsolute(f), rangerAccessType);
+            } else {
+                this.rangerPermissionCache.check(UserGroupInformation.getCurrentUser().getShortUserName(),
+                        makeAbsolute(f), rangerAccessType, checker);
+            }
         } else {
             throw new IOException("the actual fileSystem not implemented the permission check interface!");
         }
     }
 
+    /**
+     * Check many paths in one call, fanning out in parallel.
+     *
+     * @return whether each path of {@code paths} is allowed, in the same order
+     * @throws IOException if a check failed for another reason than being denied
+     */
+    public boolean[] checkPermissions(List<Path> paths, final RangerAccessType rangerAccessType)
+            throws IOException {
+        judgeActualFSInitialized();
+        final boolean[] allowed = new boolean[paths.size()];
+        final UserGroupInformation callerUgi = UserGroupInformation.getCurrentUser();
+        List<Callable<Void>> tasks = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            final int index = i;
+            final Path path = paths.get(i);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // the ranger user is taken from the caller, not from the executor thread
+                    return callerUgi.doAs(new PrivilegedExceptionAction<Void>() {
+                        @Override
+                        public Void run() throws IOException {
+                            try {
+                                checkPermission(path, rangerAccessType);
+                                allowed[index] = true;
+                            } catch (AccessControlException e) {
+                                allowed[index] = false;
+                            }
+                            return null;
+                        }
+                    });
+                }
+            });
+        }
+        getAsyncExecutor().runAll(tasks, getConf().getInt(CHDFS_RANGER_BATCH_CHECK_CONCURRENCY_KEY,
+                DEFAULT_CHDFS_RANGER_BATCH_CHECK_CONCURRENCY));
+        return allowed;
+    }
+
     @Override
     public void close() throws IOException {
         judgeActualFSInitialized();
+        synchronized (this) {
+            // a second close must not release the shared impl filesystem again
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
         super.close();
-        this.actualImplFS.close();
+        if (this.prefixAccounting != null) {
+            this.prefixAccounting.stop();
+        }
+        if (this.hedgedReadExecutor != null) {
+            this.hedgedReadCoordinator.close();
+            this.hedgedReadExecutor.shutdown();
+            log.info("hedged reads of {}, reads: {}, hedges: {}, hedge wins: {}", this.uri,
+                    this.hedgedReadCoordinator.getReadCount(), this.hedgedReadCoordinator.getHedgeCount(),
+                    this.hedgedReadCoordinator.getHedgeWinCount());
+        }
+        synchronized (this) {
+            if (this.asyncExecutor != null) {
+                this.asyncExecutor.shutdown();
+                this.asyncExecutor = null;
+            }
+        }
+        if (this.sharedImplKey == null) {
+            this.actualImplFS.close();
+            PluginClassLoaderTracker.release(this.actualImplFS);
+        } else {
+            FileSystem lastReferenced = SharedFileSystemRegistry.release(this.sharedImplKey);
+            if (lastReferenced != null) {
+                lastReferenced.close();
+                PluginClassLoaderTracker.release(lastReferenced);
+            }
+        }
+        this.jarLoader.close();
     }
 
 
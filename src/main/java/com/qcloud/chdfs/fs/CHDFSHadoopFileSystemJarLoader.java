@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -32,11 +34,14 @@ import java.net.URLEncoder;
 import java.net.URLStreamHandler;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.ThreadLocalRandom;
 
 class CHDFSHadoopFileSystemJarLoader {
 
     private static final Logger log = LoggerFactory.getLogger(CHDFSHadoopFileSystemJarLoader.class);
+    static final String PINNED_JAR_CLASSPATH_PREFIX = "classpath:";
     private static AlreadyLoadedFileSystemInfo alreadyLoadedFileSystemInfo;
     private String versionId;
     private String jarPath;
@@ -44,20 +49,181 @@ class CHDFSHadoopFileSystemJarLoader {
     private String jarHost;
     private String jarMd5;
     private FileSystem actualFileSystem;
+    private String acquiredRefreshKey;
 
     CHDFSHadoopFileSystemJarLoader() {
     }
 
     synchronized void init(String mountPointAddr, long appid, int jarPluginServerPort, String tmpDirPath,
-            boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost, String networkVersionId)
-            throws IOException {
+            boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost, String networkVersionId,
+            boolean jarDeltaEnabled, long refreshIntervalMs) throws IOException {
         if (this.actualFileSystem == null) {
-            long queryStartMs = System.currentTimeMillis();
-            queryJarPluginInfo(mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps, cosEndPointSuffix);
-            log.debug("query jar plugin info usedMs: {}", System.currentTimeMillis() - queryStartMs);
+            String refreshKey = buildRefreshKey(mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps,
+                    cosEndPointSuffix);
+            JarPluginInfo refreshedInfo =
+                    refreshIntervalMs > 0 ? JarPluginRefresher.getFreshPluginInfo(refreshKey, refreshIntervalMs) : null;
+            if (refreshedInfo != null) {
+                // the background refresher already queried and preloaded the latest version
+                this.versionId = refreshedInfo.versionId;
+                this.jarPath = refreshedInfo.jarPath;
+                this.jarHost = refreshedInfo.jarHost;
+                this.jarMd5 = refreshedInfo.jarMd5;
+            } else {
+                long queryStartMs = System.currentTimeMillis();
+                FlightRecorderEvents.Span querySpan = FlightRecorderEvents.beginBootstrapPhase(
+                        FlightRecorderEvents.PHASE_QUERY);
+                try {
+                    queryJarPluginInfo(mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps,
+                            cosEndPointSuffix);
+                } finally {
+                    querySpan.end(mountPointAddr, 0);
+                }
+                log.debug("query jar plugin info usedMs: {}", System.currentTimeMillis() - queryStartMs);
+            }
             this.actualFileSystem = getAlreadyLoadedClassInfo(this.getClass().getClassLoader(), this.jarPath,
-                    this.versionId, this.jarMd5, tmpDirPath, this.jarHost, distinguishHost, networkVersionId);
+                    this.versionId, this.jarMd5, tmpDirPath, this.jarHost, distinguishHost, networkVersionId,
+                    jarDeltaEnabled);
+        }
+    }
+
+    /**
+     * Count as one user of the background refresh of the mount point, starting it unless it runs already. Called by
+     * every file system instance, also by one which shares the implementation loaded by another instance, so the
+     * refresh runs as long as any of them is open. The version loaded by {@link #init}, if any, seeds a new refresh.
+     */
+    synchronized void acquireRefresh(String mountPointAddr, long appid, int jarPluginServerPort, String tmpDirPath,
+            boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost, String networkVersionId,
+            boolean jarDeltaEnabled, long refreshIntervalMs) {
+        if (refreshIntervalMs <= 0 || this.acquiredRefreshKey != null) {
+            return;
+        }
+        String refreshKey = buildRefreshKey(mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps,
+                cosEndPointSuffix);
+        JarPluginInfo loadedPluginInfo = this.versionId == null ? null
+                : new JarPluginInfo(this.versionId, this.jarPath, this.jarHost, this.jarMd5);
+        JarPluginRefresher.acquire(refreshKey, refreshIntervalMs, mountPointAddr, appid, jarPluginServerPort,
+                tmpDirPath, jarPluginServerHttps, cosEndPointSuffix, distinguishHost, networkVersionId,
+                jarDeltaEnabled, loadedPluginInfo);
+        this.acquiredRefreshKey = refreshKey;
+    }
+
+    private static String buildRefreshKey(String mountPointAddr, long appid, int jarPluginServerPort,
+            boolean jarPluginServerHttps, String cosEndPointSuffix) {
+        return String.format("%s|%d|%d|%b|%s", mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps,
+                cosEndPointSuffix);
+    }
+
+    /**
+     * Stop counting as a user of the background refresh joined by {@link #acquireRefresh}.
+     */
+    synchronized void close() {
+        if (this.acquiredRefreshKey != null) {
+            JarPluginRefresher.release(this.acquiredRefreshKey);
+            this.acquiredRefreshKey = null;
+        }
+    }
+
+    /**
+     * Load the pinned implementation version from a local jar or a classpath resource, without any network call.
+     *
+     * @param pinnedJar a local jar path, or {@code classpath:<resource>} for a jar bundled with the application
+     */
+    synchronized void initPinned(String versionId, String pinnedJar, String jarMd5, String tmpDirPath)
+            throws IOException {
+        if (this.actualFileSystem == null) {
+            this.versionId = versionId;
+            this.jarPath = pinnedJar;
+            this.jarHost = null;
+            this.jarMd5 = jarMd5;
+            this.actualFileSystem = getAlreadyLoadedPinnedClassInfo(this.getClass().getClassLoader(), pinnedJar,
+                    versionId, jarMd5, tmpDirPath);
+        }
+    }
+
+    private static synchronized FileSystem getAlreadyLoadedPinnedClassInfo(ClassLoader currentClassLoader,
+            String pinnedJar, String versionId, String jarMd5, String tmpDirPath) throws IOException {
+        Class<?> chdfsFSClass;
+        if (isAlreadyLoaded(pinnedJar, versionId, jarMd5)) {
+            chdfsFSClass = alreadyLoadedFileSystemInfo.chdfsFSClass;
+        } else {
+            File jarFile = resolvePinnedJar(currentClassLoader, pinnedJar, versionId, jarMd5, tmpDirPath);
+            chdfsFSClass = defineFileSystemClass(currentClassLoader, jarFile, pinnedJar, versionId, jarMd5);
         }
+        return newFileSystemInstance(chdfsFSClass);
+    }
+
+    /**
+     * @return the verified local jar of {@code pinnedJar}, a bundled jar is extracted into the jar cache first
+     */
+    private static File resolvePinnedJar(ClassLoader currentClassLoader, String pinnedJar, String versionId,
+            String jarMd5, String tmpDirPath) throws IOException {
+        if (!pinnedJar.startsWith(PINNED_JAR_CLASSPATH_PREFIX)) {
+            File jarFile = new File(pinnedJar);
+            if (!jarFile.isFile()) {
+                String errMsg = String.format("pinned jar not found, jarPath: %s", pinnedJar);
+                log.error(errMsg);
+                throw new IOException(errMsg);
+            }
+            checkPinnedJarMd5(jarFile, pinnedJar, jarMd5);
+            return jarFile;
+        }
+
+        File localCacheJarFile = JarCacheManager.getCachedJarFile(tmpDirPath, versionId);
+        JarCacheManager.markInUse(localCacheJarFile);
+        if (localCacheJarFile.exists() && getFileHexMd5(localCacheJarFile).equalsIgnoreCase(jarMd5)) {
+            return localCacheJarFile;
+        }
+        String resourceName = pinnedJar.substring(PINNED_JAR_CLASSPATH_PREFIX.length());
+        InputStream in = currentClassLoader.getResourceAsStream(resourceName);
+        if (in == null) {
+            String errMsg = String.format("pinned jar resource not found on the classpath, resource: %s",
+                    resourceName);
+            log.error(errMsg);
+            throw new IOException(errMsg);
+        }
+        // extract to a unique file and move it in place, so that concurrent processes never see a partial jar
+        File extractedJarFile = File.createTempFile(localCacheJarFile.getName(), ".extract",
+                localCacheJarFile.getParentFile());
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(extractedJarFile));
+            try {
+                IOUtils.copyBytes(in, out, 64 * 1024);
+            } finally {
+                out.close();
+            }
+            checkPinnedJarMd5(extractedJarFile, pinnedJar, jarMd5);
+            Files.move(extractedJarFile.toPath(), localCacheJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IOUtils.closeStream(in);
+            if (extractedJarFile.exists() && !extractedJarFile.delete()) {
+                log.warn("delete extracted jar failed, path: {}", extractedJarFile.getAbsolutePath());
+            }
+        }
+        return localCacheJarFile;
+    }
+
+    private static void checkPinnedJarMd5(File jarFile, String pinnedJar, String jarMd5) throws IOException {
+        String md5Hex = getFileHexMd5(jarFile);
+        if (!md5Hex.equalsIgnoreCase(jarMd5)) {
+            String errMsg = String.format("pinned jar md5 mismatch, jarPath: %s, expected md5: %s, actual md5: %s",
+                    pinnedJar, jarMd5, md5Hex);
+            log.error(errMsg);
+            throw new IOException(errMsg);
+        }
+    }
+
+    /**
+     * Query the latest plugin version and make sure its jar is downloaded and its classes are loaded, without
+     * creating a file system instance.
+     */
+    JarPluginInfo preloadLatest(String mountPointAddr, long appid, int jarPluginServerPort, String tmpDirPath,
+            boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost, String networkVersionId,
+            boolean jarDeltaEnabled) throws IOException {
+        queryJarPluginInfo(mountPointAddr, appid, jarPluginServerPort, jarPluginServerHttps, cosEndPointSuffix);
+        loadFileSystemClass(this.getClass().getClassLoader(), this.jarPath, this.versionId, this.jarMd5, tmpDirPath,
+                this.jarHost, distinguishHost, networkVersionId, jarDeltaEnabled);
+        return new JarPluginInfo(this.versionId, this.jarPath, this.jarHost, this.jarMd5);
     }
 
     private void parseJarPluginInfoResp(String respStr, String cosEndPointSuffix) throws IOException {
@@ -207,22 +373,46 @@ class CHDFSHadoopFileSystemJarLoader {
 
     private static synchronized FileSystem getAlreadyLoadedClassInfo(ClassLoader currentClassLoader, String jarPath,
             String versionId, String jarMd5, String tmpDirPath, String jarHost, boolean distinguishHost,
-            String networkVersionId) throws IOException {
-        if (alreadyLoadedFileSystemInfo != null && alreadyLoadedFileSystemInfo.jarPath.equals(jarPath)
-                && alreadyLoadedFileSystemInfo.versionId.equals(versionId) && alreadyLoadedFileSystemInfo.jarMd5.equals(
-                jarMd5)) {
-            try {
-                return (FileSystem) alreadyLoadedFileSystemInfo.chdfsFSClass.newInstance();
-            } catch (InstantiationException | IllegalAccessException e) {
-                String errMsg = String.format("load chdfs class failed, className: %s",
-                        alreadyLoadedFileSystemInfo.chdfsFSClass.getName());
-                log.error(errMsg, e);
-                throw new IOException(errMsg, e);
-            }
+            String networkVersionId, boolean jarDeltaEnabled) throws IOException {
+        Class<?> chdfsFSClass = loadFileSystemClass(currentClassLoader, jarPath, versionId, jarMd5, tmpDirPath,
+                jarHost, distinguishHost, networkVersionId, jarDeltaEnabled);
+        return newFileSystemInstance(chdfsFSClass);
+    }
+
+    private static FileSystem newFileSystemInstance(Class<?> chdfsFSClass) throws IOException {
+        try {
+            FileSystem instance = (FileSystem) chdfsFSClass.newInstance();
+            PluginClassLoaderTracker.retain(instance);
+            return instance;
+        } catch (InstantiationException | IllegalAccessException e) {
+            String errMsg = String.format("load chdfs class failed, className: %s", chdfsFSClass.getName());
+            log.error(errMsg, e);
+            throw new IOException(errMsg, e);
         }
+    }
 
+    private static synchronized Class<?> loadFileSystemClass(ClassLoader currentClassLoader, String jarPath,
+            String versionId, String jarMd5, String tmpDirPath, String jarHost, boolean distinguishHost,
+            String networkVersionId, boolean jarDeltaEnabled) throws IOException {
+        if (isAlreadyLoaded(jarPath, versionId, jarMd5)) {
+            return alreadyLoadedFileSystemInfo.chdfsFSClass;
+        }
+
+        // protect the jar from cache eviction before it is checked, and keep it protected while this JVM lives
+        JarCacheManager.markInUse(JarCacheManager.getCachedJarFile(tmpDirPath, versionId));
         File jarFile = downloadJarPath(jarPath, versionId, jarMd5, tmpDirPath, jarHost, distinguishHost,
-                networkVersionId);
+                networkVersionId, jarDeltaEnabled);
+        return defineFileSystemClass(currentClassLoader, jarFile, jarPath, versionId, jarMd5);
+    }
+
+    private static boolean isAlreadyLoaded(String jarPath, String versionId, String jarMd5) {
+        return alreadyLoadedFileSystemInfo != null && alreadyLoadedFileSystemInfo.jarPath.equals(jarPath)
+                && alreadyLoadedFileSystemInfo.versionId.equals(versionId) && alreadyLoadedFileSystemInfo.jarMd5.equals(
+                jarMd5);
+    }
+
+    private static synchronized Class<?> defineFileSystemClass(ClassLoader currentClassLoader, File jarFile,
+            String jarPath, String versionId, String jarMd5) throws IOException {
         URL jarUrl;
         try {
             jarUrl = jarFile.toURI().toURL();
@@ -233,28 +423,36 @@ class CHDFSHadoopFileSystemJarLoader {
         }
         URLClassLoader chdfsJarClassLoader = new URLClassLoader(new URL[]{jarUrl}, currentClassLoader);
         final String className = String.format("chdfs.%s.com.qcloud.chdfs.fs.CHDFSHadoopFileSystem", versionId);
+        FlightRecorderEvents.Span classLoadSpan = FlightRecorderEvents.beginBootstrapPhase(
+                FlightRecorderEvents.PHASE_CLASS_LOAD);
         try {
-            Class<?> chdfsFSClass = chdfsJarClassLoader.loadClass(className);
-            FileSystem actualFileSystem = (FileSystem) chdfsFSClass.newInstance();
+            // initialize the class here, a background preload then also covers its static initialization
+            Class<?> chdfsFSClass = Class.forName(className, true, chdfsJarClassLoader);
             alreadyLoadedFileSystemInfo = new AlreadyLoadedFileSystemInfo(versionId, jarPath, jarMd5, chdfsFSClass);
-            return actualFileSystem;
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            // the loader of the previous version is closed once its last instance is gone
+            PluginClassLoaderTracker.register(chdfsJarClassLoader, versionId);
+            return chdfsFSClass;
+        } catch (ClassNotFoundException e) {
+            utils.closeQuietly(chdfsJarClassLoader);
             String errMsg = String.format("load class failed, className: %s", className);
             log.error(errMsg, e);
             throw new IOException(errMsg, e);
+        } finally {
+            classLoadSpan.end(jarFile.getAbsolutePath(), jarFile.length());
         }
     }
 
-    private static File downloadJarPath(String jarPath, String versionId, String jarMd5, String tmpDirPath,
-            String jarHost, boolean distinguishHost, String networkVersionId) throws IOException {
-        File localCacheJarFile = new File(String.format("%s/chdfs_hadoop_plugin-%s-shaded.jar", tmpDirPath, versionId));
+    /**
+     * @param jarDeltaEnabled whether to try rebuilding the jar from a cached one and a delta before the full download
+     */
+    static File downloadJarPath(String jarPath, String versionId, String jarMd5, String tmpDirPath,
+            String jarHost, boolean distinguishHost, String networkVersionId, boolean jarDeltaEnabled)
+            throws IOException {
+        File localCacheJarFile = JarCacheManager.getCachedJarFile(tmpDirPath, versionId);
         File localCacheJarLockFile = new File(
                 String.format("%s/chdfs_hadoop_plugin-%s-shaded.jar.LOCK", tmpDirPath, versionId));
-        if (localCacheJarFile.exists()) {
-            String md5Hex = getFileHexMd5(localCacheJarFile);
-            if (md5Hex.equalsIgnoreCase(jarMd5)) {
-                return localCacheJarFile;
-            }
+        if (localCacheJarFile.exists() && isCachedJarValid(localCacheJarFile, jarMd5)) {
+            return localCacheJarFile;
         }
 
         FileOutputStream fileLockOutPut;
@@ -268,14 +466,27 @@ class CHDFSHadoopFileSystemJarLoader {
         }
 
         FileLock fileLock;
-        while (true) {
-            try {
-                fileLock = fileLockOutPut.getChannel().lock();
-                break;
-            } catch (OverlappingFileLockException ofle) {
+        FlightRecorderEvents.Span lockWaitSpan = FlightRecorderEvents.beginBootstrapPhase(
+                FlightRecorderEvents.PHASE_LOCK_WAIT);
+        try {
+            while (true) {
                 try {
-                    Thread.sleep(10L);
-                } catch (InterruptedException e) {
+                    fileLock = fileLockOutPut.getChannel().lock();
+                    break;
+                } catch (OverlappingFileLockException ofle) {
+                    try {
+                        Thread.sleep(10L);
+                    } catch (InterruptedException e) {
+                        try {
+                            fileLockOutPut.close();
+                        } catch (IOException ignore) {
+                        }
+                        String errMsg = String.format("download jar failed, lock file failed, lockPath: %s",
+                                localCacheJarLockFile.getAbsolutePath());
+                        log.error(errMsg, e);
+                        throw new IOException(errMsg, e);
+                    }
+                } catch (IOException e) {
                     try {
                         fileLockOutPut.close();
                     } catch (IOException ignore) {
@@ -285,16 +496,9 @@ class CHDFSHadoopFileSystemJarLoader {
                     log.error(errMsg, e);
                     throw new IOException(errMsg, e);
                 }
-            } catch (IOException e) {
-                try {
-                    fileLockOutPut.close();
-                } catch (IOException ignore) {
-                }
-                String errMsg = String.format("download jar failed, lock file failed, lockPath: %s",
-                        localCacheJarLockFile.getAbsolutePath());
-                log.error(errMsg, e);
-                throw new IOException(errMsg, e);
             }
+        } finally {
+            lockWaitSpan.end(localCacheJarLockFile.getAbsolutePath(), 0);
         }
 
         BufferedInputStream bis = null;
@@ -302,11 +506,16 @@ class CHDFSHadoopFileSystemJarLoader {
         try {
 
             // judge again may be other process has download the jar
-            if (localCacheJarFile.exists()) {
-                String md5Hex = getFileHexMd5(localCacheJarFile);
-                if (md5Hex.equalsIgnoreCase(jarMd5)) {
-                    return localCacheJarFile;
-                }
+            if (localCacheJarFile.exists() && isCachedJarValid(localCacheJarFile, jarMd5)) {
+                return localCacheJarFile;
+            }
+            FlightRecorderEvents.Span downloadSpan = FlightRecorderEvents.beginBootstrapPhase(
+                    FlightRecorderEvents.PHASE_DOWNLOAD);
+            boolean downloadedByDelta = jarDeltaEnabled && downloadJarByDelta(jarPath, jarMd5, localCacheJarFile,
+                    jarHost, distinguishHost, networkVersionId);
+            if (downloadedByDelta) {
+                downloadSpan.end(jarPath, localCacheJarFile.length());
+                return localCacheJarFile;
             }
             CloseableHttpClient httpclient = null;
             CloseableHttpResponse response = null;
@@ -363,9 +572,17 @@ class CHDFSHadoopFileSystemJarLoader {
                     } catch (IOException ignored) {
                     }
                 }
+                downloadSpan.end(jarPath, localCacheJarFile.length());
             }
 
-            String md5Hex = getFileHexMd5(localCacheJarFile);
+            FlightRecorderEvents.Span verifySpan = FlightRecorderEvents.beginBootstrapPhase(
+                    FlightRecorderEvents.PHASE_VERIFY);
+            String md5Hex;
+            try {
+                md5Hex = getFileHexMd5(localCacheJarFile);
+            } finally {
+                verifySpan.end(localCacheJarFile.getAbsolutePath(), localCacheJarFile.length());
+            }
             if (!md5Hex.equalsIgnoreCase(jarMd5)) {
                 String errMsg = String.format("download jar md5 check failed, local jar md5: %s, query jar md5: %s",
                         md5Hex, jarMd5);
@@ -404,6 +621,110 @@ class CHDFSHadoopFileSystemJarLoader {
         }
     }
 
+    /**
+     * Try to rebuild the jar from the newest other jar of the cache dir and the delta the server offers against it,
+     * at {@code <jarPath>.from-<base jar md5>.delta}.
+     *
+     * @return false if there is no base jar or delta, or the rebuilt jar is invalid, then a full download follows
+     */
+    private static boolean downloadJarByDelta(String jarPath, String jarMd5, File localCacheJarFile, String jarHost,
+            boolean distinguishHost, String networkVersionId) {
+        File baseJarFile = findDeltaBaseJar(localCacheJarFile);
+        if (baseJarFile == null) {
+            return false;
+        }
+        File patchedJarFile = new File(localCacheJarFile.getPath() + ".delta.tmp");
+        CloseableHttpClient httpclient = null;
+        CloseableHttpResponse response = null;
+        HttpGet httpGet = null;
+        try {
+            String deltaPath = String.format("%s.from-%s.delta", jarPath, getFileHexMd5(baseJarFile));
+            httpclient = HttpClients.createDefault();
+            httpGet = new HttpGet(deltaPath);
+            httpGet.setHeader("User-Agent", String.format("chdfs_hadoop-plugin_network-%s", networkVersionId));
+            if (distinguishHost) {
+                httpGet.addHeader("Host", jarHost);
+            }
+            httpGet.setConfig(RequestConfig.custom().setConnectionRequestTimeout(10000).setConnectTimeout(10000)
+                    .setSocketTimeout(30000).build());
+            response = httpclient.execute(httpGet);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                log.debug("no jar delta offered, deltaPath: {}, statusCode: {}", deltaPath,
+                        response.getStatusLine().getStatusCode());
+                return false;
+            }
+
+            InputStream deltaIn = response.getEntity().getContent();
+            try {
+                JarDeltaPatcher.apply(baseJarFile, deltaIn, patchedJarFile);
+            } finally {
+                utils.closeQuietly(deltaIn);
+            }
+            String md5Hex = getFileHexMd5(patchedJarFile);
+            if (!md5Hex.equalsIgnoreCase(jarMd5)) {
+                log.warn("jar rebuilt from delta md5 check failed, deltaPath: {}, local jar md5: {}, query jar md5: {}",
+                        deltaPath, md5Hex, jarMd5);
+                return false;
+            }
+            if (localCacheJarFile.exists() && !localCacheJarFile.delete()) {
+                log.warn("delete invalid cached jar failed, path: {}", localCacheJarFile.getAbsolutePath());
+                return false;
+            }
+            if (!patchedJarFile.renameTo(localCacheJarFile)) {
+                log.warn("rename jar rebuilt from delta failed, path: {}", patchedJarFile.getAbsolutePath());
+                return false;
+            }
+            localCacheJarFile.setReadable(true, false);
+            localCacheJarFile.setWritable(true, false);
+            localCacheJarFile.setExecutable(true, false);
+            log.info("jar rebuilt from delta, baseJar: {}, deltaPath: {}", baseJarFile.getName(), deltaPath);
+            return true;
+        } catch (Exception e) {
+            if (httpGet != null) {
+                httpGet.abort();
+            }
+            log.warn(String.format("rebuild jar from delta failed, fall back to full download, baseJar: %s",
+                    baseJarFile.getAbsolutePath()), e);
+            return false;
+        } finally {
+            utils.closeQuietly(response);
+            utils.closeQuietly(httpclient);
+            if (patchedJarFile.exists() && !patchedJarFile.delete()) {
+                log.warn("delete temporary delta jar failed, path: {}", patchedJarFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return the most recently modified plugin jar of the cache dir other than {@code targetJarFile}, or null
+     */
+    private static File findDeltaBaseJar(File targetJarFile) {
+        File[] cachedJarFiles = targetJarFile.getParentFile().listFiles();
+        if (cachedJarFiles == null) {
+            return null;
+        }
+        File baseJarFile = null;
+        for (File cachedJarFile : cachedJarFiles) {
+            if (!JarCacheManager.isCachedJar(cachedJarFile) || cachedJarFile.equals(targetJarFile)) {
+                continue;
+            }
+            if (baseJarFile == null || cachedJarFile.lastModified() > baseJarFile.lastModified()) {
+                baseJarFile = cachedJarFile;
+            }
+        }
+        return baseJarFile;
+    }
+
+    private static boolean isCachedJarValid(File localCacheJarFile, String jarMd5) throws IOException {
+        FlightRecorderEvents.Span verifySpan = FlightRecorderEvents.beginBootstrapPhase(
+                FlightRecorderEvents.PHASE_VERIFY);
+        try {
+            return getFileHexMd5(localCacheJarFile).equalsIgnoreCase(jarMd5);
+        } finally {
+            verifySpan.end(localCacheJarFile.getAbsolutePath(), localCacheJarFile.length());
+        }
+    }
+
     private static String getFileHexMd5(File inFile) throws IOException {
         FileInputStream in = null;
         try {
@@ -0,0 +1,267 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.CanSetDropBehind;
+import org.apache.hadoop.fs.CanSetReadahead;
+import org.apache.hadoop.fs.CanUnbuffer;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+
+/**
+ * Input stream returned by the adapter when one of its stream features is enabled. It wraps the stream of the
+ * impl filesystem and keeps the optional capabilities of it available to the caller.
+ */
+class CHDFSInputStream extends FSInputStream implements CanSetDropBehind, CanSetReadahead, CanUnbuffer {
+    // the idle streams kept for the hedged positional reads, more are opened while reads overlap
+    private static final int MAX_IDLE_HEDGE_STREAMS = 4;
+
+    interface CloseListener {
+        void onClose(Path path, long bytesRead);
+    }
+
+    protected final FSDataInputStream in;
+    private final Path path;
+    private final CloseListener closeListener;
+    private final HedgedReadCoordinator hedgedReadCoordinator;
+    private final HedgeStreamPool hedgeStreams;
+    private final InputStreamStatistics statistics;
+    private long bytesRead = 0;
+    private volatile boolean closed = false;
+
+    CHDFSInputStream(FSDataInputStream in, Path path, CloseListener closeListener,
+            HedgedReadCoordinator hedgedReadCoordinator, Callable<FSDataInputStream> hedgeStreamOpener,
+            InputStreamStatistics statistics) {
+        this.in = in;
+        this.path = path;
+        this.closeListener = closeListener;
+        this.hedgedReadCoordinator = hedgedReadCoordinator;
+        this.hedgeStreams = hedgedReadCoordinator != null ? new HedgeStreamPool(hedgeStreamOpener) : null;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Wrap {@code in}, implementing {@link ByteBufferReadable} only if the impl stream does.
+     *
+     * @param closeListener         notified of the bytes read at close, may be null
+     * @param hedgedReadCoordinator hedges the positional reads if not null, on streams from {@code hedgeStreamOpener}
+     * @param statistics            records the reads and seeks and is closed with the stream, may be null
+     */
+    static FSDataInputStream wrap(FSDataInputStream in, Path path, CloseListener closeListener,
+            HedgedReadCoordinator hedgedReadCoordinator, Callable<FSDataInputStream> hedgeStreamOpener,
+            InputStreamStatistics statistics) throws IOException {
+        if (in.getWrappedStream() instanceof ByteBufferReadable) {
+            return new FSDataInputStream(new ByteBufferReadableCHDFSInputStream(in, path, closeListener,
+                    hedgedReadCoordinator, hedgeStreamOpener, statistics));
+        }
+        return new FSDataInputStream(new CHDFSInputStream(in, path, closeListener, hedgedReadCoordinator,
+                hedgeStreamOpener, statistics));
+    }
+
+    @Override
+    public int read() throws IOException {
+        long startNanos = readStartNanos();
+        int b = in.read();
+        recordRead(b == -1 ? -1 : 1, startNanos, false);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long startNanos = readStartNanos();
+        int readLen = in.read(b, off, len);
+        recordRead(readLen, startNanos, false);
+        return readLen;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        long startNanos = readStartNanos();
+        int readLen;
+        if (hedgedReadCoordinator != null && length > 0) {
+            readLen = hedgedReadCoordinator.read(in, hedgeStreams, position, buffer, offset, length, false);
+        } else {
+            readLen = in.read(position, buffer, offset, length);
+        }
+        recordRead(readLen, startNanos, true);
+        return readLen;
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+        long startNanos = readStartNanos();
+        if (hedgedReadCoordinator != null && length > 0) {
+            hedgedReadCoordinator.read(in, hedgeStreams, position, buffer, offset, length, true);
+        } else {
+            in.readFully(position, buffer, offset, length);
+        }
+        recordRead(length, startNanos, true);
+    }
+
+    /**
+     * The other streams of the same file the hedged positional reads go to, opened on demand.
+     */
+    private class HedgeStreamPool implements HedgedReadCoordinator.StreamPool {
+        private final Callable<FSDataInputStream> opener;
+        private final Deque<FSDataInputStream> idleStreams = new ArrayDeque<>();
+
+        private HedgeStreamPool(Callable<FSDataInputStream> opener) {
+            this.opener = opener;
+        }
+
+        @Override
+        public FSDataInputStream borrow() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("the stream is already closed");
+                }
+                FSDataInputStream stream = idleStreams.pollFirst();
+                if (stream != null) {
+                    return stream;
+                }
+            }
+            try {
+                return opener.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void giveBack(FSDataInputStream stream) {
+            synchronized (this) {
+                if (!closed && idleStreams.size() < MAX_IDLE_HEDGE_STREAMS) {
+                    idleStreams.addFirst(stream);
+                    return;
+                }
+            }
+            utils.closeQuietly(stream);
+        }
+
+        @Override
+        public void discard(FSDataInputStream stream) {
+            utils.closeQuietly(stream);
+        }
+
+        private synchronized void close() {
+            for (FSDataInputStream stream : idleStreams) {
+                utils.closeQuietly(stream);
+            }
+            idleStreams.clear();
+        }
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (statistics == null) {
+            in.seek(pos);
+            return;
+        }
+        long fromPos = in.getPos();
+        in.seek(pos);
+        statistics.recordSeek(fromPos, pos);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return in.getPos();
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) throws IOException {
+        return in.seekToNewSource(targetPos);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (statistics == null) {
+            return in.skip(n);
+        }
+        long fromPos = in.getPos();
+        long skipped = in.skip(n);
+        statistics.recordSeek(fromPos, fromPos + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public void setDropBehind(Boolean dropCache) throws IOException, UnsupportedOperationException {
+        in.setDropBehind(dropCache);
+    }
+
+    @Override
+    public void setReadahead(Long readahead) throws IOException, UnsupportedOperationException {
+        in.setReadahead(readahead);
+    }
+
+    @Override
+    public void unbuffer() {
+        in.unbuffer();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            in.close();
+            if (hedgeStreams != null) {
+                hedgeStreams.close();
+            }
+        } finally {
+            if (closeListener != null) {
+                closeListener.onClose(path, bytesRead);
+            }
+            if (statistics != null) {
+                statistics.close();
+            }
+        }
+    }
+
+    protected long readStartNanos() {
+        return statistics != null ? System.nanoTime() : 0;
+    }
+
+    protected void recordRead(long readLen, long startNanos, boolean positional) {
+        if (readLen > 0) {
+            incrementBytesRead(readLen);
+        }
+        if (statistics != null) {
+            statistics.recordRead(readLen, startNanos, positional);
+        }
+    }
+
+    private synchronized void incrementBytesRead(long readLen) {
+        bytesRead += readLen;
+    }
+
+    private static class ByteBufferReadableCHDFSInputStream extends CHDFSInputStream implements ByteBufferReadable {
+        ByteBufferReadableCHDFSInputStream(FSDataInputStream in, Path path, CloseListener closeListener,
+                HedgedReadCoordinator hedgedReadCoordinator, Callable<FSDataInputStream> hedgeStreamOpener,
+                InputStreamStatistics statistics) {
+            super(in, path, closeListener, hedgedReadCoordinator, hedgeStreamOpener, statistics);
+        }
+
+        @Override
+        public int read(ByteBuffer buf) throws IOException {
+            long startNanos = readStartNanos();
+            int readLen = in.read(buf);
+            recordRead(readLen, startNanos, false);
+            return readLen;
+        }
+    }
+}
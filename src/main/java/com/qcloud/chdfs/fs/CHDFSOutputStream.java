@@ -0,0 +1,44 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Output stream returned by the adapter when one of its stream features is enabled. hflush and hsync reach the
+ * impl stream, since the wrapped {@link FSDataOutputStream} is itself Syncable.
+ */
+class CHDFSOutputStream extends FSDataOutputStream {
+    interface CloseListener {
+        void onClose(Path path, long bytesWritten);
+    }
+
+    private final Path path;
+    private final long startPosition;
+    private final CloseListener closeListener;
+    private boolean closed = false;
+
+    CHDFSOutputStream(FSDataOutputStream out, Path path, CloseListener closeListener) throws IOException {
+        // keep the position of appends, which start at the old end of the file
+        super(out, null, out.getPos());
+        this.path = path;
+        this.startPosition = out.getPos();
+        this.closeListener = closeListener;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            if (closeListener != null) {
+                closeListener.onClose(path, getPos() - startPosition);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.GlobalStorageStatistics;
+import org.apache.hadoop.fs.StorageStatistics;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read statistics of all the input streams of this process, published as the {@link #NAME} storage statistics.
+ * Every stream keeps its own counters and merges them in here at close, so reads never touch these counters.
+ */
+class CHDFSStreamStatistics extends StorageStatistics {
+    static final String NAME = "CHDFSStreamStatistics";
+
+    enum Statistic {
+        STREAM_CLOSED("stream_closed"),
+        STREAM_OPEN_DURATION_MS("stream_open_duration_ms"),
+        STREAM_READ_BYTES("stream_read_bytes"),
+        STREAM_READ_OPERATIONS("stream_read_operations"),
+        STREAM_POSITIONAL_READ_OPERATIONS("stream_positional_read_operations"),
+        STREAM_READ_TIME_MS("stream_read_time_ms"),
+        STREAM_SEEK_FORWARD_OPERATIONS("stream_seek_forward_operations"),
+        STREAM_SEEK_FORWARD_BYTES("stream_seek_forward_bytes"),
+        STREAM_SEEK_BACKWARD_OPERATIONS("stream_seek_backward_operations"),
+        STREAM_SEEK_BACKWARD_BYTES("stream_seek_backward_bytes"),
+        STREAM_READ_SIZE_LE_1K("stream_read_size_le_1k"),
+        STREAM_READ_SIZE_LE_8K("stream_read_size_le_8k"),
+        STREAM_READ_SIZE_LE_64K("stream_read_size_le_64k"),
+        STREAM_READ_SIZE_LE_512K("stream_read_size_le_512k"),
+        STREAM_READ_SIZE_LE_4M("stream_read_size_le_4m"),
+        STREAM_READ_SIZE_GT_4M("stream_read_size_gt_4m");
+
+        private final String symbol;
+
+        Statistic(String symbol) {
+            this.symbol = symbol;
+        }
+
+        String getSymbol() {
+            return symbol;
+        }
+    }
+
+    /**
+     * The upper bounds of the read size buckets, each maps to the histogram statistic of the same index.
+     */
+    static final long[] READ_SIZE_BUCKET_BOUNDS = {1024, 8 * 1024, 64 * 1024, 512 * 1024, 4 * 1024 * 1024};
+    private static final Statistic[] READ_SIZE_BUCKETS = {Statistic.STREAM_READ_SIZE_LE_1K,
+            Statistic.STREAM_READ_SIZE_LE_8K, Statistic.STREAM_READ_SIZE_LE_64K, Statistic.STREAM_READ_SIZE_LE_512K,
+            Statistic.STREAM_READ_SIZE_LE_4M, Statistic.STREAM_READ_SIZE_GT_4M};
+
+    private final AtomicLongArray values = new AtomicLongArray(Statistic.values().length);
+
+    private CHDFSStreamStatistics() {
+        super(NAME);
+    }
+
+    /**
+     * @return the instance of this process, registered in the global storage statistics on first use
+     */
+    static CHDFSStreamStatistics get() {
+        StorageStatistics registered = GlobalStorageStatistics.INSTANCE.put(NAME,
+                new GlobalStorageStatistics.StorageStatisticsProvider() {
+                    @Override
+                    public StorageStatistics provide() {
+                        return new CHDFSStreamStatistics();
+                    }
+                });
+        if (registered instanceof CHDFSStreamStatistics) {
+            return (CHDFSStreamStatistics) registered;
+        }
+        // registered by a copy of this class from another class loader
+        return new CHDFSStreamStatistics();
+    }
+
+    static Statistic getReadSizeBucket(int bucketIndex) {
+        return READ_SIZE_BUCKETS[bucketIndex];
+    }
+
+    void add(Statistic statistic, long delta) {
+        if (delta != 0) {
+            values.addAndGet(statistic.ordinal(), delta);
+        }
+    }
+
+    @Override
+    public Iterator<LongStatistic> getLongStatistics() {
+        return new Iterator<LongStatistic>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < Statistic.values().length;
+            }
+
+            @Override
+            public LongStatistic next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Statistic statistic = Statistic.values()[index++];
+                return new LongStatistic(statistic.getSymbol(), values.get(statistic.ordinal()));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public Long getLong(String key) {
+        for (Statistic statistic : Statistic.values()) {
+            if (statistic.getSymbol().equals(key)) {
+                return values.get(statistic.ordinal());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isTracked(String key) {
+        return getLong(key) != null;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < values.length(); i++) {
+            values.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A read-only listing held column by column: the entries keep only their name, numbers and permission bits, the
+ * parent paths, owners and groups are held once in palettes and referenced by index. {@link #get(int)} builds a
+ * new {@link FileStatus}, with a new {@link FsPermission}, on every call, so a caller which keeps the list instead
+ * of the statuses holds a fraction of the heap of a {@code FileStatus[]}.
+ *
+ * <p>The subclass of a status is not kept, neither are the paths which do not rebuild from their parent and name
+ * and the permissions which do not rebuild from their bits, like the ACL bit extension, those are kept whole.
+ */
+class CompactFileStatusList extends AbstractList<FileStatus> implements RandomAccess {
+    private static final byte DIRECTORY_FLAG = 1;
+    private static final byte SYMLINK_FLAG = 2;
+
+    private final int size;
+    private final String[] names;
+    private final int[] parentIndexes;
+    private final long[] lengths;
+    private final long[] blockSizes;
+    private final long[] modificationTimes;
+    private final long[] accessTimes;
+    private final short[] replications;
+    private final byte[] flags;
+    private final short[] permissions;
+    private final int[] ownerIndexes;
+    private final int[] groupIndexes;
+    private final Path[] parentPalette;
+    private final String[] userPalette;
+    // sparse, by entry index
+    private final Map<Integer, Path> wholePaths;
+    private final Map<Integer, FsPermission> wholePermissions;
+    private final Map<Integer, Path> symlinks;
+
+    private CompactFileStatusList(Builder builder) {
+        this.size = builder.size;
+        this.names = Arrays.copyOf(builder.names, size);
+        this.parentIndexes = Arrays.copyOf(builder.parentIndexes, size);
+        this.lengths = Arrays.copyOf(builder.lengths, size);
+        this.blockSizes = Arrays.copyOf(builder.blockSizes, size);
+        this.modificationTimes = Arrays.copyOf(builder.modificationTimes, size);
+        this.accessTimes = Arrays.copyOf(builder.accessTimes, size);
+        this.replications = Arrays.copyOf(builder.replications, size);
+        this.flags = Arrays.copyOf(builder.flags, size);
+        this.permissions = Arrays.copyOf(builder.permissions, size);
+        this.ownerIndexes = Arrays.copyOf(builder.ownerIndexes, size);
+        this.groupIndexes = Arrays.copyOf(builder.groupIndexes, size);
+        this.parentPalette = builder.parentPalette.toArray(new Path[builder.parentPalette.size()]);
+        this.userPalette = builder.userPalette.toArray(new String[builder.userPalette.size()]);
+        this.wholePaths = builder.wholePaths;
+        this.wholePermissions = builder.wholePermissions;
+        this.symlinks = builder.symlinks;
+    }
+
+    @Override
+    public FileStatus get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index: %d, size: %d", index, size));
+        }
+        Path path = wholePaths.isEmpty() ? null : wholePaths.get(index);
+        if (path == null) {
+            path = new Path(parentPalette[parentIndexes[index]], names[index]);
+        }
+        FsPermission permission;
+        if (!wholePermissions.isEmpty() && wholePermissions.containsKey(index)) {
+            permission = wholePermissions.get(index);
+        } else {
+            permission = new FsPermission(permissions[index]);
+        }
+        return new FileStatus(lengths[index], (flags[index] & DIRECTORY_FLAG) != 0, replications[index],
+                blockSizes[index], modificationTimes[index], accessTimes[index], permission,
+                userPalette[ownerIndexes[index]],
+                userPalette[groupIndexes[index]], (flags[index] & SYMLINK_FLAG) != 0 ? symlinks.get(index) : null,
+                path);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    static class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int size = 0;
+        private String[] names = new String[INITIAL_CAPACITY];
+        private int[] parentIndexes = new int[INITIAL_CAPACITY];
+        private long[] lengths = new long[INITIAL_CAPACITY];
+        private long[] blockSizes = new long[INITIAL_CAPACITY];
+        private long[] modificationTimes = new long[INITIAL_CAPACITY];
+        private long[] accessTimes = new long[INITIAL_CAPACITY];
+        private short[] replications = new short[INITIAL_CAPACITY];
+        private byte[] flags = new byte[INITIAL_CAPACITY];
+        private short[] permissions = new short[INITIAL_CAPACITY];
+        private int[] ownerIndexes = new int[INITIAL_CAPACITY];
+        private int[] groupIndexes = new int[INITIAL_CAPACITY];
+        private final List<Path> parentPalette = new ArrayList<>();
+        private final List<String> userPalette = new ArrayList<>();
+        private final Map<Path, Integer> parentIndexByPath = new HashMap<>();
+        private final Map<String, Integer> userIndexByName = new HashMap<>();
+        private final Map<Integer, Path> wholePaths = new HashMap<>();
+        private final Map<Integer, FsPermission> wholePermissions = new HashMap<>();
+        private final Map<Integer, Path> symlinks = new HashMap<>();
+
+        Builder add(FileStatus status) throws IOException {
+            if (size == names.length) {
+                grow();
+            }
+            Path path = status.getPath();
+            Path parent = path.getParent();
+            String name = path.getName();
+            // a name with a colon parses as a scheme when rebuilt from the parent
+            if (parent == null || name.indexOf(':') >= 0) {
+                wholePaths.put(size, path);
+            } else {
+                names[size] = name;
+                parentIndexes[size] = indexOf(parentIndexByPath, parentPalette, parent);
+            }
+            lengths[size] = status.getLen();
+            blockSizes[size] = status.getBlockSize();
+            modificationTimes[size] = status.getModificationTime();
+            accessTimes[size] = status.getAccessTime();
+            replications[size] = status.getReplication();
+            byte entryFlags = status.isDirectory() ? DIRECTORY_FLAG : 0;
+            if (status.isSymlink()) {
+                entryFlags |= SYMLINK_FLAG;
+                symlinks.put(size, status.getSymlink());
+            }
+            flags[size] = entryFlags;
+            FsPermission permission = status.getPermission();
+            if (permission != null && permission.getClass() == FsPermission.class) {
+                permissions[size] = permission.toShort();
+            } else {
+                // an extension like the ACL bit does not rebuild from the bits
+                wholePermissions.put(size, permission);
+            }
+            ownerIndexes[size] = indexOf(userIndexByName, userPalette, status.getOwner());
+            groupIndexes[size] = indexOf(userIndexByName, userPalette, status.getGroup());
+            size++;
+            return this;
+        }
+
+        CompactFileStatusList build() {
+            return new CompactFileStatusList(this);
+        }
+
+        private static <T> int indexOf(Map<T, Integer> indexByValue, List<T> palette, T value) {
+            Integer index = indexByValue.get(value);
+            if (index == null) {
+                index = palette.size();
+                palette.add(value);
+                indexByValue.put(value, index);
+            }
+            return index;
+        }
+
+        private void grow() {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            parentIndexes = Arrays.copyOf(parentIndexes, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            blockSizes = Arrays.copyOf(blockSizes, capacity);
+            modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+            accessTimes = Arrays.copyOf(accessTimes, capacity);
+            replications = Arrays.copyOf(replications, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            permissions = Arrays.copyOf(permissions, capacity);
+            ownerIndexes = Arrays.copyOf(ownerIndexes, capacity);
+            groupIndexes = Arrays.copyOf(groupIndexes, capacity);
+        }
+    }
+}
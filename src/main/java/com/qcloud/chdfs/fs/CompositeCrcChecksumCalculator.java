@@ -0,0 +1,155 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes a {@link CompositeCrcFileChecksum} on the client by reading the file in parallel ranges. The CRC32C
+ * of every range is combined with the ranges after it using the CRC polynomial arithmetic, so the result is
+ * the same as a serial CRC32C of the whole content.
+ */
+class CompositeCrcChecksumCalculator {
+    private static final Logger log = LoggerFactory.getLogger(CompositeCrcChecksumCalculator.class);
+
+    // CRC32C polynomial in reflected bit order, the highest bit holds the coefficient of x^0
+    private static final int CRC32C_POLYNOMIAL = 0x82F63B78;
+    private static final int MULTIPLICATIVE_IDENTITY = 0x80000000;
+    private static final int X_POW_8 = 0x00800000;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileSystem fs;
+    private final BoundedOperationExecutor executor;
+    private final long rangeSize;
+    private final int parallelism;
+    private final Map<String, CompositeCrcFileChecksum> checksumCache;
+
+    CompositeCrcChecksumCalculator(FileSystem fs, BoundedOperationExecutor executor, long rangeSize,
+            int parallelism, final int maxCacheEntries) {
+        this.fs = fs;
+        this.executor = executor;
+        this.rangeSize = Math.max(READ_BUFFER_SIZE, rangeSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.checksumCache = new LinkedHashMap<String, CompositeCrcFileChecksum>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompositeCrcFileChecksum> eldest) {
+                return size() > maxCacheEntries;
+            }
+        };
+    }
+
+    CompositeCrcFileChecksum getFileChecksum(FileStatus fileStatus, long length) throws IOException {
+        final Path path = fileStatus.getPath();
+        long checksumLength = Math.min(Math.max(0, length), fileStatus.getLen());
+        String cacheKey = String.format("%s|%d|%d", path, checksumLength, fileStatus.getModificationTime());
+        synchronized (checksumCache) {
+            CompositeCrcFileChecksum cached = checksumCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long startMs = System.currentTimeMillis();
+        int rangeCount = (int) ((checksumLength + rangeSize - 1) / rangeSize);
+        final int[] rangeCrcs = new int[rangeCount];
+        final long[] rangeLengths = new long[rangeCount];
+        List<Callable<Void>> tasks = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            final int rangeIndex = i;
+            final long rangeStart = i * rangeSize;
+            rangeLengths[i] = Math.min(rangeSize, checksumLength - rangeStart);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    rangeCrcs[rangeIndex] = computeRangeCrc(path, rangeStart, rangeLengths[rangeIndex]);
+                    return null;
+                }
+            });
+        }
+        executor.runAll(tasks, parallelism);
+
+        // CRC32C of the empty content
+        int crc = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            crc = composeCrc(crc, rangeCrcs[i], rangeLengths[i]);
+        }
+        CompositeCrcFileChecksum checksum = new CompositeCrcFileChecksum(crc);
+        log.debug("compute composite crc, path: {}, length: {}, ranges: {}, usedMs: {}", path, checksumLength,
+                rangeCount, System.currentTimeMillis() - startMs);
+
+        synchronized (checksumCache) {
+            checksumCache.put(cacheKey, checksum);
+        }
+        return checksum;
+    }
+
+    private int computeRangeCrc(Path path, long rangeStart, long rangeLength) throws IOException {
+        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        byte[] buffer = new byte[(int) Math.min(READ_BUFFER_SIZE, rangeLength)];
+        FSDataInputStream in = fs.open(path);
+        try {
+            long readLength = 0;
+            while (readLength < rangeLength) {
+                int toRead = (int) Math.min(buffer.length, rangeLength - readLength);
+                in.readFully(rangeStart + readLength, buffer, 0, toRead);
+                crc32c.update(buffer, 0, toRead);
+                readLength += toRead;
+            }
+        } finally {
+            utils.closeQuietly(in);
+        }
+        return (int) crc32c.getValue();
+    }
+
+    /**
+     * @return the CRC of the concatenation of A and B, given the CRC of both and the length of B
+     */
+    static int composeCrc(int crcA, int crcB, long lengthB) {
+        return galoisFieldMultiply(crcA, getMonomial(lengthB)) ^ crcB;
+    }
+
+    /**
+     * @return x^(8 * lengthBytes) mod the CRC32C polynomial
+     */
+    private static int getMonomial(long lengthBytes) {
+        int product = MULTIPLICATIVE_IDENTITY;
+        int multiplier = X_POW_8;
+        while (lengthBytes > 0) {
+            if ((lengthBytes & 1) != 0) {
+                product = galoisFieldMultiply(product, multiplier);
+            }
+            multiplier = galoisFieldMultiply(multiplier, multiplier);
+            lengthBytes >>= 1;
+        }
+        return product;
+    }
+
+    private static int galoisFieldMultiply(int p, int q) {
+        int summation = 0;
+        int curTerm = MULTIPLICATIVE_IDENTITY;
+        int px = p;
+        while (curTerm != 0) {
+            if ((q & curTerm) != 0) {
+                summation ^= px;
+            }
+            boolean hasMaxDegree = (px & 1) != 0;
+            px >>>= 1;
+            if (hasMaxDegree) {
+                px ^= CRC32C_POLYNOMIAL;
+            }
+            curTerm >>>= 1;
+        }
+        return summation;
+    }
+}
@@ -0,0 +1,55 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileChecksum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * CRC32C of the whole file content, comparable with the COMPOSITE-CRC32C checksum HDFS returns when
+ * dfs.checksum.combine.mode is COMPOSITE_CRC, whatever the block and chunk layout of either side.
+ */
+public class CompositeCrcFileChecksum extends FileChecksum {
+    public static final String ALGORITHM_NAME = "COMPOSITE-CRC32C";
+    private static final int CRC_BYTES_LENGTH = 4;
+
+    private int crc;
+
+    public CompositeCrcFileChecksum() {
+    }
+
+    public CompositeCrcFileChecksum(int crc) {
+        this.crc = crc;
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return ALGORITHM_NAME;
+    }
+
+    @Override
+    public int getLength() {
+        return CRC_BYTES_LENGTH;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc};
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(crc);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        crc = in.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:0x%08x", ALGORITHM_NAME, crc);
+    }
+}
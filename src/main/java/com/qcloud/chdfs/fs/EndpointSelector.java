@@ -0,0 +1,140 @@
+package com.qcloud.chdfs.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Picks the endpoint of a mount point among several candidates, e.g. the inner, dual stack and public ones, by
+ * probing the connect latency of each in parallel. The choice is shared per candidate set in this process, and
+ * is probed again after the probe interval, or after a file system failed to initialize against it.
+ *
+ * <p>Only file systems initialized later see a new choice: an initialized one keeps its endpoint, a failure after
+ * initialize is not reported here.
+ */
+class EndpointSelector {
+    private static final Logger log = LoggerFactory.getLogger(EndpointSelector.class);
+
+    private static final ExecutorService probeExecutor =
+            Executors.newCachedThreadPool(utils.newDaemonThreadFactory("chdfs-endpoint-probe"));
+    private static final ConcurrentMap<String, EndpointSelector> selectors = new ConcurrentHashMap<>();
+
+    private final List<String> candidateHosts;
+    private final int port;
+    private final int probeTimeoutMs;
+    private final long probeIntervalMs;
+
+    private String selectedHost = null;
+    private long selectedMs = 0;
+
+    private EndpointSelector(List<String> candidateHosts, int port, int probeTimeoutMs, long probeIntervalMs) {
+        this.candidateHosts = candidateHosts;
+        this.port = port;
+        this.probeTimeoutMs = probeTimeoutMs;
+        this.probeIntervalMs = probeIntervalMs;
+    }
+
+    static EndpointSelector getOrCreate(List<String> candidateHosts, int port, int probeTimeoutMs,
+            long probeIntervalMs) {
+        String selectorKey = String.format("%s:%d", candidateHosts, port);
+        EndpointSelector selector = selectors.get(selectorKey);
+        if (selector == null) {
+            EndpointSelector newSelector = new EndpointSelector(new ArrayList<>(candidateHosts), port,
+                    probeTimeoutMs, probeIntervalMs);
+            selector = selectors.putIfAbsent(selectorKey, newSelector);
+            if (selector == null) {
+                selector = newSelector;
+            }
+        }
+        return selector;
+    }
+
+    /**
+     * @return the reachable candidate with the lowest connect latency, or the first candidate if none is
+     * reachable, so that the caller fails the way it would without candidates
+     */
+    synchronized String select() {
+        long nowMs = System.currentTimeMillis();
+        if (selectedHost == null || nowMs - selectedMs > probeIntervalMs) {
+            selectedHost = probe();
+            selectedMs = nowMs;
+        }
+        return selectedHost;
+    }
+
+    /**
+     * Drop the choice if it is {@code host}, so that the next {@link #select()} probes again.
+     */
+    synchronized void reportFailure(String host) {
+        if (host.equals(selectedHost)) {
+            log.warn("endpoint {} failed, probe the candidates again on next use", host);
+            selectedHost = null;
+        }
+    }
+
+    private String probe() {
+        List<Future<Long>> probes = new ArrayList<>(candidateHosts.size());
+        for (final String host : candidateHosts) {
+            probes.add(probeExecutor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    return probeConnectNanos(host);
+                }
+            }));
+        }
+
+        String bestHost = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < candidateHosts.size(); i++) {
+            String host = candidateHosts.get(i);
+            try {
+                long connectNanos = probes.get(i).get();
+                log.debug("probe endpoint {}:{}, connectUs: {}", host, port, connectNanos / 1000);
+                if (connectNanos < bestNanos) {
+                    bestHost = host;
+                    bestNanos = connectNanos;
+                }
+            } catch (ExecutionException e) {
+                log.info("probe endpoint {}:{} failed: {}", host, port, e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (bestHost == null) {
+            log.warn("no endpoint of {} is reachable on port {}, use {}", candidateHosts, port,
+                    candidateHosts.get(0));
+            return candidateHosts.get(0);
+        }
+        log.info("select endpoint {} from {}, connectUs: {}", bestHost, candidateHosts, bestNanos / 1000);
+        return bestHost;
+    }
+
+    private long probeConnectNanos(String host) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("unknown host " + host);
+        }
+        Socket socket = new Socket();
+        try {
+            long startNanos = System.nanoTime();
+            socket.connect(address, probeTimeoutMs);
+            return System.nanoTime() - startNanos;
+        } finally {
+            utils.closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.util.StringInterner;
+
+import java.io.IOException;
+
+/**
+ * Makes the statuses of a listing share their owner and group strings, which barely vary across a directory but
+ * are otherwise held once per status. Only statuses of exactly {@link FileStatus} are rebuilt, a subclass of the
+ * implementation may carry more than the copy would keep.
+ *
+ * <p>The permissions are not shared, an {@link org.apache.hadoop.fs.permission.FsPermission} is mutable through
+ * its deserialization methods, so every status keeps its own. Neither are the paths, a {@link FileStatus} holds
+ * its whole path, only {@link CompactFileStatusList} shares the parents.
+ */
+class FileStatusInterner {
+    private FileStatusInterner() {
+    }
+
+    static String intern(String value) {
+        return value == null ? null : StringInterner.weakIntern(value);
+    }
+
+    static FileStatus intern(FileStatus status) throws IOException {
+        if (status == null || status.getClass() != FileStatus.class) {
+            return status;
+        }
+        return new FileStatus(status.getLen(), status.isDirectory(), status.getReplication(), status.getBlockSize(),
+                status.getModificationTime(), status.getAccessTime(), status.getPermission(),
+                intern(status.getOwner()), intern(status.getGroup()),
+                status.isSymlink() ? status.getSymlink() : null, status.getPath());
+    }
+
+    static FileStatus[] intern(FileStatus[] statuses) throws IOException {
+        if (statuses == null) {
+            return null;
+        }
+        // the array may be held by the implementation, fill a copy
+        FileStatus[] result = new FileStatus[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            result[i] = intern(statuses[i]);
+        }
+        return result;
+    }
+}
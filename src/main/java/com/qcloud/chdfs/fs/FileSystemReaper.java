@@ -0,0 +1,84 @@
+package com.qcloud.chdfs.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Closes a resource once its owner is garbage collected, for owners without an explicit close in their API.
+ * Unlike {@code finalize()}, the owner is reclaimed in a single GC cycle and the close runs on a dedicated daemon
+ * thread instead of the shared finalizer thread.
+ */
+class FileSystemReaper {
+    private static final Logger log = LoggerFactory.getLogger(FileSystemReaper.class);
+    private static final ReferenceQueue<Object> reapQueue = new ReferenceQueue<>();
+    // keeps the phantom references reachable until their owner is collected or they are closed explicitly
+    private static final Set<Cleanup> pendingCleanups =
+            Collections.newSetFromMap(new ConcurrentHashMap<Cleanup, Boolean>());
+    private static final AtomicBoolean reaperStarted = new AtomicBoolean(false);
+
+    /**
+     * Closes the resource of one owner, at most once.
+     */
+    static class Cleanup extends PhantomReference<Object> {
+        private final Closeable resource;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Cleanup(Object owner, Closeable resource) {
+            super(owner, reapQueue);
+            this.resource = resource;
+        }
+
+        void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                pendingCleanups.remove(this);
+                resource.close();
+            }
+        }
+    }
+
+    private FileSystemReaper() {
+    }
+
+    /**
+     * Close {@code resource} once {@code owner} is unreachable, unless the returned cleanup is closed before. The
+     * resource must not reference the owner, or the owner never becomes unreachable.
+     */
+    static Cleanup register(Object owner, Closeable resource) {
+        startReaperIfAbsent();
+        Cleanup cleanup = new Cleanup(owner, resource);
+        pendingCleanups.add(cleanup);
+        return cleanup;
+    }
+
+    private static void startReaperIfAbsent() {
+        if (!reaperStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread reaper = utils.newDaemonThreadFactory("chdfs-fs-reaper").newThread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Cleanup cleanup = (Cleanup) reapQueue.remove();
+                        cleanup.close();
+                    } catch (InterruptedException e) {
+                        log.warn("filesystem reaper interrupted, stop reaping");
+                        return;
+                    } catch (Throwable t) {
+                        log.warn("close the filesystem of a collected owner failed", t);
+                    }
+                }
+            }
+        });
+        reaper.start();
+    }
+}
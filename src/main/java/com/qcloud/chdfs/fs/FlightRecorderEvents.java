@@ -0,0 +1,205 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events of the bootstrap phases and of the operations delegated to the implementation. The
+ * event types are defined at runtime through {@code jdk.jfr.EventFactory}, so the plugin still builds for and runs
+ * on JVMs without JFR, where every span is a no-op. The events are off until {@link #enable()}, and a disabled span
+ * costs a single volatile read.
+ *
+ * <p>Both event types have the fields {@code name} (the phase or operation), {@code path} (the jar or file path)
+ * and {@code bytes}, the duration is the one of the JFR event. The {@link #OPERATION_READ} and
+ * {@link #OPERATION_WRITE} operations span a stream from its open to its close, with the bytes it transferred.
+ */
+class FlightRecorderEvents {
+    private static final Logger log = LoggerFactory.getLogger(FlightRecorderEvents.class);
+
+    static final String BOOTSTRAP_EVENT_NAME = "com.qcloud.chdfs.BootstrapPhase";
+    static final String OPERATION_EVENT_NAME = "com.qcloud.chdfs.Operation";
+
+    static final String PHASE_QUERY = "query";
+    static final String PHASE_LOCK_WAIT = "lockWait";
+    static final String PHASE_DOWNLOAD = "download";
+    static final String PHASE_VERIFY = "verify";
+    static final String PHASE_CLASS_LOAD = "classLoad";
+    static final String PHASE_IMPL_INIT = "implInit";
+
+    static final String OPERATION_READ = "read";
+    static final String OPERATION_WRITE = "write";
+
+    private static final int NAME_FIELD_INDEX = 0;
+    private static final int PATH_FIELD_INDEX = 1;
+    private static final int BYTES_FIELD_INDEX = 2;
+
+    private static volatile EventType bootstrapEventType = null;
+    private static volatile EventType operationEventType = null;
+    private static boolean enableAttempted = false;
+
+    /**
+     * One event in progress, {@link #end(String, long)} commits it.
+     */
+    static class Span {
+        private static final Span NOOP = new Span(null, null, null);
+
+        private final EventType eventType;
+        private final Object event;
+        private final String name;
+
+        private Span(EventType eventType, Object event, String name) {
+            this.eventType = eventType;
+            this.event = event;
+            this.name = name;
+        }
+
+        /**
+         * @return false for a no-op span, which a caller may skip tracking
+         */
+        boolean isRecording() {
+            return event != null;
+        }
+
+        void end(String path, long bytes) {
+            if (event != null) {
+                eventType.commit(event, name, path, bytes);
+            }
+        }
+
+        void end(Path path, long bytes) {
+            if (event != null) {
+                eventType.commit(event, name, path == null ? null : path.toString(), bytes);
+            }
+        }
+    }
+
+    /**
+     * A JFR event type defined through reflection, with the methods of {@code jdk.jfr.Event} it calls.
+     */
+    private static class EventType {
+        private final Object eventFactory;
+        private final Method newEventMethod;
+        private final Method isEnabledMethod;
+        private final Method beginMethod;
+        private final Method endMethod;
+        private final Method shouldCommitMethod;
+        private final Method commitMethod;
+        private final Method setMethod;
+
+        private EventType(String eventName, String label, String description) throws Exception {
+            ClassLoader classLoader = ClassLoader.getSystemClassLoader();
+            Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement", false, classLoader);
+            Constructor<?> annotationElementConstructor = annotationElementClass.getConstructor(Class.class,
+                    Object.class);
+            Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor", false, classLoader);
+            Constructor<?> valueDescriptorConstructor = valueDescriptorClass.getConstructor(Class.class,
+                    String.class, List.class);
+            Class<?> nameClass = Class.forName("jdk.jfr.Name", false, classLoader);
+            Class<?> labelClass = Class.forName("jdk.jfr.Label", false, classLoader);
+            Class<?> descriptionClass = Class.forName("jdk.jfr.Description", false, classLoader);
+            Class<?> categoryClass = Class.forName("jdk.jfr.Category", false, classLoader);
+            Class<?> dataAmountClass = Class.forName("jdk.jfr.DataAmount", false, classLoader);
+
+            Object category = Array.newInstance(String.class, 1);
+            Array.set(category, 0, "CHDFS");
+            List<Object> eventAnnotations = Arrays.asList(
+                    annotationElementConstructor.newInstance(nameClass, eventName),
+                    annotationElementConstructor.newInstance(labelClass, label),
+                    annotationElementConstructor.newInstance(descriptionClass, description),
+                    annotationElementConstructor.newInstance(categoryClass, category));
+            // the field order has to match the *_FIELD_INDEX constants
+            List<Object> fields = Arrays.asList(
+                    valueDescriptorConstructor.newInstance(String.class, "name", Collections.singletonList(
+                            annotationElementConstructor.newInstance(labelClass, "Name"))),
+                    valueDescriptorConstructor.newInstance(String.class, "path", Collections.singletonList(
+                            annotationElementConstructor.newInstance(labelClass, "Path"))),
+                    valueDescriptorConstructor.newInstance(long.class, "bytes", Arrays.asList(
+                            annotationElementConstructor.newInstance(labelClass, "Bytes"),
+                            annotationElementConstructor.newInstance(dataAmountClass, "BYTES"))));
+
+            Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory", false, classLoader);
+            this.eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null,
+                    eventAnnotations, fields);
+            this.newEventMethod = eventFactoryClass.getMethod("newEvent");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event", false, classLoader);
+            this.isEnabledMethod = eventClass.getMethod("isEnabled");
+            this.beginMethod = eventClass.getMethod("begin");
+            this.endMethod = eventClass.getMethod("end");
+            this.shouldCommitMethod = eventClass.getMethod("shouldCommit");
+            this.commitMethod = eventClass.getMethod("commit");
+            this.setMethod = eventClass.getMethod("set", int.class, Object.class);
+        }
+
+        private Span begin(String name) {
+            try {
+                Object event = newEventMethod.invoke(eventFactory);
+                if (!(Boolean) isEnabledMethod.invoke(event)) {
+                    // no recording asks for the event type
+                    return Span.NOOP;
+                }
+                beginMethod.invoke(event);
+                return new Span(this, event, name);
+            } catch (Exception e) {
+                log.debug("begin flight recorder event failed", e);
+                return Span.NOOP;
+            }
+        }
+
+        private void commit(Object event, String name, String path, long bytes) {
+            try {
+                endMethod.invoke(event);
+                if ((Boolean) shouldCommitMethod.invoke(event)) {
+                    setMethod.invoke(event, NAME_FIELD_INDEX, name);
+                    setMethod.invoke(event, PATH_FIELD_INDEX, path);
+                    setMethod.invoke(event, BYTES_FIELD_INDEX, bytes);
+                    commitMethod.invoke(event);
+                }
+            } catch (Exception e) {
+                log.debug("commit flight recorder event failed", e);
+            }
+        }
+    }
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Define the event types, a JVM without JFR keeps them disabled.
+     */
+    static synchronized void enable() {
+        if (enableAttempted) {
+            return;
+        }
+        enableAttempted = true;
+        try {
+            EventType bootstrap = new EventType(BOOTSTRAP_EVENT_NAME, "CHDFS Bootstrap Phase",
+                    "A phase of loading the chdfs implementation");
+            EventType operation = new EventType(OPERATION_EVENT_NAME, "CHDFS Operation",
+                    "A file system operation delegated to the chdfs implementation");
+            bootstrapEventType = bootstrap;
+            operationEventType = operation;
+            log.info("chdfs flight recorder events enabled");
+        } catch (Throwable t) {
+            log.info("flight recorder is not available, chdfs flight recorder events stay disabled: {}",
+                    t.toString());
+        }
+    }
+
+    static Span beginBootstrapPhase(String phase) {
+        EventType eventType = bootstrapEventType;
+        return eventType == null ? Span.NOOP : eventType.begin(phase);
+    }
+
+    static Span beginOperation(String operation) {
+        EventType eventType = operationEventType;
+        return eventType == null ? Span.NOOP : eventType.begin(operation);
+    }
+}
@@ -0,0 +1,330 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges the positional reads of the input streams of one file system instance. The caller thread reads in place
+ * into its own buffer, and a timer starts a duplicate read into a separate buffer once the read is slower than the
+ * tracked latency percentile. The first read to finish wins, the stream of the loser is closed, which aborts it.
+ *
+ * <p>Both reads go to their own streams, never to the stream of the caller: its sequential position stays untouched
+ * and a read which lost cannot use it after the call returned. The streams are borrowed from a {@link StreamPool}
+ * of the input stream, a closed one is replaced by opening a new one.
+ *
+ * <p>Each read allows {@code maxHedgeRatio} hedges to accumulate, up to {@link #MAX_HEDGE_BUDGET}, so the extra
+ * load stays bounded even when the whole service slows down.
+ */
+class HedgedReadCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(HedgedReadCoordinator.class);
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int MIN_LATENCY_SAMPLES = 100;
+    private static final int THRESHOLD_RECOMPUTE_INTERVAL = 64;
+    private static final double MAX_HEDGE_BUDGET = 16;
+
+    /**
+     * The streams of one file the reads go to, a borrowed stream is either given back or discarded.
+     */
+    interface StreamPool {
+        FSDataInputStream borrow() throws IOException;
+
+        /**
+         * Give back a stream whose last read completed, it may be borrowed again.
+         */
+        void giveBack(FSDataInputStream in);
+
+        /**
+         * Close a stream, which may be in use by another thread.
+         */
+        void discard(FSDataInputStream in);
+    }
+
+    private final BoundedOperationExecutor executor;
+    private final ScheduledThreadPoolExecutor hedgeTimer;
+    private final double percentile;
+    private final long minThresholdNanos;
+    private final double maxHedgeRatio;
+
+    private final long[] latencySamplesNanos = new long[LATENCY_WINDOW];
+    private int latencySampleCount = 0;
+    private int nextLatencySample = 0;
+    private int samplesSinceRecompute = 0;
+    private volatile long thresholdNanos = Long.MAX_VALUE;
+    private double hedgeBudget = 0;
+
+    private final AtomicLong readCount = new AtomicLong(0);
+    private final AtomicLong hedgeCount = new AtomicLong(0);
+    private final AtomicLong hedgeWinCount = new AtomicLong(0);
+
+    HedgedReadCoordinator(BoundedOperationExecutor executor, double percentile, long minThresholdMs,
+            double maxHedgeRatio) {
+        this.executor = executor;
+        this.hedgeTimer = new ScheduledThreadPoolExecutor(1, utils.newDaemonThreadFactory("chdfs-hedged-read-timer"));
+        this.hedgeTimer.setRemoveOnCancelPolicy(true);
+        this.percentile = Math.min(100, Math.max(1, percentile));
+        this.minThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, minThresholdMs));
+        this.maxHedgeRatio = Math.max(0, maxHedgeRatio);
+    }
+
+    /**
+     * Positional read, hedged on a second stream of {@code streams} if it is slow.
+     *
+     * @param in    the stream of the caller, only read until a latency threshold is known
+     * @param fully whether to readFully instead of read
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    int read(FSDataInputStream in, StreamPool streams, long position, byte[] buffer, int offset, int length,
+            boolean fully) throws IOException {
+        readCount.incrementAndGet();
+        long startNanos = System.nanoTime();
+        long currentThresholdNanos = this.thresholdNanos;
+        if (!accrueHedgeBudget() || currentThresholdNanos == Long.MAX_VALUE) {
+            // no hedge possible, the read cannot lose
+            int readLen = doRead(in, position, buffer, offset, length, fully);
+            recordLatency(System.nanoTime() - startNanos);
+            return readLen;
+        }
+
+        HedgedRead hedgedRead = new HedgedRead(streams, streams.borrow(), position, length, fully);
+        ScheduledFuture<?> timer = null;
+        try {
+            timer = hedgeTimer.schedule(hedgedRead, currentThresholdNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("hedged read timer is shut down, read without hedging", e);
+        }
+        int readLen;
+        try {
+            readLen = doRead(hedgedRead.primaryStream, position, buffer, offset, length, fully);
+        } catch (IOException e) {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            readLen = hedgedRead.primaryFailed(e, buffer, offset);
+            recordLatency(System.nanoTime() - startNanos);
+            return readLen;
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        readLen = hedgedRead.primaryDone(readLen, buffer, offset);
+        recordLatency(System.nanoTime() - startNanos);
+        return readLen;
+    }
+
+    /**
+     * One positional read and its hedge. The primary read runs on the caller thread, the hedge on the executor,
+     * and the state is guarded by the instance.
+     */
+    private class HedgedRead implements Runnable {
+        private final StreamPool streams;
+        private final FSDataInputStream primaryStream;
+        private final long position;
+        private final int length;
+        private final boolean fully;
+
+        private boolean primaryFinished = false;
+        private boolean primarySucceeded = false;
+        private boolean hedgeRunning = false;
+        private FSDataInputStream hedgeStream = null;
+        private byte[] hedgeData = null;
+        private int hedgeLength = 0;
+        private boolean hedgeWon = false;
+
+        private HedgedRead(StreamPool streams, FSDataInputStream primaryStream, long position, int length,
+                boolean fully) {
+            this.streams = streams;
+            this.primaryStream = primaryStream;
+            this.position = position;
+            this.length = length;
+            this.fully = fully;
+        }
+
+        /**
+         * Fired by the timer once the primary read is slower than the threshold.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (primaryFinished || !takeHedgeBudget()) {
+                    return;
+                }
+                hedgeRunning = true;
+            }
+            try {
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        runHedge();
+                        return null;
+                    }
+                });
+                hedgeCount.incrementAndGet();
+            } catch (IOException e) {
+                log.debug("hedged read executor is saturated, wait for the primary read", e);
+                synchronized (this) {
+                    hedgeRunning = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void runHedge() {
+            FSDataInputStream stream = null;
+            byte[] data = null;
+            int readLen = 0;
+            try {
+                stream = streams.borrow();
+                synchronized (this) {
+                    if (primarySucceeded) {
+                        streams.giveBack(stream);
+                        return;
+                    }
+                    hedgeStream = stream;
+                }
+                data = new byte[length];
+                readLen = doRead(stream, position, data, 0, length, fully);
+            } catch (IOException e) {
+                log.debug("hedge of a positional read failed", e);
+                data = null;
+            } finally {
+                synchronized (this) {
+                    hedgeRunning = false;
+                    if (stream != null && hedgeStream == stream) {
+                        hedgeStream = null;
+                        if (data != null) {
+                            streams.giveBack(stream);
+                        } else {
+                            streams.discard(stream);
+                        }
+                    }
+                    // a failed primary read waits for the hedge to fall back on
+                    if (data != null && !primarySucceeded) {
+                        hedgeData = data;
+                        hedgeLength = readLen;
+                        hedgeWon = true;
+                        if (!primaryFinished) {
+                            // abort the primary read, the caller thread returns as soon as it fails
+                            streams.discard(primaryStream);
+                        }
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return the length read by the winner, whose data is in {@code buffer}
+         */
+        private synchronized int primaryDone(int readLen, byte[] buffer, int offset) {
+            primaryFinished = true;
+            if (hedgeWon) {
+                return copyHedgeResult(buffer, offset);
+            }
+            primarySucceeded = true;
+            streams.giveBack(primaryStream);
+            abortHedge();
+            return readLen;
+        }
+
+        /**
+         * Fall back to the hedge if there is one, or rethrow the failure of the primary read.
+         */
+        private synchronized int primaryFailed(IOException e, byte[] buffer, int offset) throws IOException {
+            primaryFinished = true;
+            if (!hedgeWon) {
+                streams.discard(primaryStream);
+            }
+            try {
+                while (!hedgeWon && hedgeRunning) {
+                    wait();
+                }
+            } catch (InterruptedException ie) {
+                abortHedge();
+                throw (IOException) new InterruptedIOException("interrupted while waiting for a hedged read")
+                        .initCause(ie);
+            }
+            if (hedgeWon) {
+                return copyHedgeResult(buffer, offset);
+            }
+            throw e;
+        }
+
+        private int copyHedgeResult(byte[] buffer, int offset) {
+            hedgeWinCount.incrementAndGet();
+            if (hedgeLength > 0) {
+                System.arraycopy(hedgeData, 0, buffer, offset, hedgeLength);
+            }
+            return hedgeLength;
+        }
+
+        private void abortHedge() {
+            if (hedgeStream != null) {
+                streams.discard(hedgeStream);
+                hedgeStream = null;
+            }
+        }
+    }
+
+    private static int doRead(FSDataInputStream in, long position, byte[] buffer, int offset, int length,
+            boolean fully) throws IOException {
+        if (fully) {
+            in.readFully(position, buffer, offset, length);
+            return length;
+        }
+        return in.read(position, buffer, offset, length);
+    }
+
+    private synchronized boolean accrueHedgeBudget() {
+        hedgeBudget = Math.min(MAX_HEDGE_BUDGET, hedgeBudget + maxHedgeRatio);
+        return hedgeBudget >= 1;
+    }
+
+    private synchronized boolean takeHedgeBudget() {
+        if (hedgeBudget < 1) {
+            return false;
+        }
+        hedgeBudget -= 1;
+        return true;
+    }
+
+    private synchronized void recordLatency(long latencyNanos) {
+        latencySamplesNanos[nextLatencySample] = latencyNanos;
+        nextLatencySample = (nextLatencySample + 1) % LATENCY_WINDOW;
+        latencySampleCount = Math.min(LATENCY_WINDOW, latencySampleCount + 1);
+        if (++samplesSinceRecompute < THRESHOLD_RECOMPUTE_INTERVAL || latencySampleCount < MIN_LATENCY_SAMPLES) {
+            return;
+        }
+        samplesSinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(latencySamplesNanos, latencySampleCount);
+        Arrays.sort(sorted);
+        int index = Math.max(0, (int) Math.ceil(percentile / 100 * sorted.length) - 1);
+        thresholdNanos = Math.max(minThresholdNanos, sorted[index]);
+    }
+
+    void close() {
+        hedgeTimer.shutdownNow();
+    }
+
+    long getReadCount() {
+        return readCount.get();
+    }
+
+    long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.qcloud.chdfs.fs;
+
+/**
+ * How the adapter fetches the data of an input stream.
+ */
+enum InputPolicy {
+    /**
+     * Leave the stream of the impl filesystem as it is.
+     */
+    NORMAL,
+    /**
+     * Large streaming fetches, for scans.
+     */
+    SEQUENTIAL,
+    /**
+     * Small positional fetches of about the requested range, for columnar formats.
+     */
+    RANDOM,
+    /**
+     * Start sequential, switch to random on a seek and back on a long enough sequential run.
+     */
+    ADAPTIVE;
+
+    String getConfigName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * @return the policy of {@code configName}, or null if there is none
+     */
+    static InputPolicy fromConfigName(String configName) {
+        for (InputPolicy policy : values()) {
+            if (policy.getConfigName().equals(configName.trim().toLowerCase())) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read statistics of one input stream: bytes and calls, a read size histogram, forward and backward seeks with
+ * their distances, the time spent in reads and the time from open to close. They are merged into
+ * {@link CHDFSStreamStatistics} at close, and logged if the stream spent more than a threshold in reads.
+ */
+class InputStreamStatistics {
+    private static final Logger log = LoggerFactory.getLogger(InputStreamStatistics.class);
+
+    private final CHDFSStreamStatistics aggregate;
+    private final Path path;
+    private final long slowReadThresholdNanos;
+    private final long openNanos = System.nanoTime();
+    private final long[] readSizeHistogram = new long[CHDFSStreamStatistics.READ_SIZE_BUCKET_BOUNDS.length + 1];
+    private long bytesRead = 0;
+    private long readOps = 0;
+    private long positionalReadOps = 0;
+    private long readNanos = 0;
+    private long forwardSeekOps = 0;
+    private long forwardSeekBytes = 0;
+    private long backwardSeekOps = 0;
+    private long backwardSeekBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * @param slowReadThresholdMs log the statistics at close if the reads took longer in total, 0 never logs
+     */
+    InputStreamStatistics(CHDFSStreamStatistics aggregate, Path path, long slowReadThresholdMs) {
+        this.aggregate = aggregate;
+        this.path = path;
+        this.slowReadThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowReadThresholdMs);
+    }
+
+    synchronized void recordRead(long readLen, long startNanos, boolean positional) {
+        readNanos += System.nanoTime() - startNanos;
+        readOps++;
+        if (positional) {
+            positionalReadOps++;
+        }
+        if (readLen > 0) {
+            bytesRead += readLen;
+            readSizeHistogram[getReadSizeBucketIndex(readLen)]++;
+        }
+    }
+
+    synchronized void recordSeek(long fromPos, long toPos) {
+        if (toPos > fromPos) {
+            forwardSeekOps++;
+            forwardSeekBytes += toPos - fromPos;
+        } else if (toPos < fromPos) {
+            backwardSeekOps++;
+            backwardSeekBytes += fromPos - toPos;
+        }
+    }
+
+    private static int getReadSizeBucketIndex(long readLen) {
+        long[] bounds = CHDFSStreamStatistics.READ_SIZE_BUCKET_BOUNDS;
+        for (int i = 0; i < bounds.length; i++) {
+            if (readLen <= bounds[i]) {
+                return i;
+            }
+        }
+        return bounds.length;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long openMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openNanos);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_CLOSED, 1);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_OPEN_DURATION_MS, openMs);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_READ_BYTES, bytesRead);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_READ_OPERATIONS, readOps);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_POSITIONAL_READ_OPERATIONS, positionalReadOps);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_READ_TIME_MS,
+                TimeUnit.NANOSECONDS.toMillis(readNanos));
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_SEEK_FORWARD_OPERATIONS, forwardSeekOps);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_SEEK_FORWARD_BYTES, forwardSeekBytes);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_SEEK_BACKWARD_OPERATIONS, backwardSeekOps);
+        aggregate.add(CHDFSStreamStatistics.Statistic.STREAM_SEEK_BACKWARD_BYTES, backwardSeekBytes);
+        for (int i = 0; i < readSizeHistogram.length; i++) {
+            aggregate.add(CHDFSStreamStatistics.getReadSizeBucket(i), readSizeHistogram[i]);
+        }
+
+        if (slowReadThresholdNanos > 0 && readNanos >= slowReadThresholdNanos) {
+            log.info("slow input stream {}, openMs: {}, readMs: {}, bytesRead: {}, readOps: {}, positionalReadOps: {}, "
+                            + "forwardSeeks: {}({} bytes), backwardSeeks: {}({} bytes), readSizeHistogram: {}", path,
+                    openMs, TimeUnit.NANOSECONDS.toMillis(readNanos), bytesRead, readOps, positionalReadOps,
+                    forwardSeekOps, forwardSeekBytes, backwardSeekOps, backwardSeekBytes,
+                    formatHistogram(readSizeHistogram));
+        }
+    }
+
+    private static String formatHistogram(long[] histogram) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(CHDFSStreamStatistics.getReadSizeBucket(i).getSymbol().substring("stream_read_size_".length()))
+                    .append('=').append(histogram[i]);
+        }
+        return sb.toString();
+    }
+}
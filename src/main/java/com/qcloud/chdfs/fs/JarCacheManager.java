@@ -0,0 +1,194 @@
+package com.qcloud.chdfs.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the plugin jar cache dir within a count and size quota by evicting the least recently used versions.
+ *
+ * <p>Every JVM holds a shared lock on {@code <jar>.INUSE} of each version it loaded, for its whole lifetime, and
+ * writes the load time into it, which is the last used time of the version. A jar is only evicted under an
+ * exclusive lock of both its {@code .INUSE} and its download {@code .LOCK} file, so a jar in use by a live JVM or
+ * being downloaded on the node is never deleted.
+ */
+class JarCacheManager {
+    private static final Logger log = LoggerFactory.getLogger(JarCacheManager.class);
+    private static final String JAR_NAME_PREFIX = "chdfs_hadoop_plugin-";
+    private static final String JAR_NAME_SUFFIX = "-shaded.jar";
+    private static final String IN_USE_SUFFIX = ".INUSE";
+    private static final String DOWNLOAD_LOCK_SUFFIX = ".LOCK";
+    private static final int MARK_IN_USE_MAX_ATTEMPTS = 3;
+    private static final long MIN_ENFORCE_INTERVAL_MS = 60 * 1000L;
+
+    // the in use locks of this JVM, by in use file path, held until exit
+    private static final Map<String, FileLock> inUseLocks = new HashMap<>();
+    private static final ConcurrentMap<String, Long> lastEnforceMsByDir = new ConcurrentHashMap<>();
+
+    private JarCacheManager() {
+    }
+
+    static File getCachedJarFile(String cacheDirPath, String versionId) {
+        return new File(String.format("%s/%s%s%s", cacheDirPath, JAR_NAME_PREFIX, versionId, JAR_NAME_SUFFIX));
+    }
+
+    static boolean isCachedJar(File file) {
+        String name = file.getName();
+        return name.startsWith(JAR_NAME_PREFIX) && name.endsWith(JAR_NAME_SUFFIX) && file.isFile();
+    }
+
+    /**
+     * Mark {@code jarFile} as used by this JVM until it exits, call before checking or downloading the jar.
+     */
+    static synchronized void markInUse(File jarFile) {
+        File inUseFile = new File(jarFile.getPath() + IN_USE_SUFFIX);
+        if (inUseLocks.containsKey(inUseFile.getAbsolutePath())) {
+            return;
+        }
+        for (int attempt = 0; attempt < MARK_IN_USE_MAX_ATTEMPTS; attempt++) {
+            RandomAccessFile inUseRaf = null;
+            try {
+                inUseRaf = new RandomAccessFile(inUseFile, "rw");
+                FileLock inUseLock = inUseRaf.getChannel().lock(0, Long.MAX_VALUE, true);
+                if (!inUseFile.exists()) {
+                    // evicted while waiting for the lock, lock the new file instead
+                    inUseLock.release();
+                    inUseRaf.close();
+                    continue;
+                }
+                inUseRaf.seek(0);
+                inUseRaf.writeLong(System.currentTimeMillis());
+                inUseFile.setReadable(true, false);
+                inUseFile.setWritable(true, false);
+                inUseLocks.put(inUseFile.getAbsolutePath(), inUseLock);
+                return;
+            } catch (IOException | OverlappingFileLockException e) {
+                utils.closeQuietly(inUseRaf);
+                log.warn(String.format("mark jar in use failed, it may be evicted while in use, inUseFile: %s",
+                        inUseFile.getAbsolutePath()), e);
+                return;
+            }
+        }
+        log.warn("mark jar in use failed after {} attempts, inUseFile: {}", MARK_IN_USE_MAX_ATTEMPTS,
+                inUseFile.getAbsolutePath());
+    }
+
+    /**
+     * Evict least recently used jars until the cache dir holds at most {@code maxCount} jars of at most
+     * {@code maxBytes} in total, a non positive quota is unlimited. Runs at most once a minute per dir.
+     */
+    static void enforceQuota(String cacheDirPath, int maxCount, long maxBytes) {
+        if (maxCount <= 0 && maxBytes <= 0) {
+            return;
+        }
+        long nowMs = System.currentTimeMillis();
+        Long lastEnforceMs = lastEnforceMsByDir.get(cacheDirPath);
+        if (lastEnforceMs != null && nowMs - lastEnforceMs < MIN_ENFORCE_INTERVAL_MS) {
+            return;
+        }
+        lastEnforceMsByDir.put(cacheDirPath, nowMs);
+
+        File[] files = new File(cacheDirPath).listFiles();
+        if (files == null) {
+            return;
+        }
+        final Map<File, Long> lastUsedMs = new HashMap<>();
+        List<File> jarFiles = new ArrayList<>();
+        long totalBytes = 0;
+        for (File file : files) {
+            if (isCachedJar(file)) {
+                jarFiles.add(file);
+                totalBytes += file.length();
+                File inUseFile = new File(file.getPath() + IN_USE_SUFFIX);
+                lastUsedMs.put(file, inUseFile.exists() ? inUseFile.lastModified() : file.lastModified());
+            }
+        }
+        Collections.sort(jarFiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastUsedMs.get(o1), lastUsedMs.get(o2));
+            }
+        });
+
+        int count = jarFiles.size();
+        for (File jarFile : jarFiles) {
+            if ((maxCount <= 0 || count <= maxCount) && (maxBytes <= 0 || totalBytes <= maxBytes)) {
+                break;
+            }
+            long jarBytes = jarFile.length();
+            if (tryEvict(jarFile)) {
+                count--;
+                totalBytes -= jarBytes;
+                log.info("evict cached jar {}, lastUsedMs: {}, remaining count: {}, remaining bytes: {}",
+                        jarFile.getName(), lastUsedMs.get(jarFile), count, totalBytes);
+            }
+        }
+        if ((maxCount > 0 && count > maxCount) || (maxBytes > 0 && totalBytes > maxBytes)) {
+            log.warn("jar cache dir {} exceeds its quota but the remaining jars are in use, count: {}, bytes: {}",
+                    cacheDirPath, count, totalBytes);
+        }
+    }
+
+    private static boolean tryEvict(File jarFile) {
+        File inUseFile = new File(jarFile.getPath() + IN_USE_SUFFIX);
+        File downloadLockFile = new File(jarFile.getPath() + DOWNLOAD_LOCK_SUFFIX);
+        synchronized (JarCacheManager.class) {
+            if (inUseLocks.containsKey(inUseFile.getAbsolutePath())) {
+                return false;
+            }
+        }
+        RandomAccessFile inUseRaf = null;
+        RandomAccessFile downloadLockRaf = null;
+        FileLock inUseLock = null;
+        FileLock downloadLock = null;
+        try {
+            inUseRaf = new RandomAccessFile(inUseFile, "rw");
+            inUseLock = inUseRaf.getChannel().tryLock();
+            if (inUseLock == null) {
+                return false;
+            }
+            downloadLockRaf = new RandomAccessFile(downloadLockFile, "rw");
+            downloadLock = downloadLockRaf.getChannel().tryLock();
+            if (downloadLock == null) {
+                return false;
+            }
+            if (!jarFile.delete()) {
+                log.warn("delete cached jar failed, path: {}", jarFile.getAbsolutePath());
+                return false;
+            }
+            downloadLockFile.delete();
+            inUseFile.delete();
+            return true;
+        } catch (IOException | OverlappingFileLockException e) {
+            log.debug("skip evicting cached jar {}", jarFile.getAbsolutePath(), e);
+            return false;
+        } finally {
+            releaseQuietly(downloadLock);
+            releaseQuietly(inUseLock);
+            utils.closeQuietly(downloadLockRaf);
+            utils.closeQuietly(inUseRaf);
+        }
+    }
+
+    private static void releaseQuietly(FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
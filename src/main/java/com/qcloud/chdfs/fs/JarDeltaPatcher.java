@@ -0,0 +1,112 @@
+package com.qcloud.chdfs.fs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rebuilds a plugin jar from a cached base jar and a binary delta. A delta is a gzip stream of:
+ *
+ * <pre>
+ * magic "CHDFSDLT", int format version 1, long target length
+ * ops until END:
+ *   byte 1 COPY:   long base offset, int length   copy the range of the base jar
+ *   byte 2 INSERT: int length, bytes              append literal bytes
+ *   byte 0 END
+ * </pre>
+ *
+ * The caller verifies the rebuilt jar against the expected md5.
+ */
+class JarDeltaPatcher {
+    private static final byte[] MAGIC = "CHDFSDLT".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private JarDeltaPatcher() {
+    }
+
+    static void apply(File baseJar, InputStream delta, File targetJar) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(delta, BUFFER_SIZE));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("invalid jar delta, bad magic");
+        }
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException(String.format("unsupported jar delta format version: %d", formatVersion));
+        }
+        long targetLength = in.readLong();
+
+        RandomAccessFile base = new RandomAccessFile(baseJar, "r");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(targetJar), BUFFER_SIZE);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long written = 0;
+            int op;
+            while ((op = in.readUnsignedByte()) != OP_END) {
+                if (op == OP_COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > base.length()) {
+                        throw new IOException(String.format("invalid jar delta copy, offset: %d, length: %d, "
+                                + "baseLength: %d", offset, length, base.length()));
+                    }
+                    checkTargetLength(written + length, targetLength);
+                    base.seek(offset);
+                    for (int remaining = length; remaining > 0; ) {
+                        int readLen = Math.min(remaining, buf.length);
+                        base.readFully(buf, 0, readLen);
+                        out.write(buf, 0, readLen);
+                        remaining -= readLen;
+                    }
+                    written += length;
+                } else if (op == OP_INSERT) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new IOException(String.format("invalid jar delta insert, length: %d", length));
+                    }
+                    checkTargetLength(written + length, targetLength);
+                    for (int remaining = length; remaining > 0; ) {
+                        int readLen = Math.min(remaining, buf.length);
+                        in.readFully(buf, 0, readLen);
+                        out.write(buf, 0, readLen);
+                        remaining -= readLen;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException(String.format("invalid jar delta op: %d", op));
+                }
+            }
+            if (written != targetLength) {
+                throw new IOException(String.format("jar delta length mismatch, expect: %d, actual: %d",
+                        targetLength, written));
+            }
+            out.close();
+        } finally {
+            utils.closeQuietly(out);
+            utils.closeQuietly(base);
+        }
+    }
+
+    /**
+     * Fail before writing past the target length, so a corrupt delta cannot fill the disk.
+     */
+    private static void checkTargetLength(long written, long targetLength) throws IOException {
+        if (written > targetLength) {
+            throw new IOException(String.format("jar delta exceeds the target length, expect: %d, actual: >= %d",
+                    targetLength, written));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.qcloud.chdfs.fs;
+
+class JarPluginInfo {
+    final String versionId;
+    final String jarPath;
+    final String jarHost;
+    final String jarMd5;
+
+    JarPluginInfo(String versionId, String jarPath, String jarHost, String jarMd5) {
+        this.versionId = versionId;
+        this.jarPath = jarPath;
+        this.jarHost = jarHost;
+        this.jarMd5 = jarMd5;
+    }
+}
@@ -0,0 +1,138 @@
+package com.qcloud.chdfs.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the plugin server in the background and preloads every new implementation version, so that a new
+ * file system instance picks up the latest version without querying, downloading and loading it inline.
+ * File system instances created before a refresh keep using the class they were created from. The refresh of a key
+ * runs as long as a file system instance which started or joined it is open.
+ */
+class JarPluginRefresher implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(JarPluginRefresher.class);
+
+    /**
+     * A refreshed plugin info older than this many refresh intervals is no longer trusted by init.
+     */
+    private static final int MAX_STALE_INTERVALS = 3;
+
+    private static final ScheduledExecutorService refreshScheduler =
+            Executors.newSingleThreadScheduledExecutor(utils.newDaemonThreadFactory("chdfs-jar-refresher"));
+    private static final ConcurrentMap<String, JarPluginRefresher> refreshers = new ConcurrentHashMap<>();
+
+    private final String refreshKey;
+    private final String mountPointAddr;
+    private final long appid;
+    private final int jarPluginServerPort;
+    private final String tmpDirPath;
+    private final boolean jarPluginServerHttps;
+    private final String cosEndPointSuffix;
+    private final boolean distinguishHost;
+    private final String networkVersionId;
+    private final boolean jarDeltaEnabled;
+
+    private volatile JarPluginInfo latestPluginInfo = null;
+    private volatile long latestRefreshMs = 0;
+    // guarded by refreshers
+    private ScheduledFuture<?> schedule = null;
+    private int references = 0;
+
+    private JarPluginRefresher(String refreshKey, String mountPointAddr, long appid, int jarPluginServerPort,
+            String tmpDirPath, boolean jarPluginServerHttps, String cosEndPointSuffix, boolean distinguishHost,
+            String networkVersionId, boolean jarDeltaEnabled) {
+        this.refreshKey = refreshKey;
+        this.mountPointAddr = mountPointAddr;
+        this.appid = appid;
+        this.jarPluginServerPort = jarPluginServerPort;
+        this.tmpDirPath = tmpDirPath;
+        this.jarPluginServerHttps = jarPluginServerHttps;
+        this.cosEndPointSuffix = cosEndPointSuffix;
+        this.distinguishHost = distinguishHost;
+        this.networkVersionId = networkVersionId;
+        this.jarDeltaEnabled = jarDeltaEnabled;
+    }
+
+    /**
+     * Start the refresh of {@code refreshKey} unless it runs already, and count one more user of it. Every call must
+     * be paired with a {@link #release(String)} once the user is closed.
+     *
+     * @param loadedPluginInfo the version loaded by the caller, which seeds a new refresh, or null if it loaded none
+     */
+    static void acquire(String refreshKey, long refreshIntervalMs, String mountPointAddr, long appid,
+            int jarPluginServerPort, String tmpDirPath, boolean jarPluginServerHttps, String cosEndPointSuffix,
+            boolean distinguishHost, String networkVersionId, boolean jarDeltaEnabled,
+            JarPluginInfo loadedPluginInfo) {
+        synchronized (refreshers) {
+            JarPluginRefresher refresher = refreshers.get(refreshKey);
+            if (refresher == null) {
+                refresher = new JarPluginRefresher(refreshKey, mountPointAddr, appid, jarPluginServerPort, tmpDirPath,
+                        jarPluginServerHttps, cosEndPointSuffix, distinguishHost, networkVersionId, jarDeltaEnabled);
+                refresher.latestPluginInfo = loadedPluginInfo;
+                refresher.latestRefreshMs = System.currentTimeMillis();
+                refresher.schedule = refreshScheduler.scheduleWithFixedDelay(refresher, refreshIntervalMs,
+                        refreshIntervalMs, TimeUnit.MILLISECONDS);
+                refreshers.put(refreshKey, refresher);
+                log.info("start background jar plugin refresh, mountPointAddr: {}, intervalMs: {}", mountPointAddr,
+                        refreshIntervalMs);
+            }
+            refresher.references++;
+        }
+    }
+
+    /**
+     * Count one user of {@code refreshKey} less, the refresh stops with the last one.
+     */
+    static void release(String refreshKey) {
+        synchronized (refreshers) {
+            JarPluginRefresher refresher = refreshers.get(refreshKey);
+            if (refresher == null || --refresher.references > 0) {
+                return;
+            }
+            refresher.schedule.cancel(false);
+            refreshers.remove(refreshKey);
+            log.info("stop background jar plugin refresh, mountPointAddr: {}", refresher.mountPointAddr);
+        }
+    }
+
+    /**
+     * @return the plugin info of the latest successful refresh, or null if there is none recent enough
+     */
+    static JarPluginInfo getFreshPluginInfo(String refreshKey, long refreshIntervalMs) {
+        JarPluginRefresher refresher = refreshers.get(refreshKey);
+        if (refresher == null || refresher.latestPluginInfo == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - refresher.latestRefreshMs > MAX_STALE_INTERVALS * refreshIntervalMs) {
+            return null;
+        }
+        return refresher.latestPluginInfo;
+    }
+
+    @Override
+    public void run() {
+        long startMs = System.currentTimeMillis();
+        try {
+            JarPluginInfo pluginInfo = new CHDFSHadoopFileSystemJarLoader().preloadLatest(mountPointAddr, appid,
+                    jarPluginServerPort, tmpDirPath, jarPluginServerHttps, cosEndPointSuffix, distinguishHost,
+                    networkVersionId, jarDeltaEnabled);
+            JarPluginInfo previousPluginInfo = this.latestPluginInfo;
+            this.latestPluginInfo = pluginInfo;
+            this.latestRefreshMs = System.currentTimeMillis();
+            if (previousPluginInfo != null && !previousPluginInfo.versionId.equals(pluginInfo.versionId)) {
+                log.info("jar plugin refreshed from version {} to {}, usedMs: {}", previousPluginInfo.versionId,
+                        pluginInfo.versionId, System.currentTimeMillis() - startMs);
+            }
+        } catch (Throwable t) {
+            // keep the schedule alive, the next round retries
+            log.warn(String.format("background jar plugin refresh failed, key: %s", refreshKey), t);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.qcloud.chdfs.fs;
+
+/**
+ * The classes of metadata operations the adapter rate limits separately.
+ */
+enum MetadataOperationClass {
+    STAT(false),
+    LIST(true),
+    MKDIRS(false),
+    RENAME(false),
+    DELETE(true);
+
+    private final boolean sizeDependent;
+
+    MetadataOperationClass(boolean sizeDependent) {
+        this.sizeDependent = sizeDependent;
+    }
+
+    String getConfigName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * @return whether the latency grows with the size of the directory, like a listing or a recursive delete
+     */
+    boolean isSizeDependent() {
+        return sizeDependent;
+    }
+}
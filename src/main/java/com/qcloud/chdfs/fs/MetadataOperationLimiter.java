@@ -0,0 +1,257 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.metrics2.util.MBeans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide limiter of the metadata operations sent to one mount point. Every operation first takes a token
+ * from the bucket of its {@link MetadataOperationClass}, then one of the concurrency slots.
+ *
+ * <p>The number of slots follows AIMD: it halves, at most once per {@link #BACKOFF_COOLDOWN_MS}, when an operation
+ * is throttled or slower than the latency threshold of its class, and grows by one per limit-many successful operations up
+ * to the configured ceiling. So clients back off together when the service is overloaded, instead of retrying in
+ * lockstep.
+ */
+class MetadataOperationLimiter implements MetadataOperationLimiterMXBean {
+    private static final Logger log = LoggerFactory.getLogger(MetadataOperationLimiter.class);
+    private static final long BACKOFF_COOLDOWN_MS = 1000;
+    private static final ConcurrentMap<String, MetadataOperationLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * An acquired slot, released by the adapter after the operation.
+     */
+    static class Permit {
+        private static final Permit NONE = new Permit(null, null, 0);
+
+        private final MetadataOperationLimiter limiter;
+        private final MetadataOperationClass operationClass;
+        private final long startNanos;
+        private boolean throttled = false;
+
+        private Permit(MetadataOperationLimiter limiter, MetadataOperationClass operationClass, long startNanos) {
+            this.limiter = limiter;
+            this.operationClass = operationClass;
+            this.startNanos = startNanos;
+        }
+
+        void markFailed(Throwable t) {
+            if (limiter != null) {
+                this.throttled = isThrottleError(t);
+            }
+        }
+
+        void release() {
+            if (limiter != null) {
+                limiter.release(operationClass, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                        throttled);
+            }
+        }
+    }
+
+    private static class TokenBucket {
+        private final double ratePerMs;
+        private final double burst;
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(double ratePerSec) {
+            this.ratePerMs = ratePerSec / 1000.0;
+            this.burst = Math.max(1.0, ratePerSec);
+            this.tokens = this.burst;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        /**
+         * Take a token, the balance may go negative to queue the callers fairly.
+         *
+         * @return how long the caller has to wait for its token in ms
+         */
+        private synchronized long reserve() {
+            long nowNanos = System.nanoTime();
+            tokens = Math.min(burst, tokens + (nowNanos - lastRefillNanos) / 1000000.0 * ratePerMs);
+            lastRefillNanos = nowNanos;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / ratePerMs);
+        }
+    }
+
+    private final Map<MetadataOperationClass, TokenBucket> buckets = new EnumMap<>(MetadataOperationClass.class);
+    private final Map<MetadataOperationClass, Long> latencyThresholdsMs;
+    private final int maxConcurrency;
+
+    private double concurrencyLimit;
+    private int inFlight = 0;
+    private int queueDepth = 0;
+    private long lastBackoffMs = 0;
+    private long totalOperations = 0;
+    private long totalWaitTimeMs = 0;
+    private long maxWaitTimeMs = 0;
+    private long throttledCount = 0;
+    private long backoffCount = 0;
+
+    /**
+     * @param latencyThresholdsMs the latency above which an operation of a class counts as congestion, a class
+     *                            without a positive threshold never does
+     */
+    MetadataOperationLimiter(Map<MetadataOperationClass, Double> ratesPerSec, int maxConcurrency,
+            Map<MetadataOperationClass, Long> latencyThresholdsMs) {
+        for (Map.Entry<MetadataOperationClass, Double> entry : ratesPerSec.entrySet()) {
+            if (entry.getValue() > 0) {
+                buckets.put(entry.getKey(), new TokenBucket(entry.getValue()));
+            }
+        }
+        this.latencyThresholdsMs = new EnumMap<>(latencyThresholdsMs);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.concurrencyLimit = this.maxConcurrency;
+    }
+
+    /**
+     * @return the limiter of {@code mountPointAddr}, created from the given settings by the first caller
+     */
+    static MetadataOperationLimiter getOrCreate(String mountPointAddr, Map<MetadataOperationClass, Double> ratesPerSec,
+            int maxConcurrency, Map<MetadataOperationClass, Long> latencyThresholdsMs) {
+        MetadataOperationLimiter limiter = limiters.get(mountPointAddr);
+        if (limiter != null) {
+            return limiter;
+        }
+        limiter = new MetadataOperationLimiter(ratesPerSec, maxConcurrency, latencyThresholdsMs);
+        MetadataOperationLimiter existing = limiters.putIfAbsent(mountPointAddr, limiter);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            MBeans.register("chdfs", "MetadataOperationLimiter-" + mountPointAddr, limiter);
+        } catch (Exception e) {
+            log.warn(String.format("register metadata operation limiter mbean failed, mountPointAddr: %s",
+                    mountPointAddr), e);
+        }
+        log.info("metadata operation limiter created, mountPointAddr: {}, maxConcurrency: {}, rates: {}, "
+                + "latencyThresholdsMs: {}", mountPointAddr, maxConcurrency, ratesPerSec, latencyThresholdsMs);
+        return limiter;
+    }
+
+    static Permit noLimit() {
+        return Permit.NONE;
+    }
+
+    Permit acquire(MetadataOperationClass operationClass) throws IOException {
+        long startNanos = System.nanoTime();
+        synchronized (this) {
+            queueDepth++;
+        }
+        try {
+            TokenBucket bucket = buckets.get(operationClass);
+            if (bucket != null) {
+                long waitMs = bucket.reserve();
+                if (waitMs > 0) {
+                    Thread.sleep(waitMs);
+                }
+            }
+            synchronized (this) {
+                while (inFlight >= (int) concurrencyLimit) {
+                    wait();
+                }
+                inFlight++;
+                totalOperations++;
+                long waitTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                totalWaitTimeMs += waitTimeMs;
+                maxWaitTimeMs = Math.max(maxWaitTimeMs, waitTimeMs);
+            }
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException(
+                    "interrupted while waiting for a metadata operation slot").initCause(e);
+        } finally {
+            synchronized (this) {
+                queueDepth--;
+            }
+        }
+        return new Permit(this, operationClass, System.nanoTime());
+    }
+
+    private synchronized void release(MetadataOperationClass operationClass, long latencyMs, boolean throttled) {
+        inFlight--;
+        if (throttled) {
+            throttledCount++;
+        }
+        Long latencyThresholdMs = latencyThresholdsMs.get(operationClass);
+        boolean slow = latencyThresholdMs != null && latencyThresholdMs > 0 && latencyMs > latencyThresholdMs;
+        if (throttled || slow) {
+            long nowMs = System.currentTimeMillis();
+            if (nowMs - lastBackoffMs >= BACKOFF_COOLDOWN_MS) {
+                lastBackoffMs = nowMs;
+                backoffCount++;
+                concurrencyLimit = Math.max(1.0, concurrencyLimit / 2);
+                log.debug("metadata operations back off, operationClass: {}, throttled: {}, latencyMs: {}, "
+                        + "concurrencyLimit: {}", operationClass, throttled, latencyMs, (int) concurrencyLimit);
+            }
+        } else if (concurrencyLimit < maxConcurrency) {
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1.0 / concurrencyLimit);
+        }
+        notifyAll();
+    }
+
+    static boolean isThrottleError(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message == null) {
+                continue;
+            }
+            String lowerMessage = message.toLowerCase();
+            if (lowerMessage.contains("throttl") || lowerMessage.contains("slow down")
+                    || lowerMessage.contains("slowdown") || lowerMessage.contains("too many requests")
+                    || lowerMessage.contains("rate limit")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized int getConcurrencyLimit() {
+        return (int) concurrencyLimit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public synchronized long getTotalOperations() {
+        return totalOperations;
+    }
+
+    @Override
+    public synchronized long getTotalWaitTimeMs() {
+        return totalWaitTimeMs;
+    }
+
+    @Override
+    public synchronized long getMaxWaitTimeMs() {
+        return maxWaitTimeMs;
+    }
+
+    @Override
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    @Override
+    public synchronized long getBackoffCount() {
+        return backoffCount;
+    }
+}
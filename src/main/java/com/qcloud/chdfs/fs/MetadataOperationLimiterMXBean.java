@@ -0,0 +1,19 @@
+package com.qcloud.chdfs.fs;
+
+public interface MetadataOperationLimiterMXBean {
+    int getConcurrencyLimit();
+
+    int getInFlight();
+
+    int getQueueDepth();
+
+    long getTotalOperations();
+
+    long getTotalWaitTimeMs();
+
+    long getMaxWaitTimeMs();
+
+    long getThrottledCount();
+
+    long getBackoffCount();
+}
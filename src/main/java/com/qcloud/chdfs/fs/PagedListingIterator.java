@@ -0,0 +1,166 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Streams a directory listing page by page: while the caller consumes one page, the next one is fetched on the
+ * executor, so at most two pages are held whatever the size of the directory. The first page is fetched by the
+ * constructor, which surfaces a missing directory to the caller right away. When the executor is saturated, or the
+ * fetch is still queued once the caller needs the page, the next page is fetched inline instead: a caller running
+ * on an executor thread never waits for a task queued behind it.
+ *
+ * <p>A failed fetch ends the listing, the source is not asked again. A caller which stops before the end should
+ * close the iterator, which cancels the fetch of the next page.
+ */
+class PagedListingIterator<T> implements RemoteIterator<T>, Closeable {
+    /**
+     * Fetches the pages of one listing, one call at a time.
+     */
+    interface PageSource<T> {
+        /**
+         * @return the next page, which may be empty if all its entries were filtered out, or null at the end
+         */
+        List<T> nextPage() throws IOException;
+
+        /**
+         * @return false once the page returned last is known to be the last one, which saves the fetch of the end
+         */
+        boolean hasMorePages();
+    }
+
+    private final PageSource<T> source;
+    private final BoundedOperationExecutor executor;
+    private final UserGroupInformation callerUgi;
+    private List<T> currentPage;
+    private int currentIndex = 0;
+    private Future<List<T>> nextPageFuture = null;
+    private boolean exhausted = false;
+
+    PagedListingIterator(PageSource<T> source, BoundedOperationExecutor executor) throws IOException {
+        this.source = source;
+        this.executor = executor;
+        // the pages are fetched on executor threads, but must be fetched as the caller
+        this.callerUgi = UserGroupInformation.getCurrentUser();
+        this.currentPage = source.nextPage();
+        if (this.currentPage == null) {
+            this.currentPage = Collections.emptyList();
+            this.exhausted = true;
+        } else if (source.hasMorePages()) {
+            prefetch();
+        } else {
+            this.exhausted = true;
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (currentIndex >= currentPage.size()) {
+            if (exhausted) {
+                return false;
+            }
+            List<T> page;
+            try {
+                page = takeNextPage();
+            } catch (IOException | RuntimeException e) {
+                finish();
+                throw e;
+            }
+            if (page == null) {
+                finish();
+                return false;
+            }
+            currentPage = page;
+            currentIndex = 0;
+            if (source.hasMorePages()) {
+                prefetch();
+            } else {
+                exhausted = true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more entries in the listing");
+        }
+        return currentPage.get(currentIndex++);
+    }
+
+    /**
+     * Cancel the fetch of the next page, the iterator has no more entries afterwards.
+     */
+    @Override
+    public void close() {
+        Future<List<T>> future = nextPageFuture;
+        nextPageFuture = null;
+        if (future != null) {
+            future.cancel(true);
+        }
+        finish();
+    }
+
+    private void finish() {
+        currentPage = Collections.emptyList();
+        currentIndex = 0;
+        exhausted = true;
+    }
+
+    private void prefetch() {
+        try {
+            nextPageFuture = executor.submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return callerUgi.doAs(new PrivilegedExceptionAction<List<T>>() {
+                        @Override
+                        public List<T> run() throws IOException {
+                            return source.nextPage();
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            // the executor is saturated or shut down, takeNextPage fetches inline
+            nextPageFuture = null;
+        }
+    }
+
+    private List<T> takeNextPage() throws IOException {
+        Future<List<T>> future = nextPageFuture;
+        nextPageFuture = null;
+        if (future == null || future.cancel(false)) {
+            // not submitted, or still queued: fetching it inline cannot wait for a task behind this thread
+            return source.nextPage();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // the fetch may still be running, so the source must not be touched again
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the next listing page");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
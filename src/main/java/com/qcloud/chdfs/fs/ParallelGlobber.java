@@ -0,0 +1,211 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobExpander;
+import org.apache.hadoop.fs.GlobFilter;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A port of Hadoop's {@code org.apache.hadoop.fs.Globber} which expands the candidates of each wildcard level in
+ * parallel. Literal components in the middle of a pattern are appended without any call, like the original, and
+ * the expansion stops as soon as a wildcard level has no candidate left. Everything else, including the result
+ * of a pattern without any wildcard and the sorting of the results, follows the original.
+ */
+class ParallelGlobber {
+    private final FileSystem fs;
+    private final BoundedOperationExecutor executor;
+    private final int concurrency;
+    private final Path pathPattern;
+    private final PathFilter filter;
+    private final UserGroupInformation callerUgi;
+
+    ParallelGlobber(FileSystem fs, BoundedOperationExecutor executor, int concurrency, Path pathPattern,
+            PathFilter filter) throws IOException {
+        this.fs = fs;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.pathPattern = pathPattern;
+        this.filter = filter;
+        // the listings run on executor threads, but must be done as the caller
+        this.callerUgi = UserGroupInformation.getCurrentUser();
+    }
+
+    FileStatus[] glob() throws IOException {
+        String scheme = pathPattern.toUri().getScheme();
+        if (scheme == null) {
+            scheme = fs.getUri().getScheme();
+        }
+        String authority = pathPattern.toUri().getAuthority();
+        if (authority == null) {
+            authority = fs.getUri().getAuthority();
+        }
+
+        List<String> flattenedPatterns = GlobExpander.expand(pathPattern.toUri().getPath());
+        List<FileStatus> results = new ArrayList<>(flattenedPatterns.size());
+        boolean sawWildcard = false;
+        for (String flatPattern : flattenedPatterns) {
+            Path absPattern = fixRelativePart(new Path(flatPattern.isEmpty() ? Path.CUR_DIR : flatPattern));
+            List<String> components = getPathComponents(absPattern.toUri().getPath());
+            List<FileStatus> candidates = new ArrayList<>(1);
+            FileStatus rootPlaceholder;
+            if (Path.WINDOWS && !components.isEmpty()
+                    && Path.isWindowsAbsolutePath(absPattern.toUri().getPath(), true)) {
+                String driveLetter = components.remove(0);
+                rootPlaceholder = new FileStatus(0, true, 0, 0, 0,
+                        new Path(scheme, authority, Path.SEPARATOR + driveLetter + Path.SEPARATOR));
+            } else {
+                rootPlaceholder = new FileStatus(0, true, 0, 0, 0, new Path(scheme, authority, Path.SEPARATOR));
+            }
+            candidates.add(rootPlaceholder);
+
+            for (int componentIdx = 0; componentIdx < components.size(); componentIdx++) {
+                GlobFilter globFilter = new GlobFilter(components.get(componentIdx));
+                String component = unescapePathComponent(components.get(componentIdx));
+                if (globFilter.hasPattern()) {
+                    sawWildcard = true;
+                }
+                if (candidates.isEmpty() && sawWildcard) {
+                    break;
+                }
+                boolean lastComponent = componentIdx == components.size() - 1;
+                if (!lastComponent && !globFilter.hasPattern()) {
+                    for (FileStatus candidate : candidates) {
+                        candidate.setPath(new Path(candidate.getPath(), component));
+                    }
+                    continue;
+                }
+                candidates = expandLevel(candidates, globFilter, component, lastComponent);
+            }
+
+            for (FileStatus status : candidates) {
+                if (status == rootPlaceholder) {
+                    status = getFileStatus(rootPlaceholder.getPath());
+                    if (status == null) {
+                        continue;
+                    }
+                }
+                if (filter.accept(status.getPath())) {
+                    results.add(status);
+                }
+            }
+        }
+
+        if (!sawWildcard && results.isEmpty() && flattenedPatterns.size() <= 1) {
+            return null;
+        }
+        FileStatus[] ret = results.toArray(new FileStatus[0]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Expand every candidate by one level in parallel, keeping the order of the serial expansion.
+     */
+    private List<FileStatus> expandLevel(List<FileStatus> candidates, final GlobFilter globFilter,
+            final String component, final boolean lastComponent) throws IOException {
+        // set by index from the tasks, runAll publishes the writes once it returns
+        final List<List<FileStatus>> expanded = new ArrayList<>(
+                Collections.<List<FileStatus>>nCopies(candidates.size(), null));
+        List<Callable<Void>> tasks = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            final int index = i;
+            final FileStatus candidate = candidates.get(i);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    expanded.set(index, callerUgi.doAs(new PrivilegedExceptionAction<List<FileStatus>>() {
+                        @Override
+                        public List<FileStatus> run() throws IOException {
+                            return expandCandidate(candidate, globFilter, component, lastComponent);
+                        }
+                    }));
+                    return null;
+                }
+            });
+        }
+        executor.runAll(tasks, concurrency);
+
+        List<FileStatus> newCandidates = new ArrayList<>(candidates.size());
+        for (List<FileStatus> children : expanded) {
+            newCandidates.addAll(children);
+        }
+        return newCandidates;
+    }
+
+    private List<FileStatus> expandCandidate(FileStatus candidate, GlobFilter globFilter, String component,
+            boolean lastComponent) throws IOException {
+        List<FileStatus> newCandidates = new ArrayList<>();
+        if (!globFilter.hasPattern()) {
+            FileStatus childStatus = getFileStatus(new Path(candidate.getPath(), component));
+            if (childStatus != null) {
+                newCandidates.add(childStatus);
+            }
+            return newCandidates;
+        }
+
+        FileStatus[] children = listStatus(candidate.getPath());
+        if (children.length == 1) {
+            // listing a file returns the file itself, which has no children to match
+            FileStatus candidateStatus = getFileStatus(candidate.getPath());
+            if (candidateStatus == null || !candidateStatus.isDirectory()) {
+                return newCandidates;
+            }
+        }
+        for (FileStatus child : children) {
+            if (!lastComponent && !child.isDirectory()) {
+                continue;
+            }
+            child.setPath(new Path(candidate.getPath(), child.getPath().getName()));
+            if (globFilter.accept(child.getPath())) {
+                newCandidates.add(child);
+            }
+        }
+        return newCandidates;
+    }
+
+    private Path fixRelativePart(Path p) {
+        return p.isUriPathAbsolute() ? p : new Path(fs.getWorkingDirectory(), p);
+    }
+
+    private FileStatus getFileStatus(Path path) throws IOException {
+        try {
+            return fs.getFileStatus(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private FileStatus[] listStatus(Path path) throws IOException {
+        try {
+            return fs.listStatus(path);
+        } catch (FileNotFoundException e) {
+            return new FileStatus[0];
+        }
+    }
+
+    private static String unescapePathComponent(String name) {
+        return name.replaceAll("\\\\(.)", "$1");
+    }
+
+    private static List<String> getPathComponents(String path) {
+        List<String> components = new ArrayList<>();
+        for (String component : path.split(Path.SEPARATOR)) {
+            if (!component.isEmpty()) {
+                components.add(component);
+            }
+        }
+        return components;
+    }
+}
@@ -0,0 +1,202 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * Uploads a large local file over several streams. The file is split into parts, each part is written to a
+ * hidden temp file next to the target in parallel, then the parts are concatenated into the first one, which is
+ * renamed to the target at last. An existing target is moved aside to a hidden name until the rename succeeded,
+ * and moved back if it failed. The parts are removed if writing or concatenating them fails, once concatenated
+ * the first part is kept on failure, it holds the whole upload.
+ */
+class ParallelUploader {
+    private static final Logger log = LoggerFactory.getLogger(ParallelUploader.class);
+
+    private final FileSystem fs;
+    private final FileSystem localFs;
+    private final BoundedOperationExecutor executor;
+    private final long partSize;
+    private final int concurrency;
+    private final int bufferSize;
+    private final UserGroupInformation callerUgi;
+
+    ParallelUploader(FileSystem fs, FileSystem localFs, BoundedOperationExecutor executor, long partSize,
+            int concurrency, int bufferSize) throws IOException {
+        this.fs = fs;
+        this.localFs = localFs;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.bufferSize = bufferSize;
+        // the parts are written on executor threads, but must be done as the caller
+        this.callerUgi = UserGroupInformation.getCurrentUser();
+    }
+
+    /**
+     * @return whether {@code srcStatus} is worth uploading in parts
+     */
+    boolean isSplittable(FileStatus srcStatus) {
+        return partSize > 0 && srcStatus.isFile() && srcStatus.getLen() > partSize;
+    }
+
+    /**
+     * Upload {@code src} to {@code dst} with the target resolution of {@code FileUtil.copy}: a directory
+     * {@code dst} receives the file under its own name.
+     */
+    void upload(FileStatus srcStatus, Path dst, boolean overwrite) throws IOException {
+        final Path src = srcStatus.getPath();
+        // the part and backup paths are built from the parent of the target, which a relative path may lack
+        Path target = checkDest(src.getName(), fs.makeQualified(dst), overwrite);
+        long srcLen = srcStatus.getLen();
+        int partCount = (int) ((srcLen + partSize - 1) / partSize);
+        String uploadId = UUID.randomUUID().toString();
+        String partPrefix = String.format(".%s.%s.part-", target.getName(), uploadId);
+
+        final Path[] parts = new Path[partCount];
+        List<Callable<Void>> tasks = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            parts[i] = new Path(target.getParent(), String.format("%s%05d", partPrefix, i));
+            final Path part = parts[i];
+            final long offset = i * partSize;
+            final long length = Math.min(partSize, srcLen - offset);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return callerUgi.doAs(new PrivilegedExceptionAction<Void>() {
+                        @Override
+                        public Void run() throws IOException {
+                            writePart(src, offset, length, part);
+                            return null;
+                        }
+                    });
+                }
+            });
+        }
+
+        long startMs = System.currentTimeMillis();
+        boolean concatenated = false;
+        boolean succeeded = false;
+        try {
+            executor.runAll(tasks, concurrency);
+            Path[] rest = new Path[partCount - 1];
+            System.arraycopy(parts, 1, rest, 0, rest.length);
+            fs.concat(parts[0], rest);
+            concatenated = true;
+            Path backup = null;
+            if (overwrite && fs.exists(target)) {
+                backup = new Path(target.getParent(), String.format(".%s.%s.replaced", target.getName(), uploadId));
+                if (!fs.rename(target, backup)) {
+                    throw new IOException(String.format("move existing file %s aside to %s failed", target,
+                            backup));
+                }
+            }
+            boolean renamed = false;
+            try {
+                renamed = fs.rename(parts[0], target);
+            } finally {
+                if (!renamed && backup != null) {
+                    restore(backup, target);
+                }
+            }
+            if (!renamed) {
+                throw new IOException(String.format("rename uploaded file %s to %s failed", parts[0], target));
+            }
+            succeeded = true;
+            if (backup != null) {
+                deleteQuietly(backup);
+            }
+        } finally {
+            if (!succeeded) {
+                if (concatenated) {
+                    log.warn("parallel upload of {} to {} failed, the uploaded data is kept at {}", src, target,
+                            parts[0]);
+                } else {
+                    for (Path part : parts) {
+                        deleteQuietly(part);
+                    }
+                }
+            }
+        }
+        log.debug("parallel upload of {} to {} done, parts: {}, usedMs: {}", src, target, partCount,
+                System.currentTimeMillis() - startMs);
+    }
+
+    private void restore(Path backup, Path target) {
+        try {
+            if (fs.rename(backup, target)) {
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("restore {} from {} failed", target, backup, e);
+            return;
+        }
+        log.warn("restore {} from {} failed", target, backup);
+    }
+
+    private Path checkDest(String srcName, Path dst, boolean overwrite) throws IOException {
+        FileStatus dstStatus;
+        try {
+            dstStatus = fs.getFileStatus(dst);
+        } catch (FileNotFoundException e) {
+            return dst;
+        }
+        if (dstStatus.isDirectory()) {
+            if (srcName == null) {
+                throw new IOException("Target " + dst + " is a directory");
+            }
+            return checkDest(null, new Path(dst, srcName), overwrite);
+        }
+        if (!overwrite) {
+            throw new IOException("Target " + dst + " already exists");
+        }
+        return dst;
+    }
+
+    private void writePart(Path src, long offset, long length, Path part) throws IOException {
+        byte[] buf = new byte[bufferSize];
+        FSDataInputStream in = localFs.open(src, bufferSize);
+        try {
+            in.seek(offset);
+            FSDataOutputStream out = fs.create(part, true, bufferSize);
+            try {
+                long remaining = length;
+                while (remaining > 0) {
+                    int readLen = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (readLen < 0) {
+                        throw new EOFException(String.format("%s ends before offset %d", src, offset + length));
+                    }
+                    out.write(buf, 0, readLen);
+                    remaining -= readLen;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            fs.delete(path, false);
+        } catch (IOException e) {
+            log.warn("delete {} failed", path, e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics2.util.MBeans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups the operations and bytes of one file system instance by path prefix, e.g. {@code /warehouse/db/table}
+ * for a depth of 3, and keeps the hottest prefixes in bounded space-saving sketches. The top prefixes are
+ * published as a JMX bean and optionally dumped to the log periodically.
+ */
+class PathPrefixAccounting implements PathPrefixAccountingMXBean {
+    private static final Logger log = LoggerFactory.getLogger(PathPrefixAccounting.class);
+    private static final AtomicInteger instanceIndex = new AtomicInteger(0);
+    private static final ScheduledExecutorService logDumpScheduler =
+            Executors.newSingleThreadScheduledExecutor(utils.newDaemonThreadFactory("chdfs-prefix-accounting"));
+
+    private final String name;
+    private final int depth;
+    private final int topK;
+    private final SpaceSavingSketch opsSketch;
+    private final SpaceSavingSketch bytesSketch;
+    private ObjectName mbeanName = null;
+    private ScheduledFuture<?> logDumpFuture = null;
+
+    PathPrefixAccounting(String mountPointAddr, int depth, int capacity, int topK) {
+        this.name = String.format("PathPrefixAccounting-%s-%d", mountPointAddr, instanceIndex.getAndIncrement());
+        this.depth = Math.max(1, depth);
+        this.topK = Math.max(1, topK);
+        this.opsSketch = new SpaceSavingSketch(capacity);
+        this.bytesSketch = new SpaceSavingSketch(capacity);
+    }
+
+    void start(long logDumpIntervalSec) {
+        try {
+            this.mbeanName = MBeans.register("chdfs", name, this);
+        } catch (Exception e) {
+            log.warn(String.format("register path prefix accounting mbean failed, name: %s", name), e);
+        }
+        if (logDumpIntervalSec > 0) {
+            this.logDumpFuture = logDumpScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    dumpToLog();
+                }
+            }, logDumpIntervalSec, logDumpIntervalSec, TimeUnit.SECONDS);
+        }
+    }
+
+    void stop() {
+        if (this.logDumpFuture != null) {
+            this.logDumpFuture.cancel(false);
+            this.logDumpFuture = null;
+        }
+        if (this.mbeanName != null) {
+            MBeans.unregister(this.mbeanName);
+            this.mbeanName = null;
+        }
+    }
+
+    void recordOp(Path path) {
+        if (path != null) {
+            opsSketch.offer(getPrefix(path), 1);
+        }
+    }
+
+    void recordBytes(Path path, long bytes) {
+        if (path != null && bytes > 0) {
+            bytesSketch.offer(getPrefix(path), bytes);
+        }
+    }
+
+    String getPrefix(Path path) {
+        String pathStr = path.toUri().getPath();
+        int end = 0;
+        for (int level = 0; level < depth; level++) {
+            int nextSlash = pathStr.indexOf('/', end + 1);
+            if (nextSlash == -1) {
+                return pathStr;
+            }
+            end = nextSlash;
+        }
+        return end == 0 ? "/" : pathStr.substring(0, end);
+    }
+
+    @Override
+    public String[] getTopPrefixesByOps() {
+        return format(opsSketch.top(topK));
+    }
+
+    @Override
+    public String[] getTopPrefixesByBytes() {
+        return format(bytesSketch.top(topK));
+    }
+
+    @Override
+    public long getTotalOps() {
+        return opsSketch.getTotalWeight();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return bytesSketch.getTotalWeight();
+    }
+
+    private static String[] format(List<SpaceSavingSketch.Counter> counters) {
+        String[] formatted = new String[counters.size()];
+        for (int i = 0; i < counters.size(); i++) {
+            SpaceSavingSketch.Counter counter = counters.get(i);
+            formatted[i] = String.format("%s=%d(error<=%d)", counter.getKey(), counter.getCount(),
+                    counter.getError());
+        }
+        return formatted;
+    }
+
+    private void dumpToLog() {
+        log.info("{} totalOps: {}, totalBytes: {}, top prefixes by ops: {}, top prefixes by bytes: {}", name,
+                getTotalOps(), getTotalBytes(), Arrays.toString(getTopPrefixesByOps()),
+                Arrays.toString(getTopPrefixesByBytes()));
+    }
+}
@@ -0,0 +1,17 @@
+package com.qcloud.chdfs.fs;
+
+public interface PathPrefixAccountingMXBean {
+    /**
+     * @return the hottest path prefixes by operation count, as {@code prefix=count(±error)}
+     */
+    String[] getTopPrefixesByOps();
+
+    /**
+     * @return the hottest path prefixes by bytes read and written, as {@code prefix=bytes(±error)}
+     */
+    String[] getTopPrefixesByBytes();
+
+    long getTotalOps();
+
+    long getTotalBytes();
+}
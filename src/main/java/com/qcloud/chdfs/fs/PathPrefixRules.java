@@ -0,0 +1,60 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per path prefix settings configured as a list of {@code <prefix>=<value>}, e.g. {@code /warehouse=256m}. A path
+ * matches a prefix if it is the prefix itself or below it, and the longest matching prefix wins.
+ */
+class PathPrefixRules {
+    private final Map<String, String> rules;
+
+    private PathPrefixRules(Map<String, String> rules) {
+        this.rules = rules;
+    }
+
+    static PathPrefixRules parse(String key, String[] ruleStrings) throws IOException {
+        Map<String, String> rules = new HashMap<>();
+        for (String ruleString : ruleStrings) {
+            int sepIndex = ruleString.lastIndexOf('=');
+            if (sepIndex <= 0 || sepIndex == ruleString.length() - 1) {
+                throw new IOException(String.format("config for %s is invalid, rule: %s, exp. /prefix=value", key,
+                        ruleString));
+            }
+            String prefix = ruleString.substring(0, sepIndex).trim();
+            if (!prefix.startsWith(Path.SEPARATOR)) {
+                throw new IOException(String.format("config for %s is invalid, prefix %s is not absolute", key,
+                        prefix));
+            }
+            rules.put(new Path(prefix).toUri().getPath(), ruleString.substring(sepIndex + 1).trim());
+        }
+        return new PathPrefixRules(rules);
+    }
+
+    Collection<String> values() {
+        return rules.values();
+    }
+
+    /**
+     * @param path an absolute path, qualified or not
+     * @return the value of the longest prefix of {@code path}, or null if there is none
+     */
+    String match(Path path) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        for (Path prefix = Path.getPathWithoutSchemeAndAuthority(path); prefix != null;
+                prefix = prefix.getParent()) {
+            String value = rules.get(prefix.toUri().getPath());
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
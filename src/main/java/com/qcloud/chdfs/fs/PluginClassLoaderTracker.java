@@ -0,0 +1,141 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.URLClassLoader;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Tracks the class loaders of the implementation versions and the live file system instances of each, and closes
+ * a loader once a newer version replaced it and its last instance is closed or collected. Together with dropping
+ * the references Hadoop keeps to the classes, this lets the classes of a replaced version be unloaded and the
+ * jar file be released.
+ */
+class PluginClassLoaderTracker {
+    private static final Logger log = LoggerFactory.getLogger(PluginClassLoaderTracker.class);
+
+    private static class LoaderEntry {
+        private final URLClassLoader loader;
+        private final String versionId;
+        private int liveInstances = 0;
+        private boolean retired = false;
+
+        private LoaderEntry(URLClassLoader loader, String versionId) {
+            this.loader = loader;
+            this.versionId = versionId;
+        }
+    }
+
+    private static final Map<ClassLoader, LoaderEntry> entries = new IdentityHashMap<>();
+    // the cleanups must not keep the instances reachable, they release the count if an instance is never closed
+    private static final Map<FileSystem, FileSystemReaper.Cleanup> instanceCleanups = new WeakHashMap<>();
+    private static LoaderEntry currentEntry = null;
+
+    private PluginClassLoaderTracker() {
+    }
+
+    /**
+     * Make {@code loader} the loader of the current version, which retires the previous one.
+     */
+    static synchronized void register(URLClassLoader loader, String versionId) {
+        LoaderEntry previousEntry = currentEntry;
+        currentEntry = new LoaderEntry(loader, versionId);
+        entries.put(loader, currentEntry);
+        if (previousEntry != null) {
+            previousEntry.retired = true;
+            log.debug("plugin class loader of version {} retired, live instances: {}", previousEntry.versionId,
+                    previousEntry.liveInstances);
+            closeIfUnused(previousEntry);
+        }
+    }
+
+    /**
+     * Count {@code instance} as a user of its class loader until {@link #release(FileSystem)} or until it is
+     * collected.
+     */
+    static synchronized void retain(FileSystem instance) {
+        ClassLoader loader = instance.getClass().getClassLoader();
+        LoaderEntry entry = entries.get(loader);
+        if (entry == null) {
+            return;
+        }
+        entry.liveInstances++;
+        // the cleanup of a collected instance lingers in the weak map until the next access, so it must not keep
+        // the loader reachable. The loader is referenced by the entries while the count is positive.
+        final WeakReference<ClassLoader> loaderRef = new WeakReference<>(loader);
+        instanceCleanups.put(instance, FileSystemReaper.register(instance, new Closeable() {
+            @Override
+            public void close() {
+                releaseLoader(loaderRef.get());
+            }
+        }));
+    }
+
+    static void release(FileSystem instance) {
+        FileSystemReaper.Cleanup cleanup;
+        synchronized (PluginClassLoaderTracker.class) {
+            cleanup = instanceCleanups.remove(instance);
+        }
+        if (cleanup != null) {
+            try {
+                cleanup.close();
+            } catch (IOException e) {
+                log.warn("release plugin class loader of {} failed", instance.getClass().getName(), e);
+            }
+        }
+    }
+
+    private static synchronized void releaseLoader(ClassLoader loader) {
+        LoaderEntry entry = loader == null ? null : entries.get(loader);
+        if (entry != null) {
+            entry.liveInstances--;
+            closeIfUnused(entry);
+        }
+    }
+
+    private static void closeIfUnused(LoaderEntry entry) {
+        if (!entry.retired || entry.liveInstances > 0) {
+            return;
+        }
+        entries.remove(entry.loader);
+        forgetFileSystemStatistics(entry.loader);
+        try {
+            entry.loader.close();
+            log.info("plugin class loader of version {} closed", entry.versionId);
+        } catch (IOException e) {
+            log.warn("close plugin class loader of version {} failed", entry.versionId, e);
+        }
+    }
+
+    /**
+     * {@link FileSystem} keeps the statistics of every file system class in a static table keyed by the class,
+     * which keeps the classes of a replaced version loaded forever. Drop the entries of {@code loader}.
+     */
+    private static void forgetFileSystemStatistics(ClassLoader loader) {
+        try {
+            Field statisticsTableField = FileSystem.class.getDeclaredField("statisticsTable");
+            statisticsTableField.setAccessible(true);
+            // FileSystem.getStatistics synchronizes on the class
+            synchronized (FileSystem.class) {
+                Map<?, ?> statisticsTable = (Map<?, ?>) statisticsTableField.get(null);
+                Iterator<?> keyIterator = statisticsTable.keySet().iterator();
+                while (keyIterator.hasNext()) {
+                    if (((Class<?>) keyIterator.next()).getClassLoader() == loader) {
+                        keyIterator.remove();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.debug("drop the filesystem statistics of a plugin class loader failed", e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.qcloud.chdfs.fs;
+
+import com.qcloud.chdfs.permission.RangerAccessType;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.AccessControlException;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TTL and size bounded cache of ranger decisions keyed by (user, path, access type). Only definite decisions are
+ * cached: an allow, or a deny surfaced as {@link AccessControlException}. Any other failure goes to the caller
+ * uncached.
+ *
+ * <p>With parent reuse enabled, a path without a decision of its own inherits the cached allow of its nearest
+ * ancestor, which matches recursive ranger policies. Denies are never inherited, since a more specific policy of
+ * the child may still allow it.
+ */
+class RangerPermissionCache {
+    private static class Decision {
+        private final String denyMessage;
+        private final long expireMs;
+
+        private Decision(String denyMessage, long expireMs) {
+            this.denyMessage = denyMessage;
+            this.expireMs = expireMs;
+        }
+
+        private boolean isAllowed() {
+            return denyMessage == null;
+        }
+    }
+
+    private final long ttlMs;
+    private final boolean parentReuse;
+    private final Map<String, Decision> decisions;
+
+    RangerPermissionCache(long ttlMs, final int maxEntries, boolean parentReuse) {
+        this.ttlMs = ttlMs;
+        this.parentReuse = parentReuse;
+        this.decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Check {@code path} through the cache, asking {@code checker} on a miss.
+     *
+     * @param path an absolute path
+     */
+    void check(String user, Path path, RangerAccessType accessType, RangerPermissionChecker checker)
+            throws IOException {
+        long nowMs = System.currentTimeMillis();
+        String pathStr = path.toUri().getPath();
+        Decision decision = getDecision(buildKey(user, accessType, pathStr), nowMs);
+        if (decision == null && parentReuse) {
+            decision = getInheritedAllow(user, accessType, path.getParent(), nowMs);
+        }
+        if (decision != null) {
+            if (!decision.isAllowed()) {
+                throw new AccessControlException(decision.denyMessage);
+            }
+            return;
+        }
+
+        try {
+            checker.checkPermission(path, accessType);
+        } catch (AccessControlException e) {
+            putDecision(buildKey(user, accessType, pathStr),
+                    new Decision(String.valueOf(e.getMessage()), System.currentTimeMillis() + ttlMs));
+            throw e;
+        }
+        putDecision(buildKey(user, accessType, pathStr), new Decision(null, System.currentTimeMillis() + ttlMs));
+    }
+
+    synchronized void clear() {
+        decisions.clear();
+    }
+
+    private Decision getInheritedAllow(String user, RangerAccessType accessType, Path parent, long nowMs) {
+        for (Path ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            Decision decision = getDecision(buildKey(user, accessType, ancestor.toUri().getPath()), nowMs);
+            if (decision != null && decision.isAllowed()) {
+                return decision;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Decision getDecision(String key, long nowMs) {
+        Decision decision = decisions.get(key);
+        if (decision != null && decision.expireMs <= nowMs) {
+            decisions.remove(key);
+            return null;
+        }
+        return decision;
+    }
+
+    private synchronized void putDecision(String key, Decision decision) {
+        decisions.put(key, decision);
+    }
+
+    private static String buildKey(String user, RangerAccessType accessType, String path) {
+        return user + "|" + accessType.name() + "|" + path;
+    }
+}
@@ -0,0 +1,80 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Process wide registry of reference counted implementation file systems, so that adapters created for the same
+ * mount point and configuration share one implementation instance instead of bootstrapping their own.
+ */
+class SharedFileSystemRegistry {
+    private static final Logger log = LoggerFactory.getLogger(SharedFileSystemRegistry.class);
+    private static final Map<String, SharedEntry> sharedEntries = new HashMap<>();
+
+    private static class SharedEntry {
+        private int refCount = 0;
+        private FileSystem fileSystem = null;
+    }
+
+    private SharedFileSystemRegistry() {
+    }
+
+    /**
+     * Get the file system shared under {@code key}, the first caller creates it with {@code factory}.
+     * Every successful call must be paired with a {@link #release(String)}.
+     */
+    static FileSystem acquire(String key, Callable<FileSystem> factory) throws IOException {
+        SharedEntry entry;
+        synchronized (sharedEntries) {
+            entry = sharedEntries.get(key);
+            if (entry == null) {
+                entry = new SharedEntry();
+                sharedEntries.put(key, entry);
+            }
+            entry.refCount++;
+        }
+
+        // other keys are not blocked while this one is being initialized
+        synchronized (entry) {
+            if (entry.fileSystem == null) {
+                try {
+                    entry.fileSystem = factory.call();
+                    log.debug("create shared impl filesystem, key: {}", key);
+                } catch (Exception e) {
+                    release(key);
+                    if (e instanceof IOException) {
+                        throw (IOException) e;
+                    }
+                    throw new IOException("create shared impl filesystem failed", e);
+                }
+            }
+            return entry.fileSystem;
+        }
+    }
+
+    /**
+     * @return the shared file system if this was the last reference and the caller has to close it, else null
+     */
+    static FileSystem release(String key) {
+        synchronized (sharedEntries) {
+            SharedEntry entry = sharedEntries.get(key);
+            if (entry == null) {
+                log.warn("release an unknown shared impl filesystem, key: {}", key);
+                return null;
+            }
+            entry.refCount--;
+            if (entry.refCount > 0) {
+                return null;
+            }
+            sharedEntries.remove(key);
+            log.debug("last reference of shared impl filesystem released, key: {}", key);
+            return entry.fileSystem;
+        }
+    }
+}
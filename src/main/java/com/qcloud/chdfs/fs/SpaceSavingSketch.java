@@ -0,0 +1,146 @@
+package com.qcloud.chdfs.fs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-saving heavy hitter sketch (Metwally et al.) over weighted keys. It keeps at most {@code capacity}
+ * counters whatever the number of distinct keys. When a new key arrives while the sketch is full, it takes over
+ * the smallest counter and inherits its count as the error bound, so a reported count never underestimates
+ * and overestimates by at most {@link Counter#getError()}. The counters are kept in a min-heap indexed by key, so an
+ * offer costs O(log capacity) instead of a scan of all the counters.
+ */
+class SpaceSavingSketch {
+    static class Counter {
+        private final String key;
+        private final long count;
+        private final long error;
+
+        private Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getError() {
+            return error;
+        }
+    }
+
+    private static class MutableCounter {
+        private String key;
+        private long count;
+        private long error;
+        private int heapIndex;
+    }
+
+    private final int capacity;
+    private final Map<String, MutableCounter> counters;
+    // a binary min-heap by count, so the smallest counter is found and kept in order in O(log capacity)
+    private final MutableCounter[] heap;
+    private long totalWeight = 0;
+
+    SpaceSavingSketch(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>(this.capacity * 2);
+        this.heap = new MutableCounter[this.capacity];
+    }
+
+    synchronized void offer(String key, long weight) {
+        totalWeight += weight;
+        MutableCounter counter = counters.get(key);
+        if (counter != null) {
+            counter.count += weight;
+            siftDown(counter.heapIndex);
+            return;
+        }
+        if (counters.size() < capacity) {
+            counter = new MutableCounter();
+            counter.key = key;
+            counter.count = weight;
+            counter.heapIndex = counters.size();
+            heap[counter.heapIndex] = counter;
+            counters.put(key, counter);
+            siftUp(counter.heapIndex);
+            return;
+        }
+
+        MutableCounter minCounter = heap[0];
+        counters.remove(minCounter.key);
+        minCounter.error = minCounter.count;
+        minCounter.count += weight;
+        minCounter.key = key;
+        counters.put(key, minCounter);
+        siftDown(0);
+    }
+
+    private void siftUp(int index) {
+        MutableCounter counter = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            MutableCounter parent = heap[parentIndex];
+            if (parent.count <= counter.count) {
+                break;
+            }
+            place(parent, index);
+            index = parentIndex;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        MutableCounter counter = heap[index];
+        int size = counters.size();
+        while (true) {
+            int childIndex = 2 * index + 1;
+            if (childIndex >= size) {
+                break;
+            }
+            if (childIndex + 1 < size && heap[childIndex + 1].count < heap[childIndex].count) {
+                childIndex++;
+            }
+            MutableCounter child = heap[childIndex];
+            if (counter.count <= child.count) {
+                break;
+            }
+            place(child, index);
+            index = childIndex;
+        }
+        place(counter, index);
+    }
+
+    private void place(MutableCounter counter, int index) {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    synchronized List<Counter> top(int k) {
+        List<Counter> snapshot = new ArrayList<>(counters.size());
+        for (MutableCounter counter : counters.values()) {
+            snapshot.add(new Counter(counter.key, counter.count, counter.error));
+        }
+        Collections.sort(snapshot, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter o1, Counter o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+        return snapshot.subList(0, Math.min(k, snapshot.size()));
+    }
+
+    synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+}
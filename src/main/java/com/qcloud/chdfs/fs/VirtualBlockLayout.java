@@ -0,0 +1,156 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.StringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The block size and block locations reported to split planning. Objects have no blocks, so both are virtual:
+ * files report the configured block size of their path, and every block is placed on hosts of the configured
+ * host list, round robin starting from a per file offset, so the splits of all files spread evenly.
+ */
+class VirtualBlockLayout {
+    /**
+     * The data node port the default locations of {@link org.apache.hadoop.fs.FileSystem} report.
+     */
+    private static final int DEFAULT_DATA_NODE_PORT = 50010;
+    private static final String[] DEFAULT_HOSTS = new String[]{"localhost"};
+
+    private final long defaultBlockSize;
+    private final PathPrefixRules blockSizeRules;
+    // the parsed block size of every rule value
+    private final Map<String, Long> blockSizeByRuleValue;
+    private final String[] hosts;
+    private final int hostsPerBlock;
+
+    private VirtualBlockLayout(long defaultBlockSize, PathPrefixRules blockSizeRules,
+            Map<String, Long> blockSizeByRuleValue, String[] hosts, int hostsPerBlock) {
+        this.defaultBlockSize = defaultBlockSize;
+        this.blockSizeRules = blockSizeRules;
+        this.blockSizeByRuleValue = blockSizeByRuleValue;
+        this.hosts = hosts.length == 0 ? DEFAULT_HOSTS : hosts;
+        this.hostsPerBlock = Math.max(1, Math.min(hostsPerBlock, this.hosts.length));
+    }
+
+    /**
+     * Parse the block size of every rule up front, so a bad value fails init instead of a later listing.
+     */
+    static VirtualBlockLayout create(String blockSizeRulesKey, long defaultBlockSize, String[] blockSizeRules,
+            String[] hosts, int hostsPerBlock) throws IOException {
+        PathPrefixRules rules = PathPrefixRules.parse(blockSizeRulesKey, blockSizeRules);
+        Map<String, Long> blockSizeByRuleValue = new HashMap<>();
+        for (String value : rules.values()) {
+            long blockSize;
+            try {
+                blockSize = parseBlockSize(value);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("config for %s is invalid, block size: %s", blockSizeRulesKey,
+                        value), e);
+            }
+            if (blockSize <= 0) {
+                throw new IOException(String.format("config for %s is invalid, block size %s is not positive",
+                        blockSizeRulesKey, value));
+            }
+            blockSizeByRuleValue.put(value, blockSize);
+        }
+        return new VirtualBlockLayout(defaultBlockSize, rules, blockSizeByRuleValue, hosts, hostsPerBlock);
+    }
+
+    private static long parseBlockSize(String value) {
+        return StringUtils.TraditionalBinaryPrefix.string2long(value);
+    }
+
+    long getDefaultBlockSize() {
+        return Math.max(0, defaultBlockSize);
+    }
+
+    /**
+     * @return the virtual block size of {@code path}, or 0 if none is configured for it
+     */
+    long getBlockSize(Path path) {
+        String ruleValue = blockSizeRules.match(path);
+        if (ruleValue != null) {
+            return blockSizeByRuleValue.get(ruleValue);
+        }
+        return getDefaultBlockSize();
+    }
+
+    /**
+     * @return {@code status} with the virtual block size of its path, the status itself for directories, paths
+     * without a virtual block size and subclasses of {@link FileStatus}, which may carry more than the copy keeps
+     */
+    FileStatus apply(FileStatus status) throws IOException {
+        if (status == null || status.isDirectory() || status.getClass() != FileStatus.class) {
+            return status;
+        }
+        long blockSize = getBlockSize(status.getPath());
+        if (blockSize <= 0 || blockSize == status.getBlockSize()) {
+            return status;
+        }
+        return new FileStatus(status.getLen(), false, status.getReplication(), blockSize,
+                status.getModificationTime(), status.getAccessTime(), status.getPermission(), status.getOwner(),
+                status.getGroup(), status.isSymlink() ? status.getSymlink() : null, status.getPath());
+    }
+
+    FileStatus[] apply(FileStatus[] statuses) throws IOException {
+        if (statuses == null) {
+            return null;
+        }
+        FileStatus[] result = statuses;
+        for (int i = 0; i < statuses.length; i++) {
+            FileStatus applied = apply(statuses[i]);
+            if (applied != statuses[i]) {
+                if (result == statuses) {
+                    result = Arrays.copyOf(statuses, statuses.length);
+                }
+                result[i] = applied;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same contract as {@link org.apache.hadoop.fs.FileSystem#getFileBlockLocations(FileStatus, long, long)}, but
+     * with one location per virtual block overlapping the range.
+     */
+    BlockLocation[] getBlockLocations(FileStatus file, long start, long len) {
+        if (file == null) {
+            return null;
+        }
+        if (start < 0 || len < 0) {
+            throw new IllegalArgumentException("Invalid start or len parameter");
+        }
+        if (file.getLen() <= start) {
+            return new BlockLocation[0];
+        }
+
+        long blockSize = getBlockSize(file.getPath());
+        if (blockSize <= 0) {
+            blockSize = file.getBlockSize() > 0 ? file.getBlockSize() : file.getLen();
+        }
+        long end = Math.min(file.getLen(), start + Math.max(len, 1));
+        long firstBlock = start / blockSize;
+        long lastBlock = (end - 1) / blockSize;
+        int hostOffset = (file.getPath().toUri().getPath().hashCode() & Integer.MAX_VALUE) % hosts.length;
+
+        BlockLocation[] locations = new BlockLocation[(int) (lastBlock - firstBlock + 1)];
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            String[] blockHosts = new String[hostsPerBlock];
+            String[] blockNames = new String[hostsPerBlock];
+            for (int i = 0; i < hostsPerBlock; i++) {
+                blockHosts[i] = hosts[(int) ((hostOffset + block + i) % hosts.length)];
+                blockNames[i] = blockHosts[i] + ":" + DEFAULT_DATA_NODE_PORT;
+            }
+            long offset = block * blockSize;
+            locations[(int) (block - firstBlock)] = new BlockLocation(blockNames, blockHosts, offset,
+                    Math.min(blockSize, file.getLen() - offset));
+        }
+        return locations;
+    }
+}
@@ -3,6 +3,8 @@ package com.qcloud.chdfs.fs;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class utils {
     public static void closeQuietly(InputStream input) {
@@ -17,4 +19,17 @@ public class utils {
         } catch (IOException ignore) {
         }
     }
+
+    public static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, String.format("%s-%d", namePrefix, threadIndex.getAndIncrement()));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
 }
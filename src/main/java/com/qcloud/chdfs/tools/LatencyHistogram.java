@@ -0,0 +1,86 @@
+package com.qcloud.chdfs.tools;
+
+/**
+ * Log-linear latency histogram in microseconds: values below 32 have a bucket each, above that every power of two
+ * is split into 16 buckets, so a reported percentile is off by at most 1/16 of the value. Not thread safe, every
+ * worker records into its own histogram and they are merged for the report.
+ */
+class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_LOG_EXPONENT = 5;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (Long.SIZE - 1 - FIRST_LOG_EXPONENT) * SUB_BUCKETS;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        buckets[bucketIndex(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMeanMicros() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    long getMaxMicros() {
+        return max;
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return the middle of the bucket holding the percentile, capped by the max
+     */
+    long getPercentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(max, bucketMiddle(i));
+            }
+        }
+        return max;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_LOG_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketMiddle(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_LOG_EXPONENT;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width / 2;
+    }
+}
@@ -0,0 +1,510 @@
+package com.qcloud.chdfs.tools;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a timed mix of metadata and I/O operations through a Hadoop file system from a pool of threads and reports
+ * the throughput and the latency percentiles of every operation, in the spirit of NNBench and TestDFSIO. It works
+ * with any file system URI, so a run can be rehearsed offline against {@code file:///} first.
+ *
+ * <pre>
+ * hadoop jar chdfs_hadoop_plugin_network-3.8.jar com.qcloud.chdfs.tools.LoadGenerator \
+ *     -uri ofs://examplebucket-1250000000/ -threads 32 -duration 60 -ops stat:4,list:1,create:1,delete:1
+ * </pre>
+ *
+ * <p>Every thread works in its own directory below {@code -dir}, starting from {@code -filesPerThread} files of
+ * {@code -fileSize} bytes written before the timed phase. An operation that needs an existing file while the thread
+ * has none left writes one instead. The run directory is deleted at the end unless {@code -keep} is given.
+ */
+public class LoadGenerator extends Configured implements Tool {
+    static final String DEFAULT_DIR = "/tmp/chdfs-loadgen";
+    static final int DEFAULT_THREADS = 16;
+    static final long DEFAULT_DURATION_SEC = 60;
+    static final String DEFAULT_OPS = "create:1,stat:1,list:1,rename:1,delete:1,open:1,read:1,write:1";
+    static final long DEFAULT_FILE_SIZE = 1024 * 1024;
+    static final int DEFAULT_FILES_PER_THREAD = 16;
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+    enum Operation {
+        CREATE(false),
+        STAT(true),
+        LIST(false),
+        RENAME(true),
+        DELETE(true),
+        OPEN(true),
+        READ(true),
+        WRITE(false);
+
+        private final boolean needsFile;
+
+        Operation(boolean needsFile) {
+            this.needsFile = needsFile;
+        }
+
+        String getConfigName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static class OperationStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long errors = 0;
+        private long bytes = 0;
+        private String firstError = null;
+
+        private void merge(OperationStats other) {
+            latency.merge(other.latency);
+            errors += other.errors;
+            bytes += other.bytes;
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+        }
+    }
+
+    private URI uri = null;
+    private Path dir = new Path(DEFAULT_DIR);
+    private int threads = DEFAULT_THREADS;
+    private long durationSec = DEFAULT_DURATION_SEC;
+    private Map<Operation, Integer> operationWeights;
+    private long fileSize = DEFAULT_FILE_SIZE;
+    private int filesPerThread = DEFAULT_FILES_PER_THREAD;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean keep = false;
+    private final PrintStream out = System.out;
+
+    public LoadGenerator() {
+    }
+
+    public LoadGenerator(Configuration conf) {
+        super(conf);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new LoadGenerator(), args));
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length == 1 && "-help".equals(args[0])) {
+            printUsage();
+            return 0;
+        }
+        try {
+            this.operationWeights = parseOperationWeights(DEFAULT_OPS);
+            parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return -1;
+        }
+
+        Configuration conf = getConf();
+        FileSystem fs = this.uri == null ? FileSystem.get(conf) : FileSystem.get(this.uri, conf);
+        Path runDir = fs.makeQualified(new Path(this.dir, String.format("run-%d", System.currentTimeMillis())));
+        this.out.printf("load generator, fs: %s, runDir: %s, threads: %d, durationSec: %d, ops: %s, fileSize: %d, "
+                        + "filesPerThread: %d%n", fs.getUri(), runDir, this.threads, this.durationSec,
+                formatOperationWeights(), this.fileSize, this.filesPerThread);
+
+        List<Operation> operationTable = buildOperationTable();
+        List<Worker> workers = new ArrayList<>(this.threads);
+        for (int i = 0; i < this.threads; i++) {
+            workers.add(new Worker(fs, new Path(runDir, String.format("thread-%d", i)), operationTable,
+                    new Random(System.nanoTime() + i)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Callable<Void>> prepareTasks = new ArrayList<>(this.threads);
+            for (final Worker worker : workers) {
+                prepareTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        worker.prepare();
+                        return null;
+                    }
+                });
+            }
+            waitAll(executor.invokeAll(prepareTasks));
+
+            final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.durationSec);
+            List<Callable<Void>> runTasks = new ArrayList<>(this.threads);
+            for (final Worker worker : workers) {
+                runTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        worker.runUntil(deadlineNanos);
+                        return null;
+                    }
+                });
+            }
+            long startNanos = System.nanoTime();
+            waitAll(executor.invokeAll(runTasks));
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            Map<Operation, OperationStats> totalStats = new EnumMap<>(Operation.class);
+            for (Worker worker : workers) {
+                for (Map.Entry<Operation, OperationStats> entry : worker.stats.entrySet()) {
+                    OperationStats stats = totalStats.get(entry.getKey());
+                    if (stats == null) {
+                        stats = new OperationStats();
+                        totalStats.put(entry.getKey(), stats);
+                    }
+                    stats.merge(entry.getValue());
+                }
+            }
+            report(totalStats, elapsedNanos);
+        } finally {
+            executor.shutdownNow();
+            if (!this.keep) {
+                fs.delete(runDir, true);
+            }
+        }
+        return 0;
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-keep".equals(arg)) {
+                this.keep = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(String.format("missing value of %s", arg));
+            }
+            String value = args[++i];
+            if ("-uri".equals(arg)) {
+                this.uri = URI.create(value);
+            } else if ("-dir".equals(arg)) {
+                this.dir = new Path(value);
+            } else if ("-threads".equals(arg)) {
+                this.threads = (int) parsePositive(arg, value);
+            } else if ("-duration".equals(arg)) {
+                this.durationSec = parsePositive(arg, value);
+            } else if ("-ops".equals(arg)) {
+                this.operationWeights = parseOperationWeights(value);
+            } else if ("-fileSize".equals(arg)) {
+                this.fileSize = parseNonNegative(arg, value);
+            } else if ("-filesPerThread".equals(arg)) {
+                this.filesPerThread = (int) parseNonNegative(arg, value);
+            } else if ("-bufferSize".equals(arg)) {
+                this.bufferSize = (int) parsePositive(arg, value);
+            } else {
+                throw new IllegalArgumentException(String.format("unknown option %s", arg));
+            }
+        }
+    }
+
+    private static long parsePositive(String option, String value) {
+        long parsed = parseNonNegative(option, value);
+        if (parsed == 0) {
+            throw new IllegalArgumentException(String.format("%s is invalid, value: %s, exp. > 0", option, value));
+        }
+        return parsed;
+    }
+
+    private static long parseNonNegative(String option, String value) {
+        long parsed;
+        try {
+            parsed = StringUtils.TraditionalBinaryPrefix.string2long(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("%s is invalid, value: %s, exp. a number like 64k",
+                    option, value));
+        }
+        if (parsed < 0) {
+            throw new IllegalArgumentException(String.format("%s is invalid, value: %s, exp. >= 0", option, value));
+        }
+        return parsed;
+    }
+
+    /**
+     * @param value comma separated {@code operation:weight} entries, like {@code stat:4,create:1}
+     */
+    static Map<Operation, Integer> parseOperationWeights(String value) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : StringUtils.getTrimmedStrings(value)) {
+            int sepIndex = entry.indexOf(':');
+            String name = sepIndex < 0 ? entry : entry.substring(0, sepIndex).trim();
+            Operation operation = null;
+            for (Operation candidate : Operation.values()) {
+                if (candidate.getConfigName().equalsIgnoreCase(name)) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null) {
+                throw new IllegalArgumentException(String.format("-ops is invalid, operation: %s, exp. create, "
+                        + "stat, list, rename, delete, open, read or write", name));
+            }
+            int weight;
+            try {
+                weight = sepIndex < 0 ? 1 : Integer.parseInt(entry.substring(sepIndex + 1).trim());
+            } catch (NumberFormatException e) {
+                weight = -1;
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException(String.format("-ops is invalid, entry: %s, exp. weight >= 0",
+                        entry));
+            }
+            weights.put(operation, weight);
+        }
+        int totalWeight = 0;
+        for (int weight : weights.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException(String.format("-ops is invalid, value: %s, exp. a positive weight",
+                    value));
+        }
+        return weights;
+    }
+
+    private String formatOperationWeights() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Operation, Integer> entry : this.operationWeights.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey().getConfigName()).append(':').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return every operation repeated by its weight, a uniform pick from it follows the mix
+     */
+    private List<Operation> buildOperationTable() {
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> entry : this.operationWeights.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                table.add(entry.getKey());
+            }
+        }
+        return table;
+    }
+
+    private static void waitAll(List<Future<Void>> futures) throws IOException, InterruptedException {
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private void report(Map<Operation, OperationStats> totalStats, long elapsedNanos) {
+        double elapsedSec = elapsedNanos / 1e9;
+        this.out.printf("elapsedSec: %.3f%n", elapsedSec);
+        this.out.printf("%-10s %10s %8s %10s %9s %9s", "operation", "ops", "errors", "ops/s", "MB/s", "avg(ms)");
+        for (double percentile : REPORTED_PERCENTILES) {
+            this.out.printf(" %9s", String.format("p%s(ms)", formatPercentile(percentile)));
+        }
+        this.out.printf(" %9s%n", "max(ms)");
+
+        OperationStats allStats = new OperationStats();
+        for (Map.Entry<Operation, OperationStats> entry : totalStats.entrySet()) {
+            printStatsLine(entry.getKey().getConfigName(), entry.getValue(), elapsedSec);
+            allStats.merge(entry.getValue());
+        }
+        printStatsLine("total", allStats, elapsedSec);
+        for (Map.Entry<Operation, OperationStats> entry : totalStats.entrySet()) {
+            if (entry.getValue().firstError != null) {
+                this.out.printf("first %s error: %s%n", entry.getKey().getConfigName(), entry.getValue().firstError);
+            }
+        }
+    }
+
+    private void printStatsLine(String name, OperationStats stats, double elapsedSec) {
+        LatencyHistogram latency = stats.latency;
+        this.out.printf("%-10s %10d %8d %10.1f %9.2f %9.3f", name, latency.getCount(), stats.errors,
+                latency.getCount() / elapsedSec, stats.bytes / elapsedSec / 1024 / 1024,
+                latency.getMeanMicros() / 1000);
+        for (double percentile : REPORTED_PERCENTILES) {
+            this.out.printf(" %9.3f", latency.getPercentileMicros(percentile) / 1000.0);
+        }
+        this.out.printf(" %9.3f%n", latency.getMaxMicros() / 1000.0);
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: LoadGenerator [-uri <fs uri>] [-dir <path>] [-threads <n>] [-duration <sec>]\n"
+                + "    [-ops <operation:weight,...>] [-fileSize <bytes>] [-filesPerThread <n>] [-bufferSize <bytes>]\n"
+                + "    [-keep] [-help]\n"
+                + "  operations: create, stat, list, rename, delete, open, read, write\n"
+                + String.format("  defaults: -dir %s -threads %d -duration %d -ops %s -fileSize %d "
+                                + "-filesPerThread %d -bufferSize %d", DEFAULT_DIR, DEFAULT_THREADS,
+                        DEFAULT_DURATION_SEC, DEFAULT_OPS, DEFAULT_FILE_SIZE, DEFAULT_FILES_PER_THREAD,
+                        DEFAULT_BUFFER_SIZE));
+        ToolRunner.printGenericCommandUsage(System.err);
+    }
+
+    /**
+     * The files and the statistics of one thread, only that thread touches them.
+     */
+    private class Worker {
+        private final FileSystem fs;
+        private final Path workDir;
+        private final List<Operation> operationTable;
+        private final Random random;
+        private final List<Path> existingFiles = new ArrayList<>();
+        private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+        private final byte[] buffer;
+        private long nextFileId = 0;
+
+        private Worker(FileSystem fs, Path workDir, List<Operation> operationTable, Random random) {
+            this.fs = fs;
+            this.workDir = workDir;
+            this.operationTable = operationTable;
+            this.random = random;
+            this.buffer = new byte[bufferSize];
+            random.nextBytes(this.buffer);
+        }
+
+        private void prepare() throws IOException {
+            fs.mkdirs(workDir);
+            for (int i = 0; i < filesPerThread; i++) {
+                existingFiles.add(write());
+            }
+        }
+
+        private void runUntil(long deadlineNanos) {
+            while (System.nanoTime() < deadlineNanos && !Thread.currentThread().isInterrupted()) {
+                Operation operation = operationTable.get(random.nextInt(operationTable.size()));
+                if (operation.needsFile && existingFiles.isEmpty()) {
+                    operation = Operation.WRITE;
+                }
+                OperationStats operationStats = stats.get(operation);
+                if (operationStats == null) {
+                    operationStats = new OperationStats();
+                    stats.put(operation, operationStats);
+                }
+                long startNanos = System.nanoTime();
+                try {
+                    operationStats.bytes += execute(operation);
+                } catch (IOException e) {
+                    operationStats.errors++;
+                    if (operationStats.firstError == null) {
+                        operationStats.firstError = e.toString();
+                    }
+                }
+                operationStats.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            }
+        }
+
+        /**
+         * @return the bytes read or written
+         */
+        private long execute(Operation operation) throws IOException {
+            switch (operation) {
+                case CREATE:
+                    Path created = newFilePath();
+                    fs.create(created, true, bufferSize).close();
+                    existingFiles.add(created);
+                    return 0;
+                case STAT:
+                    fs.getFileStatus(pickFile());
+                    return 0;
+                case LIST:
+                    fs.listStatus(workDir);
+                    return 0;
+                case RENAME:
+                    int renameIndex = random.nextInt(existingFiles.size());
+                    Path renamed = newFilePath();
+                    if (fs.rename(existingFiles.get(renameIndex), renamed)) {
+                        existingFiles.set(renameIndex, renamed);
+                    }
+                    return 0;
+                case DELETE:
+                    int deleteIndex = random.nextInt(existingFiles.size());
+                    Path deleted = existingFiles.get(deleteIndex);
+                    // swap remove, the order of the files does not matter
+                    existingFiles.set(deleteIndex, existingFiles.get(existingFiles.size() - 1));
+                    existingFiles.remove(existingFiles.size() - 1);
+                    fs.delete(deleted, false);
+                    return 0;
+                case OPEN:
+                    fs.open(pickFile(), bufferSize).close();
+                    return 0;
+                case READ:
+                    return read(pickFile());
+                case WRITE:
+                    existingFiles.add(write());
+                    return fileSize;
+                default:
+                    throw new IOException("unknown operation " + operation);
+            }
+        }
+
+        private Path newFilePath() {
+            return new Path(workDir, String.format("file-%d", nextFileId++));
+        }
+
+        private Path pickFile() {
+            return existingFiles.get(random.nextInt(existingFiles.size()));
+        }
+
+        private Path write() throws IOException {
+            Path path = newFilePath();
+            FSDataOutputStream outputStream = fs.create(path, true, bufferSize);
+            try {
+                long remaining = fileSize;
+                while (remaining > 0) {
+                    int writeLen = (int) Math.min(buffer.length, remaining);
+                    outputStream.write(buffer, 0, writeLen);
+                    remaining -= writeLen;
+                }
+            } finally {
+                outputStream.close();
+            }
+            return path;
+        }
+
+        private long read(Path path) throws IOException {
+            FSDataInputStream inputStream = fs.open(path, bufferSize);
+            try {
+                long readBytes = 0;
+                int readLen;
+                while ((readLen = inputStream.read(buffer)) != -1) {
+                    readBytes += readLen;
+                }
+                return readBytes;
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.qcloud.chdfs.fs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedOperationExecutorTest {
+    private final BoundedOperationExecutor executor = new BoundedOperationExecutor("test-executor", 2, 64);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test(timeout = 30000)
+    public void testNestedRunAllOnSaturatedExecutor() throws IOException {
+        final AtomicInteger innerTaskCount = new AtomicInteger(0);
+        List<Callable<Void>> outerTasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            outerTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // the inner workers queue up behind the outer ones, which occupy every thread
+                    executor.runAll(newCountingTasks(8, innerTaskCount), 8);
+                    return null;
+                }
+            });
+        }
+
+        executor.runAll(outerTasks, 8);
+
+        assertEquals(64, innerTaskCount.get());
+    }
+
+    @Test(timeout = 30000)
+    public void testBackgroundFailureStopsRemainingTasks() {
+        final Thread callerThread = Thread.currentThread();
+        final AtomicInteger startedCount = new AtomicInteger(0);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    startedCount.incrementAndGet();
+                    if (Thread.currentThread() != callerThread) {
+                        throw new IOException("task failed");
+                    }
+                    Thread.sleep(20);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            executor.runAll(tasks, 2);
+            fail("runAll should rethrow the failure");
+        } catch (IOException e) {
+            assertEquals("task failed", e.getMessage());
+        }
+        // the caller finishes the task it is running, but starts no further one
+        assertTrue("tasks started after the failure: " + startedCount.get(), startedCount.get() <= 3);
+    }
+
+    private static List<Callable<Void>> newCountingTasks(int count, final AtomicInteger counter) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    counter.incrementAndGet();
+                    return null;
+                }
+            });
+        }
+        return tasks;
+    }
+}
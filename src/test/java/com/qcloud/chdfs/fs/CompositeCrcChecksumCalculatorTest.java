@@ -0,0 +1,116 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompositeCrcChecksumCalculatorTest {
+    private static final int MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final BoundedOperationExecutor executor = new BoundedOperationExecutor("test-crc", 4, 64);
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        fs = new RawLocalFileSystem();
+        fs.initialize(URI.create("file:///"), new Configuration());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        fs.close();
+    }
+
+    @Test
+    public void testComposeCrcAtEverySplit() {
+        byte[] data = randomBytes(257, 1);
+        int wholeCrc = serialCrc(data, data.length);
+        for (int split = 0; split <= data.length; split++) {
+            int crcA = serialCrc(data, 0, split);
+            int crcB = serialCrc(data, split, data.length - split);
+            assertEquals("split at " + split, wholeCrc,
+                    CompositeCrcChecksumCalculator.composeCrc(crcA, crcB, data.length - split));
+        }
+    }
+
+    @Test
+    public void testParallelRangesMatchSerialCrc() throws IOException {
+        // three full ranges and an uneven last one
+        byte[] data = randomBytes(3 * MB + 12345, 2);
+        FileStatus status = writeFile("uneven", data);
+        CompositeCrcChecksumCalculator calculator = new CompositeCrcChecksumCalculator(fs, executor, MB, 4, 16);
+
+        assertEquals(new CompositeCrcFileChecksum(serialCrc(data, data.length)),
+                calculator.getFileChecksum(status, Long.MAX_VALUE));
+        assertEquals(new CompositeCrcFileChecksum(serialCrc(data, MB + 7)),
+                calculator.getFileChecksum(status, MB + 7));
+        assertEquals(new CompositeCrcFileChecksum(serialCrc(data, MB)), calculator.getFileChecksum(status, MB));
+    }
+
+    @Test
+    public void testSingleShortRange() throws IOException {
+        byte[] data = randomBytes(100, 3);
+        FileStatus status = writeFile("short", data);
+        CompositeCrcChecksumCalculator calculator = new CompositeCrcChecksumCalculator(fs, executor, MB, 4, 16);
+
+        assertEquals(new CompositeCrcFileChecksum(serialCrc(data, data.length)),
+                calculator.getFileChecksum(status, data.length));
+    }
+
+    @Test
+    public void testZeroLength() throws IOException {
+        FileStatus emptyStatus = writeFile("empty", new byte[0]);
+        FileStatus status = writeFile("nonEmpty", randomBytes(100, 4));
+        CompositeCrcChecksumCalculator calculator = new CompositeCrcChecksumCalculator(fs, executor, MB, 4, 16);
+        CompositeCrcFileChecksum emptyChecksum = new CompositeCrcFileChecksum(serialCrc(new byte[0], 0));
+
+        assertEquals(emptyChecksum, calculator.getFileChecksum(emptyStatus, Long.MAX_VALUE));
+        assertEquals(emptyChecksum, calculator.getFileChecksum(status, 0));
+    }
+
+    private FileStatus writeFile(String name, byte[] data) throws IOException {
+        Path path = new Path(tempFolder.getRoot().getAbsolutePath(), name);
+        FSDataOutputStream out = fs.create(path);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return fs.getFileStatus(path);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static int serialCrc(byte[] data, int length) {
+        return serialCrc(data, 0, length);
+    }
+
+    private static int serialCrc(byte[] data, int offset, int length) {
+        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        crc32c.update(data, offset, length);
+        return (int) crc32c.getValue();
+    }
+}
@@ -0,0 +1,87 @@
+package com.qcloud.chdfs.fs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class EndpointSelectorTest {
+    private static final String REACHABLE_HOST = "127.0.0.1";
+    private static final String CLOSED_HOST = "127.0.0.2";
+
+    private ServerSocket reachable;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        reachable = new ServerSocket(0, 50, InetAddress.getByName(REACHABLE_HOST));
+        port = reachable.getLocalPort();
+        // the same port on another loopback address, which refuses connections once closed
+        ServerSocket closed = new ServerSocket();
+        closed.bind(new InetSocketAddress(CLOSED_HOST, port));
+        closed.close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reachable.close();
+    }
+
+    @Test
+    public void testSelectReachableCandidate() {
+        EndpointSelector selector = newSelector(CLOSED_HOST, REACHABLE_HOST);
+
+        assertEquals(REACHABLE_HOST, selector.select());
+    }
+
+    @Test
+    public void testSelectFirstCandidateIfNoneIsReachable() throws IOException {
+        EndpointSelector selector = newSelector(CLOSED_HOST, REACHABLE_HOST);
+        reachable.close();
+
+        assertEquals(CLOSED_HOST, selector.select());
+    }
+
+    @Test
+    public void testKeepChoiceUntilItFails() throws IOException {
+        EndpointSelector selector = newSelector(CLOSED_HOST, REACHABLE_HOST);
+        assertEquals(REACHABLE_HOST, selector.select());
+        reachable.close();
+
+        // the choice is kept within the probe interval, and the failure of another host does not drop it
+        assertEquals(REACHABLE_HOST, selector.select());
+        selector.reportFailure(CLOSED_HOST);
+        assertEquals(REACHABLE_HOST, selector.select());
+
+        selector.reportFailure(REACHABLE_HOST);
+        assertEquals(CLOSED_HOST, selector.select());
+    }
+
+    @Test
+    public void testChdfsHostVariants() throws IOException {
+        List<String> hosts = CHDFSHadoopFileSystemAdapter.getChdfsHostVariants(
+                "f4mabcdefgh-xyzw.chdfs.ap-guangzhou.myqcloud.com", new String[]{".chdfs-dualstack.inner", "chdfs"});
+
+        assertEquals(Arrays.asList("f4mabcdefgh-xyzw.chdfs-dualstack.inner.ap-guangzhou.myqcloud.com",
+                "f4mabcdefgh-xyzw.chdfs.ap-guangzhou.myqcloud.com"), hosts);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidChdfsLabel() throws IOException {
+        CHDFSHadoopFileSystemAdapter.getChdfsHostVariants("f4mabcdefgh-xyzw.chdfs.inner.ap-guangzhou.myqcloud.com",
+                new String[]{"cos.inner"});
+    }
+
+    private EndpointSelector newSelector(String... hosts) {
+        // the selectors are shared per candidates and port, every test listens on a port of its own
+        return EndpointSelector.getOrCreate(Arrays.asList(hosts), port, 1000, 600 * 1000L);
+    }
+}
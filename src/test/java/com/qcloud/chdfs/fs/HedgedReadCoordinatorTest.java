@@ -0,0 +1,335 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedReadCoordinatorTest {
+    private static final int LENGTH = 16;
+    // enough fast reads for the coordinator to compute its first threshold
+    private static final int WARM_UP_READS = 100;
+    private static final long THRESHOLD_MS = 20;
+
+    private final List<BoundedOperationExecutor> executors = new ArrayList<>();
+    private final List<HedgedReadCoordinator> coordinators = new ArrayList<>();
+    private final StubPool pool = new StubPool();
+
+    @After
+    public void tearDown() {
+        for (HedgedReadCoordinator coordinator : coordinators) {
+            coordinator.close();
+        }
+        for (BoundedOperationExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPrimaryWins() throws IOException {
+        HedgedReadCoordinator coordinator = newWarmCoordinator(4, THRESHOLD_MS);
+        StubStream primary = new StubStream((byte) 'P');
+        pool.offer(primary);
+
+        assertRead(coordinator, 'P');
+
+        assertEquals(0, coordinator.getHedgeCount());
+        assertEquals(Collections.singletonList(primary), pool.givenBack);
+        assertFalse(primary.closed);
+    }
+
+    @Test(timeout = 30000)
+    public void testHedgeWins() throws IOException {
+        HedgedReadCoordinator coordinator = newWarmCoordinator(4, THRESHOLD_MS);
+        // the primary read only returns once its stream is closed, which the winning hedge does
+        StubStream primary = new StubStream((byte) 'P', new CountDownLatch(1));
+        StubStream hedge = new StubStream((byte) 'H');
+        pool.offer(primary);
+        pool.offer(hedge);
+
+        assertRead(coordinator, 'H');
+
+        assertEquals(1, coordinator.getHedgeCount());
+        assertEquals(1, coordinator.getHedgeWinCount());
+        assertTrue(primary.closed);
+        assertTrue(pool.discarded.contains(primary));
+        assertTrue(pool.givenBack.contains(hedge));
+    }
+
+    @Test(timeout = 30000)
+    public void testPrimaryFailureFallsBackToHedge() throws IOException {
+        HedgedReadCoordinator coordinator = newWarmCoordinator(4, THRESHOLD_MS);
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+        final CountDownLatch primaryFailed = new CountDownLatch(1);
+        StubStream primary = new StubStream((byte) 'P') {
+            @Override
+            protected void beforeRead() throws IOException {
+                await(hedgeStarted);
+                primaryFailed.countDown();
+                throw new IOException("primary read failed");
+            }
+        };
+        StubStream hedge = new StubStream((byte) 'H') {
+            @Override
+            protected void beforeRead() {
+                hedgeStarted.countDown();
+                await(primaryFailed);
+            }
+        };
+        pool.offer(primary);
+        pool.offer(hedge);
+
+        assertRead(coordinator, 'H');
+
+        assertEquals(1, coordinator.getHedgeWinCount());
+        assertTrue(pool.discarded.contains(primary));
+    }
+
+    @Test(timeout = 30000)
+    public void testPrimaryFailureWithoutHedge() throws IOException {
+        HedgedReadCoordinator coordinator = newWarmCoordinator(4, 5000);
+        StubStream primary = new StubStream((byte) 'P') {
+            @Override
+            protected void beforeRead() throws IOException {
+                throw new IOException("primary read failed");
+            }
+        };
+        pool.offer(primary);
+
+        try {
+            coordinator.read(null, pool, 0, new byte[LENGTH], 0, LENGTH, true);
+            throw new AssertionError("the failure of the primary read should be rethrown");
+        } catch (IOException e) {
+            assertEquals("primary read failed", e.getMessage());
+        }
+        assertEquals(0, coordinator.getHedgeCount());
+        assertTrue(pool.discarded.contains(primary));
+    }
+
+    @Test(timeout = 30000)
+    public void testSaturatedExecutor() throws Exception {
+        BoundedOperationExecutor executor = newExecutor(1, 1);
+        HedgedReadCoordinator coordinator = newWarmCoordinator(executor, THRESHOLD_MS);
+        // occupy the only thread and the only queue slot, so the hedge cannot be submitted
+        final CountDownLatch unblock = new CountDownLatch(1);
+        Callable<Void> blocker = new Callable<Void>() {
+            @Override
+            public Void call() {
+                await(unblock);
+                return null;
+            }
+        };
+        executor.submit(blocker);
+        executor.submit(blocker);
+        // the primary read outlasts the threshold by far, so the timer fires while it runs
+        StubStream primary = new StubStream((byte) 'P') {
+            @Override
+            protected void beforeRead() {
+                sleep(10 * THRESHOLD_MS);
+            }
+        };
+        StubStream hedge = new StubStream((byte) 'H');
+        pool.offer(primary);
+        pool.offer(hedge);
+
+        try {
+            assertRead(coordinator, 'P');
+        } finally {
+            unblock.countDown();
+        }
+
+        assertEquals(0, coordinator.getHedgeCount());
+        assertEquals("the hedge stream must not be borrowed", 1, pool.borrowCount);
+        assertEquals(Collections.singletonList(primary), pool.givenBack);
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseDuringRead() throws Exception {
+        final HedgedReadCoordinator coordinator = newWarmCoordinator(4, 5000);
+        final CountDownLatch releasePrimary = new CountDownLatch(1);
+        final StubStream primary = new StubStream((byte) 'P', releasePrimary);
+        pool.offer(primary);
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(primary.entered);
+                coordinator.close();
+                releasePrimary.countDown();
+            }
+        });
+        closer.start();
+        assertRead(coordinator, 'P');
+        closer.join();
+
+        // a closed coordinator no longer hedges, but still reads
+        StubStream next = new StubStream((byte) 'N');
+        pool.offer(next);
+        assertRead(coordinator, 'N');
+        assertEquals(0, coordinator.getHedgeCount());
+        assertEquals(Arrays.asList(primary, next), pool.givenBack);
+    }
+
+    private HedgedReadCoordinator newWarmCoordinator(int threads, long minThresholdMs) throws IOException {
+        return newWarmCoordinator(newExecutor(threads, threads), minThresholdMs);
+    }
+
+    private HedgedReadCoordinator newWarmCoordinator(BoundedOperationExecutor executor, long minThresholdMs)
+            throws IOException {
+        HedgedReadCoordinator coordinator = new HedgedReadCoordinator(executor, 95, minThresholdMs, 1);
+        coordinators.add(coordinator);
+        FSDataInputStream callerStream = new FSDataInputStream(new StubStream((byte) 'C'));
+        for (int i = 0; i < WARM_UP_READS; i++) {
+            coordinator.read(callerStream, pool, 0, new byte[LENGTH], 0, LENGTH, true);
+        }
+        assertEquals("the warm up reads must not touch the pool", 0, pool.borrowCount);
+        return coordinator;
+    }
+
+    private BoundedOperationExecutor newExecutor(int threads, int maxQueueDepth) {
+        BoundedOperationExecutor executor = new BoundedOperationExecutor("test-hedge", threads, maxQueueDepth);
+        executors.add(executor);
+        return executor;
+    }
+
+    private void assertRead(HedgedReadCoordinator coordinator, char expectedFill) throws IOException {
+        byte[] buffer = new byte[LENGTH + 2];
+        int readLen = coordinator.read(null, pool, 0, buffer, 1, LENGTH, true);
+
+        assertEquals(LENGTH, readLen);
+        byte[] expected = new byte[LENGTH + 2];
+        Arrays.fill(expected, 1, LENGTH + 1, (byte) expectedFill);
+        assertArrayEquals(expected, buffer);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fills every read with one byte value. A gated read waits for the gate, and fails once the stream is closed.
+     */
+    private static class StubStream extends FSInputStream {
+        private final byte fill;
+        private final CountDownLatch gate;
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile boolean closed = false;
+
+        StubStream(byte fill) {
+            this(fill, null);
+        }
+
+        StubStream(byte fill, CountDownLatch gate) {
+            this.fill = fill;
+            this.gate = gate;
+        }
+
+        protected void beforeRead() throws IOException {
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            entered.countDown();
+            beforeRead();
+            try {
+                while (gate != null && !closed && !gate.await(5, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            Arrays.fill(buffer, offset, offset + length, fill);
+            return length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void seek(long pos) {
+        }
+
+        @Override
+        public long getPos() {
+            return 0;
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) {
+            return false;
+        }
+
+        @Override
+        public int read() {
+            return fill;
+        }
+    }
+
+    /**
+     * Hands out the offered streams in order, and records what is given back and discarded.
+     */
+    private static class StubPool implements HedgedReadCoordinator.StreamPool {
+        private final Queue<StubStream> streams = new ConcurrentLinkedQueue<>();
+        final List<StubStream> givenBack = Collections.synchronizedList(new ArrayList<StubStream>());
+        final List<StubStream> discarded = Collections.synchronizedList(new ArrayList<StubStream>());
+        volatile int borrowCount = 0;
+
+        void offer(StubStream stream) {
+            streams.add(stream);
+        }
+
+        @Override
+        public synchronized FSDataInputStream borrow() throws IOException {
+            StubStream stream = streams.poll();
+            if (stream == null) {
+                throw new IOException("no stream left");
+            }
+            borrowCount++;
+            return new FSDataInputStream(stream);
+        }
+
+        @Override
+        public void giveBack(FSDataInputStream in) {
+            givenBack.add((StubStream) in.getWrappedStream());
+        }
+
+        @Override
+        public void discard(FSDataInputStream in) {
+            discarded.add((StubStream) in.getWrappedStream());
+            utils.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.qcloud.chdfs.fs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.MD5Hash;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JarDeltaPatcherTest {
+    private static final byte[] BASE = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File baseJar;
+    private File targetJar;
+    private HttpServer server;
+    private final Map<String, byte[]> served = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        baseJar = tempFolder.newFile("base.jar");
+        Files.write(baseJar.toPath(), BASE);
+        targetJar = new File(tempFolder.getRoot(), "target.jar");
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] insert = "INSERTED".getBytes(StandardCharsets.US_ASCII);
+        byte[] expected = concat(Arrays.copyOfRange(BASE, 10, 20), insert, Arrays.copyOfRange(BASE, 0, 5));
+        DeltaWriter delta = new DeltaWriter(expected.length).copy(10, 10).insert(insert).copy(0, 5);
+
+        JarDeltaPatcher.apply(baseJar, delta.finish(), targetJar);
+
+        assertArrayEquals(expected, Files.readAllBytes(targetJar.toPath()));
+    }
+
+    @Test
+    public void testBadMagic() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.write("NOTDELTA".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(1);
+        out.writeLong(0);
+        out.writeByte(0);
+        out.close();
+
+        assertApplyFails(new ByteArrayInputStream(bytes.toByteArray()), "bad magic");
+    }
+
+    @Test
+    public void testCopyOutOfRange() throws IOException {
+        DeltaWriter delta = new DeltaWriter(10).copy(BASE.length - 5, 10);
+
+        assertApplyFails(delta.finish(), "invalid jar delta copy");
+    }
+
+    @Test
+    public void testLengthMismatch() throws IOException {
+        DeltaWriter delta = new DeltaWriter(20).copy(0, 10);
+
+        assertApplyFails(delta.finish(), "length mismatch");
+    }
+
+    @Test
+    public void testAbortPastTargetLength() throws IOException {
+        DeltaWriter delta = new DeltaWriter(8).copy(0, 4).insert(new byte[1024 * 1024]);
+
+        assertApplyFails(delta.finish(), "exceeds the target length");
+        assertTrue(targetJar.length() <= 8);
+    }
+
+    @Test
+    public void testFallbackToFullDownload() throws IOException {
+        byte[] expected = concat(BASE, "v2".getBytes(StandardCharsets.US_ASCII));
+        String cacheDir = tempFolder.newFolder("jar-cache").getAbsolutePath();
+        File cachedBaseJar = JarCacheManager.getCachedJarFile(cacheDir, "v1");
+        Files.write(cachedBaseJar.toPath(), BASE);
+        // the delta rebuilds a jar whose md5 does not match, so the full jar is downloaded instead
+        DeltaWriter corruptDelta = new DeltaWriter(BASE.length).copy(0, BASE.length);
+        String jarPath = startServer() + "/chdfs_hadoop_plugin.jar";
+        served.put("/chdfs_hadoop_plugin.jar.from-" + md5Hex(BASE) + ".delta", toBytes(corruptDelta.finish()));
+        served.put("/chdfs_hadoop_plugin.jar", expected);
+
+        File jarFile = CHDFSHadoopFileSystemJarLoader.downloadJarPath(jarPath, "v2", md5Hex(expected), cacheDir,
+                "localhost", false, "test", true);
+
+        assertEquals(JarCacheManager.getCachedJarFile(cacheDir, "v2"), jarFile);
+        assertArrayEquals(expected, Files.readAllBytes(jarFile.toPath()));
+        assertEquals(1, requestCount("/chdfs_hadoop_plugin.jar.from-" + md5Hex(BASE) + ".delta"));
+        assertEquals(1, requestCount("/chdfs_hadoop_plugin.jar"));
+        assertFalse(new File(jarFile.getPath() + ".delta.tmp").exists());
+    }
+
+    @Test
+    public void testDeltaDisabled() throws IOException {
+        byte[] expected = concat(BASE, "v2".getBytes(StandardCharsets.US_ASCII));
+        String cacheDir = tempFolder.newFolder("jar-cache").getAbsolutePath();
+        Files.write(JarCacheManager.getCachedJarFile(cacheDir, "v1").toPath(), BASE);
+        String jarPath = startServer() + "/chdfs_hadoop_plugin.jar";
+        served.put("/chdfs_hadoop_plugin.jar", expected);
+
+        File jarFile = CHDFSHadoopFileSystemJarLoader.downloadJarPath(jarPath, "v2", md5Hex(expected), cacheDir,
+                "localhost", false, "test", false);
+
+        assertArrayEquals(expected, Files.readAllBytes(jarFile.toPath()));
+        assertEquals(0, requestCount("/chdfs_hadoop_plugin.jar.from-" + md5Hex(BASE) + ".delta"));
+        assertEquals(1, requestCount("/chdfs_hadoop_plugin.jar"));
+    }
+
+    private void assertApplyFails(ByteArrayInputStream delta, String expectedMessage) {
+        try {
+            JarDeltaPatcher.apply(baseJar, delta, targetJar);
+            fail("applying the delta should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+
+    private String startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                AtomicInteger count = requests.get(path);
+                if (count == null) {
+                    requests.put(path, count = new AtomicInteger());
+                }
+                count.incrementAndGet();
+                byte[] body = served.get(path);
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private int requestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static String md5Hex(byte[] data) {
+        return Hex.encodeHexString(MD5Hash.digest(data).getDigest());
+    }
+
+    private static byte[] toBytes(ByteArrayInputStream in) {
+        byte[] bytes = new byte[in.available()];
+        in.read(bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a delta in the format read by {@link JarDeltaPatcher}.
+     */
+    private static class DeltaWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out;
+
+        DeltaWriter(long targetLength) throws IOException {
+            out = new DataOutputStream(new GZIPOutputStream(bytes));
+            out.write("CHDFSDLT".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(1);
+            out.writeLong(targetLength);
+        }
+
+        DeltaWriter copy(long offset, int length) throws IOException {
+            out.writeByte(1);
+            out.writeLong(offset);
+            out.writeInt(length);
+            return this;
+        }
+
+        DeltaWriter insert(byte[] data) throws IOException {
+            out.writeByte(2);
+            out.writeInt(data.length);
+            out.write(data);
+            return this;
+        }
+
+        ByteArrayInputStream finish() throws IOException {
+            out.writeByte(0);
+            out.close();
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.qcloud.chdfs.fs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+public class PagedListingIteratorTest {
+    private final BoundedOperationExecutor executor = new BoundedOperationExecutor("test-listing", 1, 16);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test(timeout = 30000)
+    public void testConsumeOnTheOnlyExecutorThread() throws Exception {
+        final ListPageSource source = new ListPageSource(2, 1, 2, 3, 4, 5);
+        // the prefetch of the next page queues up behind the consumer, which occupies the only thread
+        List<Integer> entries = executor.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws IOException {
+                return readAll(new PagedListingIterator<>(source, executor));
+            }
+        }).get();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), entries);
+    }
+
+    @Test(timeout = 30000)
+    public void testShortPageEndsTheListing() throws IOException {
+        ListPageSource source = new ListPageSource(2, 1, 2, 3);
+
+        assertEquals(Arrays.asList(1, 2, 3), readAll(new PagedListingIterator<>(source, executor)));
+        // the short second page was the last one, the end of the listing is never fetched
+        assertEquals(2, source.fetchCount);
+    }
+
+    private static List<Integer> readAll(PagedListingIterator<Integer> iterator) throws IOException {
+        List<Integer> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+        return entries;
+    }
+
+    private static class ListPageSource implements PagedListingIterator.PageSource<Integer> {
+        private final int pageSize;
+        private final List<Integer> entries;
+        private int nextEntry = 0;
+        private volatile int fetchCount = 0;
+        private volatile boolean morePages = true;
+
+        ListPageSource(int pageSize, Integer... entries) {
+            this.pageSize = pageSize;
+            this.entries = Arrays.asList(entries);
+        }
+
+        @Override
+        public List<Integer> nextPage() {
+            fetchCount++;
+            List<Integer> page = new ArrayList<>(entries.subList(nextEntry,
+                    Math.min(entries.size(), nextEntry + pageSize)));
+            nextEntry += page.size();
+            morePages = page.size() == pageSize;
+            return page.isEmpty() ? null : page;
+        }
+
+        @Override
+        public boolean hasMorePages() {
+            return morePages;
+        }
+    }
+}
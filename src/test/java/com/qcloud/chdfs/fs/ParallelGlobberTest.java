@@ -0,0 +1,160 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link ParallelGlobber} with {@link FileSystem#globStatus(Path, PathFilter)} on the local file system.
+ */
+public class ParallelGlobberTest {
+    private static final PathFilter ACCEPT_ALL = new PathFilter() {
+        @Override
+        public boolean accept(Path path) {
+            return true;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final BoundedOperationExecutor executor = new BoundedOperationExecutor("test-glob", 4, 64);
+    private FileSystem fs;
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        fs = new RawLocalFileSystem();
+        fs.initialize(URI.create("file:///"), new Configuration());
+        root = fs.makeQualified(new Path(tempFolder.getRoot().getAbsolutePath()));
+        for (String file : new String[]{"dir1/a1", "dir1/a2", "dir1/b1", "dir1/x*y", "dir1/xzy", "dir2/a1",
+                "dir2/c3", "dir2/sub/a1", "dir3/sub/a1", "file0"}) {
+            fs.create(new Path(root, file)).close();
+        }
+        fs.mkdirs(new Path(root, "empty"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        fs.close();
+    }
+
+    @Test
+    public void testBracesAndEscapes() throws IOException {
+        assertSameGlob("dir{1,2}/a1", 2);
+        assertSameGlob("dir1/{b,a}?", 3);
+        assertSameGlob("{dir1/a1,dir2/c3,missing}", 2);
+        assertSameGlob("dir1/x\\*y", 1);
+        assertSameGlob("dir1/x*y", 2);
+        assertSameGlob("dir[12]/[ac][!2]", 3);
+    }
+
+    @Test
+    public void testLiteralLastComponent() throws IOException {
+        assertSameGlob("dir*/a1", 2);
+        assertSameGlob("dir*/sub", 2);
+        assertSameGlob("dir*/missing", 0);
+        assertSameGlob("*/sub/a1", 2);
+    }
+
+    @Test
+    public void testNoWildcard() throws IOException {
+        assertSameGlob("dir1/a1", 1);
+        assertSameGlob("dir1", 1);
+        assertSameGlob("missing/a1", -1);
+        assertSameGlob("dir1/missing", -1);
+    }
+
+    @Test
+    public void testFileInTheMiddle() throws IOException {
+        assertSameGlob("file0/*", 0);
+        assertSameGlob("dir1/a1/*", 0);
+        assertSameGlob("dir1/a1/x", -1);
+        assertSameGlob("*/a1/*", 0);
+        assertSameGlob("empty/*", 0);
+    }
+
+    @Test
+    public void testSortOrder() throws IOException {
+        assertSameGlob("*", 5);
+        assertSameGlob("dir*/*", 9);
+        assertSameGlob("{dir2,dir1}/*1", 3);
+    }
+
+    @Test
+    public void testRelativePattern() throws IOException {
+        fs.setWorkingDirectory(root);
+        assertSameGlob(new Path("dir*/a?"), 3);
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        PathFilter notA1 = new PathFilter() {
+            @Override
+            public boolean accept(Path path) {
+                return !path.getName().equals("a1");
+            }
+        };
+        Path pattern = new Path(root, "dir*/*");
+        assertSamePaths(fs.globStatus(pattern, notA1),
+                new ParallelGlobber(fs, executor, 4, pattern, notA1).glob());
+    }
+
+    /**
+     * @param expectedCount the number of matches, or -1 if the glob must return null
+     */
+    private void assertSameGlob(String pattern, int expectedCount) throws IOException {
+        assertSameGlob(new Path(root, pattern), expectedCount);
+    }
+
+    private void assertSameGlob(Path pattern, int expectedCount) throws IOException {
+        FileStatus[] expected = fs.globStatus(pattern, ACCEPT_ALL);
+        FileStatus[] actual = new ParallelGlobber(fs, executor, 4, pattern, ACCEPT_ALL).glob();
+        if (expectedCount < 0) {
+            assertNull(pattern + " should not match", expected);
+        } else {
+            assertNotNull(pattern + " should return an array", expected);
+            assertEquals(pattern.toString(), expectedCount, expected.length);
+        }
+        assertSamePaths(expected, actual);
+    }
+
+    private static void assertSamePaths(FileStatus[] expected, FileStatus[] actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(toPaths(expected), toPaths(actual));
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(expected[i].isDirectory() == actual[i].isDirectory());
+        }
+    }
+
+    private static List<Path> toPaths(FileStatus[] statuses) {
+        List<Path> paths = new ArrayList<>(statuses.length);
+        for (FileStatus status : statuses) {
+            paths.add(status.getPath());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,125 @@
+package com.qcloud.chdfs.fs;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PluginClassLoaderTrackerTest {
+    private static final long GC_TIMEOUT_MS = 10000;
+
+    /**
+     * The implementation class of the stub versions, defined again by every {@link StubPluginClassLoader}.
+     */
+    public static class StubFileSystem extends RawLocalFileSystem {
+    }
+
+    @Test
+    public void testReplacedLoaderIsCollected() throws Exception {
+        AtomicBoolean v1Closed = new AtomicBoolean(false);
+        WeakReference<ClassLoader> v1LoaderRef = loadVersion1AndReplace(v1Closed);
+        assertTrue(v1Closed.get());
+
+        for (long deadlineMs = System.currentTimeMillis() + GC_TIMEOUT_MS;
+                v1LoaderRef.get() != null && System.currentTimeMillis() < deadlineMs; ) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("the class loader of the replaced version is still reachable", v1LoaderRef.get());
+    }
+
+    /**
+     * Kept out of the test method, so no local variable of the test keeps v1 reachable.
+     */
+    private WeakReference<ClassLoader> loadVersion1AndReplace(AtomicBoolean v1Closed) throws Exception {
+        StubPluginClassLoader v1Loader = new StubPluginClassLoader(v1Closed);
+        PluginClassLoaderTracker.register(v1Loader, "v1");
+        FileSystem closedInstance = newInstance(v1Loader);
+        FileSystem droppedInstance = newInstance(v1Loader);
+        PluginClassLoaderTracker.retain(closedInstance);
+        PluginClassLoaderTracker.retain(droppedInstance);
+
+        PluginClassLoaderTracker.register(new StubPluginClassLoader(new AtomicBoolean(false)), "v2");
+        assertFalse("a loader with live instances is closed", v1Closed.get());
+        PluginClassLoaderTracker.release(closedInstance);
+        assertFalse("a loader with live instances is closed", v1Closed.get());
+
+        // the instance which is never closed is released once it is collected
+        WeakReference<FileSystem> droppedInstanceRef = new WeakReference<>(droppedInstance);
+        droppedInstance = null;
+        for (long deadlineMs = System.currentTimeMillis() + GC_TIMEOUT_MS;
+                !v1Closed.get() && System.currentTimeMillis() < deadlineMs; ) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(droppedInstanceRef.get());
+        return new WeakReference<ClassLoader>(v1Loader);
+    }
+
+    private static FileSystem newInstance(ClassLoader loader) throws Exception {
+        Class<?> implClass = loader.loadClass(StubFileSystem.class.getName());
+        assertSame(loader, implClass.getClassLoader());
+        return (FileSystem) implClass.getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Defines {@link StubFileSystem} itself, like the loader of a downloaded plugin jar defines the implementation,
+     * and delegates every other class to the test class loader.
+     */
+    private static class StubPluginClassLoader extends URLClassLoader {
+        private final AtomicBoolean closed;
+
+        StubPluginClassLoader(AtomicBoolean closed) {
+            super(new URL[0], PluginClassLoaderTrackerTest.class.getClassLoader());
+            this.closed = closed;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(StubFileSystem.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loadedClass = findLoadedClass(name);
+                if (loadedClass == null) {
+                    byte[] classBytes = readClassBytes(name);
+                    loadedClass = defineClass(name, classBytes, 0, classBytes.length);
+                }
+                return loadedClass;
+            }
+        }
+
+        private byte[] readClassBytes(String name) throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                IOUtils.copyBytes(in, out, 4096, true);
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed.set(true);
+            super.close();
+        }
+    }
+}